@@ -0,0 +1,63 @@
+package com.shvatov.dblocks.benchmark;
+
+import com.shvatov.dblocks.service.provider.BarrierProvider;
+import com.shvatov.dblocks.service.provider.BarrierProviderType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All the benchmark threads are the participants of the barriers of the same process, so each operation
+ * is a single barrier round. Threads are split into {@link #generations} batches, which are synced side by side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BarrierBenchmark {
+    @Param({"DATABASE", "IN_MEMORY"})
+    public BarrierProviderType backend;
+
+    @Param({"1", "4"})
+    public int generations;
+
+    private ConfigurableApplicationContext context;
+    private BarrierProvider barrierProvider;
+    private String processIdentifier;
+    private int batchSize;
+
+    @Setup(Level.Trial)
+    public void setUp(final BenchmarkParams params) {
+        context = BenchmarkContext.start("db-locks.barrier.notifications-enabled=true");
+        barrierProvider = context.getBean(backend.getProviderClass());
+        processIdentifier = "benchmark-" + UUID.randomUUID();
+        batchSize = Math.max(1, params.getThreads() / generations);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object awaitBarrier() throws Exception {
+        return barrierProvider.lockAndExecuteBatch(processIdentifier, batchSize, () -> processIdentifier);
+    }
+}
@@ -0,0 +1,45 @@
+package com.shvatov.dblocks.benchmark;
+
+import com.shvatov.dblocks.DbLocksApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Application context of the benchmark, started in the forked JVM against the database
+ * passed by {@link BenchmarkRunner} in the system properties.
+ */
+public final class BenchmarkContext {
+    public static final String URL_PROPERTY = "db-locks.benchmark.url";
+    public static final String USERNAME_PROPERTY = "db-locks.benchmark.username";
+    public static final String PASSWORD_PROPERTY = "db-locks.benchmark.password";
+
+    /**
+     * Every benchmark thread holds at least one connection while waiting for the lock,
+     * a participant of the barrier holds one of the lock pool.
+     */
+    static final int POOL_SIZE = 300;
+
+    private BenchmarkContext() {
+    }
+
+    public static ConfigurableApplicationContext start(final String... properties) {
+        final var allProperties = new ArrayList<>(List.of(
+                "spring.datasource.url=" + System.getProperty(URL_PROPERTY),
+                "spring.datasource.username=" + System.getProperty(USERNAME_PROPERTY, "postgres"),
+                "spring.datasource.password=" + System.getProperty(PASSWORD_PROPERTY, "postgres"),
+                "spring.datasource.hikari.maximum-pool-size=" + POOL_SIZE,
+                "db-locks.pool.max-size=" + POOL_SIZE,
+                "logging.level.root=WARN",
+                "logging.level.liquibase=WARN"
+        ));
+        allProperties.addAll(List.of(properties));
+        return new SpringApplicationBuilder(DbLocksApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(allProperties.toArray(String[]::new))
+                .run();
+    }
+}
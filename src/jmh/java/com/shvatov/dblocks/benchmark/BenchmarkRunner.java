@@ -0,0 +1,92 @@
+package com.shvatov.dblocks.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks for each of the thread counts. Database is taken from the {@code db-locks.benchmark.*}
+ * system properties or started in a container. Arguments are passed to JMH as is, e.g. {@code -p cardinality=1}.
+ * Allocations per operation are reported by the GC profiler as {@code gc.alloc.rate.norm}.
+ * <p>
+ * Every participant of a barrier needs up to two connections, so barrier is run only
+ * for the thread counts fitting into the pool.
+ */
+public class BenchmarkRunner {
+    private static final String THREADS_PROPERTY = "db-locks.benchmark.threads";
+    private static final String DEFAULT_THREADS = "1,4,16,64,256";
+
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+        final var commandLineOptions = new CommandLineOptions(args);
+        final var threadCounts = Arrays.stream(System.getProperty(THREADS_PROPERTY, DEFAULT_THREADS).split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+
+        PostgreSQLContainer<?> container = null;
+        if (System.getProperty(BenchmarkContext.URL_PROPERTY) == null) {
+            container = new PostgreSQLContainer<>("postgres:latest");
+            container.setCommand("postgres", "-c", "max_connections=" + (2 * BenchmarkContext.POOL_SIZE + 100));
+            container.start();
+            System.setProperty(BenchmarkContext.URL_PROPERTY, container.getJdbcUrl());
+            System.setProperty(BenchmarkContext.USERNAME_PROPERTY, container.getUsername());
+            System.setProperty(BenchmarkContext.PASSWORD_PROPERTY, container.getPassword());
+        }
+        System.getProperties().putIfAbsent(BenchmarkContext.USERNAME_PROPERTY, "postgres");
+        System.getProperties().putIfAbsent(BenchmarkContext.PASSWORD_PROPERTY, "postgres");
+
+        try {
+            for (final int threads : threadCounts) {
+                run(commandLineOptions, ReadWriteLockBenchmark.class, threads);
+                if (threads == 1) {
+                    // concurrency of the reactive benchmark is defined by the number of the transactions in flight
+                    run(commandLineOptions, ReactiveReadWriteLockBenchmark.class, threads);
+                }
+                if (threads * 2 <= BenchmarkContext.POOL_SIZE) {
+                    run(commandLineOptions, BarrierBenchmark.class, threads);
+                }
+                if (threads > UpdateIntentBenchmark.READERS) {
+                    // rounded up to the whole groups of the readers and the writer
+                    run(commandLineOptions, UpdateIntentBenchmark.class, threads);
+                }
+                if (threads > FairnessBenchmark.READERS) {
+                    run(commandLineOptions, FairnessBenchmark.class, threads);
+                }
+            }
+        } finally {
+            if (container != null) {
+                container.stop();
+            }
+        }
+    }
+
+    private static void run(final CommandLineOptions commandLineOptions,
+                            final Class<?> benchmark,
+                            final int threads) throws RunnerException {
+        final var options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .include("\\." + benchmark.getSimpleName() + "\\.")
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend(
+                        systemProperty(BenchmarkContext.URL_PROPERTY),
+                        systemProperty(BenchmarkContext.USERNAME_PROPERTY),
+                        systemProperty(BenchmarkContext.PASSWORD_PROPERTY)
+                )
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-%s-%d-threads.json".formatted(benchmark.getSimpleName(), threads))
+                .build();
+        new Runner(options).run();
+    }
+
+    private static String systemProperty(final String name) {
+        return "-D%s=%s".formatted(name, System.getProperty(name));
+    }
+}
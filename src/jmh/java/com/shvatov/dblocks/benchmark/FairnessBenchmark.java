@@ -0,0 +1,105 @@
+package com.shvatov.dblocks.benchmark;
+
+import com.shvatov.dblocks.service.provider.ReadWriteLockProvider;
+import com.shvatov.dblocks.service.readwrite.CoalescingReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.FairnessPolicy;
+import com.shvatov.dblocks.service.readwrite.PgReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.ReadWriteLockService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-heavy workload on a single hot process: each group runs {@link #READERS} readers holding the shared lock
+ * for {@link #READER_HOLD_MILLIS} and a single writer. Readers overlap each other, so without the fairness
+ * the shared lock is rarely free and the writer waits for a gap between them. Latency percentiles
+ * of the {@code write} method of the group show the writer tail latency of each {@link FairnessPolicy}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class FairnessBenchmark {
+    static final int READERS = 15;
+
+    private static final long READER_HOLD_MILLIS = 5;
+    private static final String PROCESS_IDENTIFIER = "benchmark-fairness";
+
+    public enum Backend {
+        ROW(ReadWriteLockService.class),
+        ADVISORY(PgReadWriteLockService.class),
+        COALESCING(CoalescingReadWriteLockService.class);
+
+        private final Class<? extends ReadWriteLockProvider> serviceClass;
+
+        Backend(final Class<? extends ReadWriteLockProvider> serviceClass) {
+            this.serviceClass = serviceClass;
+        }
+    }
+
+    @Param({"ROW", "ADVISORY", "COALESCING"})
+    public Backend backend;
+
+    @Param({"NONE", "FAIR"})
+    public FairnessPolicy fairness;
+
+    private ConfigurableApplicationContext context;
+    private ReadWriteLockProvider service;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start("db-locks.read-write.default-fairness=" + fairness);
+        service = context.getBean(backend.serviceClass);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(READERS)
+    public void read() {
+        transactionTemplate.executeWithoutResult(status -> {
+            service.acquireSharedLock(PROCESS_IDENTIFIER);
+            sleep(READER_HOLD_MILLIS);
+        });
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public void write() {
+        transactionTemplate.executeWithoutResult(status -> service.acquireExclusiveLock(PROCESS_IDENTIFIER));
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
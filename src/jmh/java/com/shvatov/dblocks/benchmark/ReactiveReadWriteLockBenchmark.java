@@ -0,0 +1,95 @@
+package com.shvatov.dblocks.benchmark;
+
+import com.shvatov.dblocks.service.readwrite.reactive.AbstractReactiveReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.reactive.ReactiveLockTransactions;
+import com.shvatov.dblocks.service.readwrite.reactive.ReactivePgReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.reactive.ReactiveReadWriteLockService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reactive counterpart of the {@link ReadWriteLockBenchmark}. Each operation is a batch of
+ * {@link #inFlight} concurrent lock transactions, issued by a single thread, so the result should be
+ * compared with the {@link ReadWriteLockBenchmark} run with the same number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ReactiveReadWriteLockBenchmark {
+    public enum Backend {
+        ROW(ReactiveReadWriteLockService.class),
+        ADVISORY(ReactivePgReadWriteLockService.class);
+
+        private final Class<? extends AbstractReactiveReadWriteLockService> serviceClass;
+
+        Backend(final Class<? extends AbstractReactiveReadWriteLockService> serviceClass) {
+            this.serviceClass = serviceClass;
+        }
+    }
+
+    @Param({"ROW", "ADVISORY"})
+    public Backend backend;
+
+    @Param({"1", "1000", "1000000"})
+    public int cardinality;
+
+    @Param({"0.0", "0.9", "1.0"})
+    public double sharedRatio;
+
+    @Param({"1", "16", "64"})
+    public int inFlight;
+
+    private ConfigurableApplicationContext context;
+    private AbstractReactiveReadWriteLockService service;
+    private ReactiveLockTransactions transactions;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(
+                "db-locks.r2dbc.enabled=true",
+                "db-locks.r2dbc.max-pool-size=" + BenchmarkContext.POOL_SIZE
+        );
+        service = context.getBean(backend.serviceClass);
+        transactions = context.getBean(ReactiveLockTransactions.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void acquireLocks() {
+        Flux.range(0, inFlight)
+                .flatMap(ignored -> transactions.transactional(acquireLock()), inFlight)
+                .blockLast();
+    }
+
+    private Mono<Void> acquireLock() {
+        final var random = ThreadLocalRandom.current();
+        final var processIdentifier = "benchmark-" + random.nextInt(cardinality);
+        return random.nextDouble() < sharedRatio
+                ? service.acquireSharedLock(processIdentifier)
+                : service.acquireExclusiveLock(processIdentifier);
+    }
+}
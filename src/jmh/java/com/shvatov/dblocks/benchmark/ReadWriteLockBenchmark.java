@@ -0,0 +1,97 @@
+package com.shvatov.dblocks.benchmark;
+
+import com.shvatov.dblocks.service.memory.InMemoryReadWriteLockService;
+import com.shvatov.dblocks.service.provider.ReadWriteLockProvider;
+import com.shvatov.dblocks.service.readwrite.CoalescingReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.PgReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.ReadWriteLockService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each operation is a transaction, which acquires a single lock of a random process
+ * out of {@link #cardinality} ones and commits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ReadWriteLockBenchmark {
+    public enum Backend {
+        ROW(ReadWriteLockService.class),
+        ADVISORY(PgReadWriteLockService.class),
+        COALESCING(CoalescingReadWriteLockService.class),
+
+        /**
+         * Baseline without the database round trips, the transaction still takes a connection.
+         */
+        IN_MEMORY(InMemoryReadWriteLockService.class);
+
+        private final Class<? extends ReadWriteLockProvider> serviceClass;
+
+        Backend(final Class<? extends ReadWriteLockProvider> serviceClass) {
+            this.serviceClass = serviceClass;
+        }
+    }
+
+    @Param({"ROW", "ADVISORY", "COALESCING", "IN_MEMORY"})
+    public Backend backend;
+
+    @Param({"1", "1000", "1000000"})
+    public int cardinality;
+
+    /**
+     * Share of the operations acquiring the shared lock, the rest acquire the exclusive one.
+     */
+    @Param({"0.0", "0.9", "1.0"})
+    public double sharedRatio;
+
+    private ConfigurableApplicationContext context;
+    private ReadWriteLockProvider service;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        service = context.getBean(backend.serviceClass);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void acquireLock() {
+        final var random = ThreadLocalRandom.current();
+        final var processIdentifier = "benchmark-" + random.nextInt(cardinality);
+        final var shared = random.nextDouble() < sharedRatio;
+        transactionTemplate.executeWithoutResult(status -> {
+            if (shared) {
+                service.acquireSharedLock(processIdentifier);
+            } else {
+                service.acquireExclusiveLock(processIdentifier);
+            }
+        });
+    }
+}
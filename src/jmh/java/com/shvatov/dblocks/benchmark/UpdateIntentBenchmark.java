@@ -0,0 +1,130 @@
+package com.shvatov.dblocks.benchmark;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.service.memory.InMemoryReadWriteLockService;
+import com.shvatov.dblocks.service.provider.ReadWriteLockProvider;
+import com.shvatov.dblocks.service.readwrite.PgReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.ReadWriteLockService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-mostly workload: each group runs {@link #READERS} readers and a single writer, all the groups
+ * lock the same {@link #cardinality} processes. The writer reads the state under the lock for {@link #WRITER_READ_MILLIS}
+ * before it decides to write. Holding the {@link WriterLock#EXCLUSIVE} lock, it blocks the readers
+ * for the whole transaction, holding the {@link WriterLock#UPDATE_INTENT} one, it blocks them only after the upgrade.
+ * Throughput of the readers is reported by the {@code read} method of the group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class UpdateIntentBenchmark {
+    static final int READERS = 7;
+
+    private static final long WRITER_READ_MILLIS = 2;
+    private static final Duration UPGRADE_TIMEOUT = Duration.ofSeconds(30);
+
+    public enum Backend {
+        ROW(ReadWriteLockService.class),
+        ADVISORY(PgReadWriteLockService.class),
+        IN_MEMORY(InMemoryReadWriteLockService.class);
+
+        private final Class<? extends ReadWriteLockProvider> serviceClass;
+
+        Backend(final Class<? extends ReadWriteLockProvider> serviceClass) {
+            this.serviceClass = serviceClass;
+        }
+    }
+
+    public enum WriterLock {
+        EXCLUSIVE,
+        UPDATE_INTENT
+    }
+
+    @Param({"ROW", "ADVISORY", "IN_MEMORY"})
+    public Backend backend;
+
+    @Param({"EXCLUSIVE", "UPDATE_INTENT"})
+    public WriterLock writerLock;
+
+    @Param({"1", "16"})
+    public int cardinality;
+
+    private ConfigurableApplicationContext context;
+    private ReadWriteLockProvider service;
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        service = context.getBean(backend.serviceClass);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(READERS)
+    public void read() {
+        final var processIdentifier = randomProcessIdentifier();
+        transactionTemplate.executeWithoutResult(status -> service.acquireSharedLock(processIdentifier));
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public void write() {
+        final var processIdentifier = randomProcessIdentifier();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (writerLock == WriterLock.EXCLUSIVE) {
+                service.acquireExclusiveLock(processIdentifier);
+            } else {
+                service.acquireUpdateIntentLock(processIdentifier);
+            }
+            sleep(WRITER_READ_MILLIS);
+            if (writerLock == WriterLock.UPDATE_INTENT
+                    && service.upgrade(processIdentifier, UPGRADE_TIMEOUT) != LockAcquisitionResult.ACQUIRED) {
+                throw new IllegalStateException("Lock has not been upgraded in " + UPGRADE_TIMEOUT);
+            }
+        });
+    }
+
+    private String randomProcessIdentifier() {
+        return "benchmark-intent-" + ThreadLocalRandom.current().nextInt(cardinality);
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
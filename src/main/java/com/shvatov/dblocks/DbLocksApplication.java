@@ -2,8 +2,11 @@ package com.shvatov.dblocks;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration;
 
-@SpringBootApplication
+// reactive connection factory and transactions of the locks are configured separately, see ReactiveLockConfiguration
+@SpringBootApplication(exclude = {R2dbcAutoConfiguration.class, R2dbcTransactionManagerAutoConfiguration.class})
 public class DbLocksApplication {
     public static void main(String[] args) {
         SpringApplication.run(DbLocksApplication.class, args);
@@ -0,0 +1,13 @@
+package com.shvatov.dblocks.model;
+
+/**
+ * Place of the participant in the barrier: generation of the process it belongs to and its position
+ * within the generation. Participant at the first position is the master of the generation.
+ *
+ * @param syncKey id of the master of the generation, keys the lock the slaves wait on till the end of the sync
+ */
+public record BarrierArrival(long generation, int position, long syncKey) {
+    public boolean isMaster() {
+        return position == 0;
+    }
+}
@@ -0,0 +1,7 @@
+package com.shvatov.dblocks.model;
+
+/**
+ * Exclusive lock, which is held without a transaction. Fencing token grows with each acquisition
+ * of the same lock, so the resources may reject the writes of the holders of the outdated leases.
+ */
+public record Lease(String processIdentifier, long fencingToken) {}
@@ -0,0 +1,23 @@
+package com.shvatov.dblocks.model;
+
+import com.shvatov.dblocks.model.enums.LockEventType;
+import com.shvatov.dblocks.model.enums.LockMode;
+
+import java.time.Instant;
+
+/**
+ * Single step of a lock or a barrier recorded by the journal.
+ *
+ * @param mode       {@code null} for the barrier events
+ * @param waitNanos  time spent acquiring the lock or waiting for the barrier, {@code -1} if not applicable
+ * @param holdNanos  time the lock has been held till the release, {@code -1} if not applicable
+ */
+public record LockEvent(long sequence,
+                        Instant timestamp,
+                        LockEventType type,
+                        String processIdentifier,
+                        LockMode mode,
+                        long waitNanos,
+                        long holdNanos,
+                        String outcome,
+                        String thread) {}
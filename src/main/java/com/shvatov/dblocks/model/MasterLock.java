@@ -2,4 +2,4 @@ package com.shvatov.dblocks.model;
 
 import com.shvatov.dblocks.model.enums.SyncStatus;
 
-public record MasterLock(Long id, String processIdentifier, SyncStatus status) {}
+public record MasterLock(Long id, String processIdentifier, SyncStatus status, Integer participants) {}
@@ -0,0 +1,12 @@
+package com.shvatov.dblocks.model;
+
+import com.shvatov.dblocks.model.enums.SyncResult;
+
+/**
+ * Result of the sync for the participant together with the number of the participants of its batch.
+ */
+public record SyncOutcome(SyncResult result, int participants) {
+    public static SyncOutcome of(final SyncResult result) {
+        return new SyncOutcome(result, 0);
+    }
+}
@@ -0,0 +1,5 @@
+package com.shvatov.dblocks.model.enums;
+
+public enum LockAcquisitionResult {
+    ACQUIRED, REJECTED, TIMED_OUT
+}
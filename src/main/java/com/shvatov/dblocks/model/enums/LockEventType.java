@@ -0,0 +1,30 @@
+package com.shvatov.dblocks.model.enums;
+
+public enum LockEventType {
+    /**
+     * Attempt to acquire a read/write lock, the outcome is the {@link LockAcquisitionResult},
+     * {@code FAILED} or {@code REENTERED}.
+     */
+    ACQUISITION,
+
+    /**
+     * Read/write lock released together with the transaction.
+     */
+    RELEASE,
+
+    /**
+     * Master has either filled the barrier, or given up, the outcome is the {@link SyncResult}.
+     */
+    BARRIER_FILL,
+
+    /**
+     * Participant of the barrier has finished waiting for the others, the outcome is its role.
+     */
+    BARRIER_WAIT,
+
+    /**
+     * Round of the barrier has to be repeated, the outcome is the role: slave has not been included into the batch
+     * and retries, or master has not found its batch full and checks its slaves again.
+     */
+    BARRIER_REPEAT
+}
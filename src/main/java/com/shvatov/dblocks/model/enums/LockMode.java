@@ -1,14 +1,34 @@
 package com.shvatov.dblocks.model.enums;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
+/**
+ * Modes are ordered by their strength: a lock held in a stronger mode allows everything a weaker one does.
+ * Row locks of the modes follow {@code for key share} / {@code for no key update} / {@code for update}:
+ * readers never wait for the holder of the update intent, which is the only one, who may later upgrade
+ * to the exclusive lock. Advisory lock functions of the {@link #UPDATE_INTENT} lock its key in the shared mode,
+ * the intent itself is an exclusive lock of the separate intent key.
+ */
 @Getter
 @RequiredArgsConstructor
 public enum LockMode {
-    EXCLUSIVE("update", "pg_advisory_xact_lock"),
-    SHARED("share", "pg_advisory_xact_lock_shared");
+    EXCLUSIVE("update", "pg_advisory_xact_lock", "pg_try_advisory_xact_lock", 2),
+    UPDATE_INTENT("no key update", "pg_advisory_xact_lock_shared", "pg_try_advisory_xact_lock_shared", 1),
+    SHARED("key share", "pg_advisory_xact_lock_shared", "pg_try_advisory_xact_lock_shared", 0);
 
     private final String sqlKeyWord;
     private final String pgLockFunction;
+    private final String pgTryLockFunction;
+
+    @Getter(AccessLevel.NONE)
+    private final int strength;
+
+    /**
+     * Whether the lock held in this mode allows everything the other mode does.
+     */
+    public boolean covers(final LockMode mode) {
+        return strength >= mode.strength;
+    }
 }
@@ -0,0 +1,254 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.model.BarrierArrival;
+import com.shvatov.dblocks.model.SyncOutcome;
+import com.shvatov.dblocks.model.enums.SyncResult;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.provider.BarrierQuorum;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKey;
+import com.shvatov.dblocks.service.seq.SequenceValueGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the rounds of the asynchronous participants as chains of short steps, so no thread is held, while they wait
+ * for each other. Participant makes its next step, once it is signalled by the {@link BarrierNotifier},
+ * but at least every {@link BarrierProperties#getFallbackPollingDelay()}. Session-level locks of the participants
+ * are kept between the steps by the {@link BarrierSession} of the node.
+ * <p>
+ * Master checks its slaves on each step till the batch is full or till the deadline of the quorum. Slave checks,
+ * whether the master has released the lock of the generation, the masters signal the participants of the process
+ * after the release.
+ */
+@Slf4j
+@Service
+public class AsyncBarrierProcessor {
+    private final LockConnectionPool lockConnectionPool;
+    private final SequenceValueGenerator sequenceValueGenerator;
+    private final BarrierGenerations barrierGenerations;
+    private final MasterLockProcessor masterLockProcessor;
+    private final SlaveLockProcessor slaveLockProcessor;
+    private final BarrierNotifier barrierNotifier;
+    private final BarrierSession barrierSession;
+    private final long pollingDelayMillis;
+    private final ScheduledThreadPoolExecutor stepScheduler;
+
+    public AsyncBarrierProcessor(final LockConnectionPool lockConnectionPool,
+                                 final SequenceValueGenerator sequenceValueGenerator,
+                                 final BarrierGenerations barrierGenerations,
+                                 final MasterLockProcessor masterLockProcessor,
+                                 final SlaveLockProcessor slaveLockProcessor,
+                                 final BarrierNotifier barrierNotifier,
+                                 final BarrierSession barrierSession,
+                                 final BarrierProperties properties) {
+        this.lockConnectionPool = lockConnectionPool;
+        this.sequenceValueGenerator = sequenceValueGenerator;
+        this.barrierGenerations = barrierGenerations;
+        this.masterLockProcessor = masterLockProcessor;
+        this.slaveLockProcessor = slaveLockProcessor;
+        this.barrierNotifier = barrierNotifier;
+        this.barrierSession = barrierSession;
+        this.pollingDelayMillis = properties.getFallbackPollingDelay().toMillis();
+        this.stepScheduler = new ScheduledThreadPoolExecutor(
+                properties.getAsyncThreads(), BarrierLockService.daemonThreads("barrier-async-step")
+        );
+        stepScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stepScheduler.shutdownNow();
+    }
+
+    /**
+     * Single round of the barrier, same as the one of the synchronous participants. Future is completed
+     * with {@link SyncResult#SUCCESS} or {@link SyncResult#REPEAT_REQUIRED}, failed sync completes it exceptionally.
+     */
+    public CompletableFuture<SyncOutcome> attemptToSync(final String processIdentifier, final BarrierQuorum quorum) {
+        final var round = new Round(processIdentifier, quorum);
+        round.wake();
+        return round.result;
+    }
+
+    private final class Round {
+        private final String processIdentifier;
+        private final BarrierQuorum quorum;
+        private final CompletableFuture<SyncOutcome> result = new CompletableFuture<>();
+        private final AtomicBoolean wakeScheduled = new AtomicBoolean();
+
+        // guarded by this
+        private long participantId;
+        private BarrierArrival arrival;
+        private AdvisoryLockKey lockKey;
+        private long lockEpoch;
+        private BarrierNotifier.Subscription subscription;
+        private ScheduledFuture<?> recheck;
+        private long startNanos;
+        private long deadline;
+
+        private Round(final String processIdentifier, final BarrierQuorum quorum) {
+            this.processIdentifier = processIdentifier;
+            this.quorum = quorum;
+        }
+
+        /**
+         * Schedules the next step, unless it is scheduled already. Called by the signals, so it never blocks.
+         */
+        void wake() {
+            if (!wakeScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                stepScheduler.execute(this::step);
+            } catch (final RejectedExecutionException exception) {
+                result.completeExceptionally(exception);
+            }
+        }
+
+        private synchronized void step() {
+            wakeScheduled.set(false);
+            if (result.isDone()) {
+                return;
+            }
+
+            try {
+                if (arrival == null) {
+                    arrive();
+                } else if (arrival.isMaster()) {
+                    stepAsMaster();
+                } else {
+                    stepAsSlave();
+                }
+            } catch (final Throwable exception) {
+                finish(null, exception);
+            }
+        }
+
+        /**
+         * Master locks its generation before its ticket is committed, slave locks its liveness lock and registers
+         * itself, then both of them wait for the signals of the other participants.
+         */
+        private void arrive() throws Exception {
+            participantId = sequenceValueGenerator.nextValue();
+            barrierSession.connect();
+            arrival = lockConnectionPool.execute(() -> {
+                final var taken = barrierGenerations.arrive(processIdentifier, quorum, participantId);
+                if (taken.isMaster()) {
+                    masterLockProcessor.createMasterLock(processIdentifier, taken.generation(), taken.syncKey());
+                    lockKey = BarrierGenerations.syncLockKey(taken.syncKey());
+                    lockEpoch = barrierSession.lock(lockKey);
+                }
+                return taken;
+            });
+            if (!arrival.isMaster()) {
+                // before the row is committed, so the master never takes a live slave for an abandoned one
+                lockKey = SlaveLockProcessor.livenessKey(participantId);
+                lockEpoch = barrierSession.lock(lockKey);
+                slaveLockProcessor.register(processIdentifier, arrival.generation(), participantId);
+            }
+
+            // before the first check, so no signal is missed
+            subscription = barrierNotifier.subscribe(processIdentifier, this::wake);
+            startNanos = System.nanoTime();
+            deadline = System.currentTimeMillis() + quorum.maxWait().toMillis();
+            if (arrival.isMaster()) {
+                stepAsMaster();
+            } else {
+                barrierNotifier.notifyParticipants(processIdentifier); // slave is ready, wake up the master
+                stepAsSlave();
+            }
+        }
+
+        private void stepAsMaster() {
+            if (!barrierSession.isHeld(lockEpoch)) {
+                throw new IllegalStateException(
+                        "Lock of the generation %d of the process %s has been lost with the session"
+                                .formatted(arrival.generation(), processIdentifier)
+                );
+            }
+
+            final var remaining = deadline - System.currentTimeMillis();
+            final var outcome = lockConnectionPool.execute(() -> masterLockProcessor.attempt(
+                    processIdentifier, arrival.generation(), quorum, participantId, startNanos, remaining <= 0
+            ));
+            if (SyncResult.REPEAT_REQUIRED == outcome.result()) {
+                recheckIn(Math.min(pollingDelayMillis, remaining));
+                return;
+            }
+            finish(
+                    outcome,
+                    SyncResult.SUCCESS == outcome.result()
+                            ? null
+                            : new IllegalStateException(
+                                    "Failed to process master lock for process %s".formatted(processIdentifier)
+                            )
+            );
+        }
+
+        private void stepAsSlave() {
+            if (!barrierGenerations.isSyncFinished(arrival.syncKey())) {
+                recheckIn(pollingDelayMillis);
+                return;
+            }
+
+            barrierSession.unlock(lockKey, lockEpoch);
+            lockKey = null;
+            final var outcome = slaveLockProcessor.outcomeOf(processIdentifier, participantId);
+            if (SyncResult.REPEAT_REQUIRED == outcome.result()) {
+                log.info("Slave has not participated in the sync of the process {}, retrying", processIdentifier);
+            }
+            finish(
+                    outcome,
+                    SyncResult.FAILURE == outcome.result()
+                            ? new IllegalStateException(
+                                    "Failed to process slave lock for process %s".formatted(processIdentifier)
+                            )
+                            : null
+            );
+        }
+
+        /**
+         * Single pending recheck per participant, so the rechecks do not pile up with the signals.
+         */
+        private void recheckIn(final long delayMillis) {
+            if (recheck != null) {
+                recheck.cancel(false);
+            }
+            recheck = stepScheduler.schedule(this::wake, Math.max(delayMillis, 1), TimeUnit.MILLISECONDS);
+        }
+
+        private void finish(final SyncOutcome outcome, final Throwable exception) {
+            if (recheck != null) {
+                recheck.cancel(false);
+            }
+            if (subscription != null) {
+                subscription.close();
+            }
+            if (lockKey != null) {
+                try {
+                    barrierSession.unlock(lockKey, lockEpoch);
+                    if (arrival != null && arrival.isMaster()) {
+                        // after the commit of the outcome, so the woken slaves see it
+                        barrierNotifier.notifyParticipants(processIdentifier);
+                    }
+                } catch (final RuntimeException unlockException) {
+                    log.warn("Failed to release the lock of the barrier {}", lockKey, unlockException);
+                }
+            }
+
+            if (exception != null) {
+                result.completeExceptionally(exception);
+            } else {
+                result.complete(outcome);
+            }
+        }
+    }
+}
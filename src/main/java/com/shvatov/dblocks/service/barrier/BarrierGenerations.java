@@ -0,0 +1,176 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.model.BarrierArrival;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.provider.BarrierQuorum;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKey;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockNamespace;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Splits the participants of the same process into the generations of {@code batchSize} participants
+ * in the order of their arrival. Participant arriving while a generation is being synced starts or joins
+ * the next one, so several generations of the process are synced at the same time. Quorum is kept with the current
+ * generation, a participant requesting another one is rejected, while the generation is open.
+ * <p>
+ * Master of the generation holds the session-level advisory lock of the generation from the moment its
+ * ticket is committed till the end of the sync, the slaves wait for the end of the sync on this lock.
+ * Lock is keyed by the id of the master in the {@link AdvisoryLockNamespace#BARRIER_SYNC} namespace, so the locks
+ * of the generations open at the same time never collide, whatever processes they belong to.
+ */
+@Slf4j
+@Component
+public class BarrierGenerations {
+    /**
+     * Next ticket of the current generation, or the first one of the next generation, once the current one
+     * is full or closed, together with the id of the master of the generation, which is the participant taking
+     * its first ticket. Nothing is returned, if the current generation is open and has another quorum, generations
+     * opened before the quorum has been stored are checked by their batch size only. Row of the process is locked
+     * till the end of the transaction, so the tickets are committed in the order they are taken.
+     */
+    static final String TAKE_TICKET_SQL = """
+            insert into db_barrier_arrival as a
+                (process_identifier, generation, arrivals, batch_size, min_participants, max_wait_millis, sync_key)
+            values (?, 0, 1, ?, ?, ?, ?)
+            on conflict (process_identifier) do update
+            set generation = case when a.arrivals < coalesce(a.batch_size, 0) then a.generation else a.generation + 1 end,
+                arrivals = case when a.arrivals < coalesce(a.batch_size, 0) then a.arrivals + 1 else 1 end,
+                batch_size = excluded.batch_size,
+                min_participants = excluded.min_participants,
+                max_wait_millis = excluded.max_wait_millis,
+                sync_key = case when a.arrivals < coalesce(a.batch_size, 0) then a.sync_key else excluded.sync_key end
+            where (a.batch_size = excluded.batch_size
+                       and coalesce(a.min_participants, excluded.min_participants) = excluded.min_participants
+                       and coalesce(a.max_wait_millis, excluded.max_wait_millis) = excluded.max_wait_millis)
+               or a.arrivals >= coalesce(a.batch_size, 0)
+            returning generation, arrivals, sync_key""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BarrierGenerations(final LockConnectionPool lockConnectionPool) {
+        this.jdbcTemplate = lockConnectionPool.getJdbcTemplate();
+    }
+
+    /**
+     * @throws IllegalStateException if the current generation of the process is open and has another quorum
+     */
+    public BarrierArrival arrive(final String processIdentifier, final BarrierQuorum quorum, final long participantId) {
+        final var arrival = jdbcTemplate.query(
+                TAKE_TICKET_SQL,
+                ps -> {
+                    ps.setString(1, processIdentifier);
+                    ps.setInt(2, quorum.maxParticipants());
+                    ps.setInt(3, quorum.minParticipants());
+                    ps.setLong(4, quorum.maxWait().toMillis());
+                    ps.setLong(5, participantId);
+                },
+                rs -> rs.next() ? new BarrierArrival(rs.getLong(1), rs.getInt(2) - 1, rs.getLong(3)) : null
+        );
+        if (arrival == null) {
+            throw new IllegalStateException(
+                    "Barrier of the process \"%s\" is waiting for %s, not for %s"
+                            .formatted(processIdentifier, currentQuorum(processIdentifier), quorum)
+            );
+        }
+        log.debug("Participant of the process {} has arrived at {}", processIdentifier, arrival);
+        return arrival;
+    }
+
+    /**
+     * Fills the generation released before it is full, so the next participants start the next generation
+     * instead of joining the released one. Row of the process is locked till the end of the transaction.
+     */
+    public void close(final String processIdentifier, final long generation) {
+        jdbcTemplate.update(
+                "update db_barrier_arrival set arrivals = batch_size where process_identifier = ? and generation = ?",
+                ps -> {
+                    ps.setString(1, processIdentifier);
+                    ps.setLong(2, generation);
+                }
+        );
+    }
+
+    /**
+     * Taken by the master in the transaction of its ticket, must be released by {@link #unlock}
+     * on the same connection.
+     */
+    public void lock(final long syncKey) {
+        callLockFunction("pg_advisory_lock", syncKey);
+    }
+
+    public void unlock(final long syncKey) {
+        callLockFunction("pg_advisory_unlock", syncKey);
+    }
+
+    /**
+     * Releases all the session-level advisory locks of the connection.
+     */
+    public void unlockAll() {
+        jdbcTemplate.query("select pg_advisory_unlock_all()", rs -> null);
+    }
+
+    /**
+     * Waits for the master of the generation to finish the sync, successful or not.
+     */
+    public void awaitSync(final long syncKey) {
+        callLockFunction("pg_advisory_lock_shared", syncKey);
+        callLockFunction("pg_advisory_unlock_shared", syncKey);
+    }
+
+    /**
+     * Same as {@link #awaitSync}, but never waits: tells whether the master of the generation has finished the sync.
+     */
+    public boolean isSyncFinished(final long syncKey) {
+        final var key = syncLockKey(syncKey);
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "select case when pg_try_advisory_lock_shared(?, ?) then pg_advisory_unlock_shared(?, ?) else false end",
+                Boolean.class,
+                key.namespace(), (int) key.key(), key.namespace(), (int) key.key()
+        ));
+    }
+
+    /**
+     * SQL condition telling, that nobody holds the session-level lock keyed by the value of the {@code bigint} column
+     * in the namespace. Lock is tried in the shared mode and released at once, so the probe never makes its holder
+     * wait, only the ones trying the exclusive lock at the same moment fail. Holders take the lock before the row
+     * keyed by it is committed, so a live holder is never seen without it.
+     */
+    static String isLockFreeSql(final AdvisoryLockNamespace namespace, final String column) {
+        return "case when pg_try_advisory_lock_shared(%1$s) then pg_advisory_unlock_shared(%1$s) else false end"
+                .formatted(namespace.sqlKeyOf(column));
+    }
+
+    /**
+     * Key of the lock of the generation, whose master has the provided id.
+     */
+    static AdvisoryLockKey syncLockKey(final long syncKey) {
+        return AdvisoryLockNamespace.BARRIER_SYNC.keyOf(syncKey);
+    }
+
+    private BarrierQuorum currentQuorum(final String processIdentifier) {
+        return jdbcTemplate.queryForObject(
+                """
+                        select coalesce(min_participants, batch_size), batch_size, coalesce(max_wait_millis, 0)
+                        from db_barrier_arrival
+                        where process_identifier = ?""",
+                (rs, rowNum) -> new BarrierQuorum(rs.getInt(1), rs.getInt(2), Duration.ofMillis(rs.getLong(3))),
+                processIdentifier
+        );
+    }
+
+    private void callLockFunction(final String function, final long syncKey) {
+        final var key = syncLockKey(syncKey);
+        jdbcTemplate.query(
+                "select " + function + "(?, ?)",
+                ps -> {
+                    ps.setInt(1, key.namespace());
+                    ps.setInt(2, (int) key.key());
+                },
+                rs -> null
+        );
+    }
+}
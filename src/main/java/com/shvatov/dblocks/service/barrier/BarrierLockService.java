@@ -1,54 +1,255 @@
 package com.shvatov.dblocks.service.barrier;
 
+import com.shvatov.dblocks.model.BarrierArrival;
+import com.shvatov.dblocks.model.SyncOutcome;
 import com.shvatov.dblocks.model.enums.SyncResult;
-import com.shvatov.dblocks.service.TransactionalProcessor;
-import lombok.RequiredArgsConstructor;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.provider.BarrierProvider;
+import com.shvatov.dblocks.service.provider.BarrierQuorum;
+import com.shvatov.dblocks.service.provider.BatchAction;
+import com.shvatov.dblocks.service.seq.SequenceValueGenerator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
-public class BarrierLockService {
-    private final TransactionalProcessor transactionalProcessor;
+public class BarrierLockService implements BarrierProvider {
+    private final LockConnectionPool lockConnectionPool;
+    private final SequenceValueGenerator sequenceValueGenerator;
+    private final BarrierGenerations barrierGenerations;
     private final MasterLockProcessor masterLockProcessor;
     private final SlaveLockProcessor slaveLockProcessor;
+    private final AsyncBarrierProcessor asyncBarrierProcessor;
+    private final BarrierNotifier barrierNotifier;
+    private final BarrierProperties properties;
+    private final ExecutorService asyncExecutor;
+    private final ScheduledExecutorService retryScheduler;
 
+    public BarrierLockService(final LockConnectionPool lockConnectionPool,
+                              final SequenceValueGenerator sequenceValueGenerator,
+                              final BarrierGenerations barrierGenerations,
+                              final MasterLockProcessor masterLockProcessor,
+                              final SlaveLockProcessor slaveLockProcessor,
+                              final AsyncBarrierProcessor asyncBarrierProcessor,
+                              final BarrierNotifier barrierNotifier,
+                              final BarrierProperties properties) {
+        this.lockConnectionPool = lockConnectionPool;
+        this.sequenceValueGenerator = sequenceValueGenerator;
+        this.barrierGenerations = barrierGenerations;
+        this.masterLockProcessor = masterLockProcessor;
+        this.slaveLockProcessor = slaveLockProcessor;
+        this.asyncBarrierProcessor = asyncBarrierProcessor;
+        this.barrierNotifier = barrierNotifier;
+        this.properties = properties;
+        this.asyncExecutor = Executors.newFixedThreadPool(properties.getAsyncThreads(), daemonThreads("barrier-action"));
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("barrier-retry"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        asyncExecutor.shutdownNow();
+    }
 
+    @Override
     @Transactional(propagation = Propagation.NEVER)
     public <T> T lockAndExecuteBatch(final String processIdentifier,
                                      final int batchSize,
                                      final Callable<T> action) throws Exception {
-        transactionalProcessor.process(() -> masterLockProcessor.createMasterLock(processIdentifier));
-        final boolean isProcessedAsMaster = transactionalProcessor.execute(
-                () -> masterLockProcessor.attemptToAcquireMasterLock(processIdentifier)
-                        .map(masterLock -> {
-                            final var result = masterLockProcessor.process(processIdentifier, batchSize);
-                            if (SyncResult.SUCCESS != result) {
-                                throw new IllegalStateException(
-                                        "Failed to process master lock for process %s"
-                                                .formatted(processIdentifier)
-                                );
-                            }
-                            return true;
-                        }).orElse(false)
-        );
-
-        if (!isProcessedAsMaster) {
-            final var result = slaveLockProcessor.process(processIdentifier);
-            if (result == SyncResult.FAILURE) {
+        return lockAndExecuteBatch(processIdentifier, exactly(batchSize), ignored -> action.call());
+    }
+
+    @Override
+    public <T> CompletableFuture<T> lockAndExecuteBatchAsync(final String processIdentifier,
+                                                             final int batchSize,
+                                                             final Callable<T> action) {
+        final BarrierQuorum quorum;
+        try {
+            quorum = exactly(batchSize);
+        } catch (final RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        return lockAndExecuteBatchAsync(processIdentifier, quorum, ignored -> action.call());
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NEVER)
+    public <T> T lockAndExecuteBatch(final String processIdentifier,
+                                     final BarrierQuorum quorum,
+                                     final BatchAction<T> action) throws Exception {
+        var backoff = properties.getRetryInitialBackoff();
+        SyncOutcome outcome;
+        while ((outcome = attemptToSync(processIdentifier, quorum)).result() == SyncResult.REPEAT_REQUIRED) {
+            Thread.sleep(jitter(backoff).toMillis());
+            backoff = nextBackoff(backoff);
+        }
+        return action.execute(outcome.participants());
+    }
+
+    /**
+     * Same as {@link #lockAndExecuteBatch}, but no thread is held, while the participant waits for the others:
+     * its rounds are run by the {@link AsyncBarrierProcessor}, the action is run on one of the
+     * {@link BarrierProperties#getAsyncThreads()} threads, once the batch is formed.
+     */
+    @Override
+    public <T> CompletableFuture<T> lockAndExecuteBatchAsync(final String processIdentifier,
+                                                             final BarrierQuorum quorum,
+                                                             final BatchAction<T> action) {
+        final var result = new CompletableFuture<T>();
+        submitAttempt(processIdentifier, quorum, action, result, properties.getRetryInitialBackoff());
+        return result;
+    }
+
+    private <T> void submitAttempt(final String processIdentifier,
+                                   final BarrierQuorum quorum,
+                                   final BatchAction<T> action,
+                                   final CompletableFuture<T> result,
+                                   final Duration backoff) {
+        if (result.isDone()) {
+            return; // cancelled by the caller
+        }
+
+        asyncBarrierProcessor.attemptToSync(processIdentifier, quorum).whenComplete((outcome, exception) -> {
+            if (exception != null) {
+                result.completeExceptionally(exception);
+                return;
+            }
+
+            try {
+                if (outcome.result() == SyncResult.REPEAT_REQUIRED) {
+                    retryScheduler.schedule(
+                            () -> submitAttempt(processIdentifier, quorum, action, result, nextBackoff(backoff)),
+                            jitter(backoff).toNanos(),
+                            TimeUnit.NANOSECONDS
+                    );
+                    return;
+                }
+                asyncExecutor.execute(() -> {
+                    try {
+                        result.complete(action.execute(outcome.participants()));
+                    } catch (final Throwable actionException) {
+                        result.completeExceptionally(actionException);
+                    }
+                });
+            } catch (final RejectedExecutionException rejectedException) {
+                result.completeExceptionally(rejectedException);
+            }
+        });
+    }
+
+    /**
+     * Single round of the barrier: takes the next place in the generations of the process and either becomes
+     * the master of its generation and waits for the slaves, or joins the generation as a slave. Id of the participant
+     * is allocated before any connection of the lock pool is taken, so the participant never waits for the application
+     * pool while holding one. Lock of the generation is a session-level one, so the whole round is run
+     * on the same connection.
+     */
+    private SyncOutcome attemptToSync(final String processIdentifier, final BarrierQuorum quorum) {
+        final var participantId = sequenceValueGenerator.nextValue();
+        return lockConnectionPool.executeOnPinnedConnection(() -> {
+            final var arrival = arrive(processIdentifier, quorum, participantId);
+            if (arrival.isMaster()) {
+                return processAsMaster(processIdentifier, arrival.generation(), quorum, participantId);
+            }
+
+            final var outcome = slaveLockProcessor.process(
+                    processIdentifier, arrival.generation(), arrival.syncKey(), participantId
+            );
+            if (outcome.result() == SyncResult.FAILURE) {
                 throw new IllegalStateException(
                         "Failed to process slave lock for process %s"
                                 .formatted(processIdentifier)
                 );
-            } else if (result == SyncResult.REPEAT_REQUIRED) {
-                return lockAndExecuteBatch(processIdentifier, batchSize, action);
+            } else if (outcome.result() == SyncResult.REPEAT_REQUIRED) {
+                log.info("Slave has not participated in the sync of the process {}, retrying", processIdentifier);
+            }
+            return outcome;
+        });
+    }
+
+    /**
+     * Master registers itself and locks its generation before its ticket is committed, so the slaves
+     * of the generation never find it unlocked before the end of the sync.
+     */
+    private BarrierArrival arrive(final String processIdentifier,
+                                  final BarrierQuorum quorum,
+                                  final long participantId) {
+        try {
+            return lockConnectionPool.execute(() -> {
+                final var arrival = barrierGenerations.arrive(processIdentifier, quorum, participantId);
+                if (arrival.isMaster()) {
+                    masterLockProcessor.createMasterLock(processIdentifier, arrival.generation(), arrival.syncKey());
+                    barrierGenerations.lock(arrival.syncKey());
+                }
+                return arrival;
+            });
+        } catch (final RuntimeException exception) {
+            // lock of the generation survives the rollback and would stay with the connection returned to the pool
+            barrierGenerations.unlockAll();
+            throw exception;
+        }
+    }
+
+    private SyncOutcome processAsMaster(final String processIdentifier,
+                                        final long generation,
+                                        final BarrierQuorum quorum,
+                                        final long masterId) {
+        try {
+            final var outcome = lockConnectionPool.execute(
+                    () -> masterLockProcessor.process(processIdentifier, generation, quorum, masterId)
+            );
+            if (SyncResult.SUCCESS != outcome.result()) {
+                throw new IllegalStateException(
+                        "Failed to process master lock for process %s"
+                                .formatted(processIdentifier)
+                );
             }
+            return outcome;
+        } finally {
+            // after the commit, so the woken slaves see the outcome of the sync
+            barrierGenerations.unlock(masterId);
+            barrierNotifier.notifyParticipants(processIdentifier); // the asynchronous slaves do not wait on the lock
         }
-        return action.call();
+    }
+
+    private static BarrierQuorum exactly(final int batchSize) {
+        return BarrierQuorum.exactly(batchSize, MasterLockProcessor.MAX_SYNC_TIME);
+    }
+
+    private Duration nextBackoff(final Duration backoff) {
+        final var next = backoff.multipliedBy(2);
+        return next.compareTo(properties.getRetryMaxBackoff()) > 0 ? properties.getRetryMaxBackoff() : next;
+    }
+
+    /**
+     * Random delay between the half of the backoff and the full one, so the retrying participants spread out.
+     */
+    private static Duration jitter(final Duration backoff) {
+        final var halfNanos = backoff.toNanos() / 2;
+        return Duration.ofNanos(halfNanos + ThreadLocalRandom.current().nextLong(halfNanos + 1));
+    }
+
+    static ThreadFactory daemonThreads(final String name) {
+        final var counter = new AtomicInteger();
+        return runnable -> {
+            final var thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 }
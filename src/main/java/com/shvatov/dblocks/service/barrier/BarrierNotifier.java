@@ -0,0 +1,211 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Wakes up the participants waiting for the other participants of the same process. Signals are delivered
+ * directly to the waiters in this JVM and via LISTEN/NOTIFY to the waiters in other JVMs.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BarrierNotifier {
+    private static final String CHANNEL_NAME = "db_barrier";
+    private static final int LISTENER_POLLING_TIMEOUT = 500;
+    private static final int LISTENER_RECONNECT_DELAY = 1000;
+
+    private final BarrierProperties properties;
+    private final LockConnectionPool lockConnectionPool;
+    private final DataSource dataSource;
+    private final ConcurrentMap<String, Signal> signals = new ConcurrentHashMap<>();
+
+    private volatile Thread listener;
+
+    @PostConstruct
+    public void startListening() {
+        if (!properties.isNotificationsEnabled()) {
+            return;
+        }
+
+        listener = new Thread(this::listen, "barrier-notification-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stopListening() {
+        final var thread = listener;
+        listener = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Registers the interest of the caller in the signals related to the process with provided identifier.
+     * Must be obtained before the state of the barrier is checked, so that no signal is missed in between.
+     */
+    public Subscription subscribe(final String processIdentifier) {
+        final var signal = signals.compute(processIdentifier, (ignored, existing) -> {
+            final var result = existing == null ? new Signal() : existing;
+            result.subscribers++;
+            return result;
+        });
+        return new Subscription(processIdentifier, signal, null);
+    }
+
+    /**
+     * Same as {@link #subscribe(String)}, but the listener is called on each signal, so the caller needs
+     * no thread waiting for it. Listener is run by the thread delivering the signal, so it must not block.
+     */
+    public Subscription subscribe(final String processIdentifier, final Runnable listener) {
+        final var subscription = subscribe(processIdentifier);
+        subscription.signal.listeners.add(listener);
+        return new Subscription(processIdentifier, subscription.signal, listener);
+    }
+
+    /**
+     * Notifies all the participants of the process with provided identifier that its state has changed.
+     * The database notification is sent in a separate transaction, so it is delivered immediately.
+     */
+    public void notifyParticipants(final String processIdentifier) {
+        if (!properties.isNotificationsEnabled()) {
+            return;
+        }
+
+        signalLocally(processIdentifier);
+        lockConnectionPool.process(() ->
+                lockConnectionPool.getJdbcTemplate().query(
+                        "select pg_notify(?, ?)",
+                        ps -> {
+                            ps.setString(1, CHANNEL_NAME);
+                            ps.setString(2, processIdentifier);
+                        },
+                        rs -> null
+                )
+        );
+    }
+
+    private void signalLocally(final String processIdentifier) {
+        final var signal = signals.get(processIdentifier);
+        if (signal != null) {
+            signal.fire();
+        }
+    }
+
+    private void listen() {
+        while (listener == Thread.currentThread()) {
+            try (final var connection = dataSource.getConnection()) {
+                try (final var statement = connection.createStatement()) {
+                    statement.execute("listen " + CHANNEL_NAME);
+                }
+                log.info("Started listening for the barrier notifications on the channel {}", CHANNEL_NAME);
+
+                final var pgConnection = connection.unwrap(PGConnection.class);
+                while (listener == Thread.currentThread()) {
+                    final var notifications = pgConnection.getNotifications(LISTENER_POLLING_TIMEOUT);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (final var notification : notifications) {
+                        signalLocally(notification.getParameter());
+                    }
+                }
+            } catch (final SQLException | RuntimeException exception) {
+                if (listener != Thread.currentThread()) {
+                    return;
+                }
+                log.warn("Failed to listen for the barrier notifications, reconnecting", exception);
+                sleepQuietly(LISTENER_RECONNECT_DELAY);
+            }
+        }
+    }
+
+    private static void sleepQuietly(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final String processIdentifier;
+        private final Signal signal;
+        private final Runnable listener;
+
+        private Subscription(final String processIdentifier, final Signal signal, final Runnable listener) {
+            this.processIdentifier = processIdentifier;
+            this.signal = signal;
+            this.listener = listener;
+        }
+
+        public long version() {
+            return signal.version();
+        }
+
+        /**
+         * Waits until a signal newer than {@code seenVersion} arrives, but not longer than
+         * the fallback polling delay. Without notifications simply waits for {@code pollingDelay}.
+         */
+        @SneakyThrows
+        public void awaitChange(final long seenVersion, final long pollingDelay) {
+            if (!properties.isNotificationsEnabled()) {
+                Thread.sleep(pollingDelay);
+                return;
+            }
+            signal.await(seenVersion, Math.min(pollingDelay, properties.getFallbackPollingDelay().toMillis()));
+        }
+
+        @Override
+        public void close() {
+            if (listener != null) {
+                signal.listeners.remove(listener);
+            }
+            signals.computeIfPresent(processIdentifier, (ignored, existing) ->
+                    --existing.subscribers == 0 ? null : existing
+            );
+        }
+    }
+
+    private static final class Signal {
+        private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+        private int subscribers; // guarded by the map
+        private long version;
+
+        synchronized long version() {
+            return version;
+        }
+
+        void fire() {
+            synchronized (this) {
+                version++;
+                notifyAll();
+            }
+            listeners.forEach(Runnable::run);
+        }
+
+        synchronized void await(final long seenVersion, final long timeout) throws InterruptedException {
+            final var deadline = System.currentTimeMillis() + timeout;
+            var remaining = timeout;
+            while (version == seenVersion && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.shvatov.dblocks.service.barrier;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.barrier")
+public class BarrierProperties {
+    /**
+     * Whether the master is woken up by LISTEN/NOTIFY (and by the in-JVM signals)
+     * as soon as a new slave is registered instead of polling with a fixed delay.
+     */
+    private boolean notificationsEnabled = false;
+
+    /**
+     * Max time the master waits for a notification before re-evaluating the barrier anyway.
+     */
+    private Duration fallbackPollingDelay = Duration.ofSeconds(1);
+
+    /**
+     * How the participants of a successful sync are written to {@code db_slave_per_master}.
+     */
+    private ProcessingRecordWriter.Mode processingRecordsWriteMode = ProcessingRecordWriter.Mode.UNNEST;
+
+    /**
+     * Number of the threads running the steps of the asynchronous participants, and of the ones running
+     * their actions. Participants hold no thread while waiting, their session-level locks are held
+     * by a single connection of the lock pool per node.
+     */
+    private int asyncThreads = 4;
+
+    /**
+     * Delay before the first retry of a participant, which has not been included into the batch.
+     * Doubled on each next retry up to {@link #retryMaxBackoff}, the actual delay is randomized.
+     */
+    private Duration retryInitialBackoff = Duration.ofMillis(20);
+
+    private Duration retryMaxBackoff = Duration.ofSeconds(1);
+}
@@ -0,0 +1,41 @@
+package com.shvatov.dblocks.service.barrier;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.barrier.retention")
+public class BarrierRetentionProperties {
+    private boolean enabled = true;
+
+    /**
+     * Age, after which the finished masters, their slaves and the abandoned slaves are deleted.
+     * Should be well above the time a barrier may wait for the participants.
+     */
+    private Duration retention = Duration.ofDays(1);
+
+    /**
+     * Delay between the runs of the reaper.
+     */
+    private Duration interval = Duration.ofMinutes(1);
+
+    /**
+     * Max number of the masters or slaves deleted by a single statement.
+     */
+    private int batchSize = 1000;
+
+    /**
+     * Whether the slaves and their mappings are partitioned by day. Also creates the partitioned schema,
+     * old partitions are dropped instead of deleting their rows.
+     */
+    private boolean partitioned = false;
+
+    /**
+     * Number of the days, which partitions are created in advance.
+     */
+    private int partitionsAhead = 2;
+}
@@ -0,0 +1,213 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockNamespace;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the history of the barriers older than {@link BarrierRetentionProperties#getRetention()}.
+ * Each batch is a single short statement, which skips the rows locked by the others,
+ * so the reaper never waits for the live barriers and never makes them wait. Statements are run
+ * on the {@link LockConnectionPool}, so the reaper never takes the connections of the business transactions.
+ */
+@Slf4j
+@Component
+public class BarrierRetentionReaper {
+    /**
+     * Finished masters together with their mappings and the slaves they have synced.
+     * The masters in progress ({@code id is null}) are left to {@link #DELETE_ABANDONED_MASTERS}.
+     */
+    static final String DELETE_EXPIRED_MASTERS = """
+            with expired as (
+                select id
+                from db_master_lock
+                where id is not null
+                  and created_at < ?
+                limit ?
+                for update skip locked
+            ), deleted_mappings as (
+                delete from db_slave_per_master spm
+                using expired e
+                where spm.master_id = e.id
+                returning spm.slave_id
+            ), deleted_slaves as (
+                delete from db_slave_lock s
+                using deleted_mappings d
+                where s.id = d.slave_id
+            )
+            delete from db_master_lock m
+            using expired e
+            where m.id = e.id""";
+
+    /**
+     * Masters in progress, whose lock of the generation is not held any more, e.g. because their node has died.
+     * Their generations are closed, so the next participants of the process start a new one instead of joining
+     * the generation nobody is going to sync. Masters in progress have neither the mappings nor the synced slaves.
+     */
+    static final String DELETE_ABANDONED_MASTERS = """
+            with abandoned as (
+                select m.process_identifier, m.generation
+                from db_master_lock m
+                where m.id is null
+                  and m.created_at < ?
+                  and %s
+                limit ?
+                for update of m skip locked
+            ), closed_generations as (
+                update db_barrier_arrival a
+                set arrivals = coalesce(a.batch_size, a.arrivals)
+                from abandoned d
+                where a.process_identifier = d.process_identifier
+                  and a.generation = d.generation
+            )
+            delete from db_master_lock m
+            using abandoned d
+            where m.process_identifier = d.process_identifier
+              and m.generation = d.generation
+              and m.id is null"""
+            .formatted(BarrierGenerations.isLockFreeSql(AdvisoryLockNamespace.BARRIER_SYNC, "m.sync_key"));
+
+    /**
+     * Slaves, which have never been synced and have not deleted themselves, e.g. because their node has died.
+     */
+    static final String DELETE_ABANDONED_SLAVES = """
+            with expired as (
+                select s.id
+                from db_slave_lock s
+                where s.created_at < ?
+                  and not exists(select 1 from db_slave_per_master spm where spm.slave_id = s.id)
+                limit ?
+                for update skip locked
+            )
+            delete from db_slave_lock s
+            using expired e
+            where s.id = e.id""";
+
+    /**
+     * Expired rows of a default partition of the partitioned schema, which is never dropped: it keeps the rows
+     * older than the first daily partition, e.g. the ones copied by the migration, whatever their masters are.
+     */
+    static final String DELETE_EXPIRED_DEFAULT_ROWS = """
+            with expired as (
+                select ctid
+                from %1$s
+                where created_at < ?
+                limit ?
+                for update skip locked
+            )
+            delete from %1$s t
+            using expired e
+            where t.ctid = e.ctid""";
+
+    /**
+     * Mappings go first, so the slaves are never left mapped to the deleted ones.
+     */
+    private static final List<String> DEFAULT_PARTITIONS = List.of("db_slave_per_master_default", "db_slave_lock_default");
+
+    private final BarrierRetentionProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile ScheduledExecutorService reaperScheduler;
+
+    public BarrierRetentionReaper(final BarrierRetentionProperties properties,
+                                  final LockConnectionPool lockConnectionPool) {
+        this.properties = properties;
+        this.jdbcTemplate = lockConnectionPool.getJdbcTemplate();
+    }
+
+    @PostConstruct
+    public void startReaping() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        reaperScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "db-lock-barrier-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var interval = properties.getInterval().toMillis();
+        reaperScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reap();
+            } catch (final DataAccessException exception) {
+                log.warn("Failed to delete the expired barriers, will retry on the next run", exception);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopReaping() {
+        if (reaperScheduler != null) {
+            reaperScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Single run of the reaper.
+     *
+     * @return number of the deleted masters and abandoned slaves
+     */
+    int reap() {
+        final var cutoff = Timestamp.from(Instant.now().minus(properties.getRetention()));
+        if (properties.isPartitioned()) {
+            maintainPartitions(cutoff);
+        }
+
+        final var deletedMasters = deleteInBatches(DELETE_EXPIRED_MASTERS, cutoff)
+                + deleteInBatches(DELETE_ABANDONED_MASTERS, cutoff);
+        final var deletedSlaves = deleteInBatches(DELETE_ABANDONED_SLAVES, cutoff);
+        if (deletedMasters > 0 || deletedSlaves > 0) {
+            log.info("Deleted {} expired masters and {} abandoned slaves", deletedMasters, deletedSlaves);
+        }
+        return deletedMasters + deletedSlaves;
+    }
+
+    private void maintainPartitions(final Timestamp cutoff) {
+        jdbcTemplate.query(
+                "select db_lock_create_barrier_partitions(?)",
+                ps -> ps.setInt(1, properties.getPartitionsAhead()),
+                rs -> null
+        );
+        final var dropped = jdbcTemplate.queryForObject(
+                "select db_lock_drop_barrier_partitions(?)",
+                Integer.class,
+                cutoff
+        );
+        if (dropped != null && dropped > 0) {
+            log.info("Dropped {} expired partitions of the barrier tables", dropped);
+        }
+
+        for (final String partition : DEFAULT_PARTITIONS) {
+            final var deleted = deleteInBatches(DELETE_EXPIRED_DEFAULT_ROWS.formatted(partition), cutoff);
+            if (deleted > 0) {
+                log.info("Deleted {} expired rows of the partition {}", deleted, partition);
+            }
+        }
+    }
+
+    private int deleteInBatches(final String sql, final Timestamp cutoff) {
+        var total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(sql, ps -> {
+                ps.setTimestamp(1, cutoff);
+                ps.setInt(2, properties.getBatchSize());
+            });
+            total += deleted;
+        } while (deleted == properties.getBatchSize());
+        return total;
+    }
+}
@@ -0,0 +1,106 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKey;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Connection of the {@link LockConnectionPool} kept by the node for the session-level advisory locks
+ * of its asynchronous barrier participants, so they keep their locks between the steps without holding a thread.
+ * Statements are run one at a time and never wait: keys of the participants are unique, so the locks are taken
+ * by the {@code pg_try_} functions.
+ * <p>
+ * Connection failing a statement is evicted from the pool, so the database releases all of its locks,
+ * and the next {@link #connect()} opens a new one. Participants tell whether their locks are still held
+ * by the {@link #isHeld(long) epoch} of the connection they have been taken on.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BarrierSession {
+    private final LockConnectionPool lockConnectionPool;
+
+    private Connection connection; // guarded by this
+    private JdbcTemplate jdbcTemplate; // guarded by this
+    private long epoch; // guarded by this
+
+    @PreDestroy
+    public synchronized void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            jdbcTemplate.query("select pg_advisory_unlock_all()", rs -> null);
+            connection.close();
+        } catch (final DataAccessException | SQLException exception) {
+            lockConnectionPool.evict(connection);
+        }
+        connection = null;
+    }
+
+    /**
+     * Opens the connection, unless it is open already. Called before the transactions of the caller,
+     * which take the locks, since a thread never waits for a second connection of the pool.
+     */
+    public synchronized void connect() throws SQLException {
+        if (connection != null) {
+            return;
+        }
+        connection = lockConnectionPool.borrowConnection();
+        connection.setAutoCommit(true);
+        jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+        epoch++;
+        log.debug("Opened the session of the asynchronous barrier participants, epoch {}", epoch);
+    }
+
+    /**
+     * @return epoch of the connection the lock is held by
+     * @throws IllegalStateException if the connection is not open or the lock is held by another session
+     */
+    public synchronized long lock(final AdvisoryLockKey key) {
+        if (connection == null) {
+            throw new IllegalStateException("Session of the asynchronous barrier participants is not open");
+        }
+        if (!Boolean.TRUE.equals(callLockFunction("pg_try_advisory_lock", key))) {
+            throw new IllegalStateException("Advisory lock %s is held by another session".formatted(key));
+        }
+        return epoch;
+    }
+
+    /**
+     * Lock taken on a connection, which has been evicted since, is already released by the database.
+     */
+    public synchronized void unlock(final AdvisoryLockKey key, final long lockEpoch) {
+        if (isHeld(lockEpoch)) {
+            callLockFunction("pg_advisory_unlock", key);
+        }
+    }
+
+    public synchronized boolean isHeld(final long lockEpoch) {
+        return connection != null && epoch == lockEpoch;
+    }
+
+    private Boolean callLockFunction(final String function, final AdvisoryLockKey key) {
+        try {
+            return key.namespaced()
+                    ? jdbcTemplate.queryForObject(
+                            "select " + function + "(?, ?)", Boolean.class, key.namespace(), (int) key.key()
+                    )
+                    : jdbcTemplate.queryForObject("select " + function + "(?)", Boolean.class, key.key());
+        } catch (final DataAccessException exception) {
+            log.warn("Session of the asynchronous barrier participants has failed, its locks are released", exception);
+            lockConnectionPool.evict(connection);
+            connection = null;
+            throw exception;
+        }
+    }
+}
@@ -1,246 +1,249 @@
 package com.shvatov.dblocks.service.barrier;
 
-import com.shvatov.dblocks.model.MasterLock;
+import com.shvatov.dblocks.model.SyncOutcome;
 import com.shvatov.dblocks.model.enums.SyncResult;
 import com.shvatov.dblocks.model.enums.SyncStatus;
-import com.shvatov.dblocks.service.TransactionalProcessor;
-import com.shvatov.dblocks.service.seq.SequenceValueGenerator;
-import lombok.RequiredArgsConstructor;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.provider.BarrierQuorum;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockNamespace;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.DataAccessException;
-import org.springframework.dao.DuplicateKeyException;
-import org.springframework.dao.QueryTimeoutException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.sql.SQLException;
-import java.util.*;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.List;
 import java.util.stream.Collectors;
 
+/**
+ * Steps of the master of a generation, each of them is run in a transaction of the {@link LockConnectionPool}.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class MasterLockProcessor {
-    private static final int LOCK_OBTAINING_TIMEOUT = 1;
     private static final int POLLING_DELAY = 6000;
     private static final int POLLING_ATTEMPTS = 10;
-    private static final int FAILED_ATTEMPTS_THRESHOLD = 3;
-
-    private final SequenceValueGenerator sequenceValueGenerator;
-    private final TransactionalProcessor transactionalProcessor;
+    private static final String METRICS_ROLE = "master";
+
+    /**
+     * Time the master waits for the batch of the exact size.
+     */
+    static final Duration MAX_SYNC_TIME = Duration.ofMillis((long) POLLING_ATTEMPTS * POLLING_DELAY);
+
+    /**
+     * Slaves of the generation, which are alive and have not participated in a successful sync yet, see
+     * {@link SlaveLockProcessor#livenessKey(long)}. Served by {@code idx_db_slave_lock_generation}, the rest
+     * are the lookups by the primary keys and the liveness probes of the candidates, so the cost does not depend
+     * on the number of the locks held in the database.
+     */
+    static final String CLAIM_AVAILABLE_SLAVES_SQL = """
+            select s.id
+            from db_slave_lock s
+            where s.process_identifier = ?
+              and s.generation = ?
+              and not exists(
+                    select 1
+                    from db_slave_per_master spm
+                             join db_master_lock m on m.id = spm.master_id
+                    where spm.slave_id = s.id
+                      and m.status = 'SYNCED'
+                )
+              and not %s
+            order by s.id
+            limit ?
+            for update of s skip locked"""
+            .formatted(BarrierGenerations.isLockFreeSql(AdvisoryLockNamespace.BARRIER_SLAVE, "s.id"));
+
+    /**
+     * Served by the partial unique index {@code idx_new_db_master_lock}.
+     */
+    static final String CLOSE_MASTER_LOCK_SQL = """
+            update db_master_lock set id = ?, status = ?, participants = ?
+            where process_identifier = ? and generation = ? and id is null""";
+
+    private final BarrierGenerations barrierGenerations;
+    private final BarrierNotifier barrierNotifier;
+    private final ProcessingRecordWriter processingRecordWriter;
+    private final LockMetrics lockMetrics;
     private final JdbcTemplate jdbcTemplate;
 
-    @Transactional(propagation = Propagation.MANDATORY)
-    public void createMasterLock(final String processIdentifier) {
-        try {
-            log.info("Attempting to register a master for the process with identifier {}", processIdentifier);
-            jdbcTemplate.update(
-                    "insert into db_master_lock(process_identifier, status) values(?, ?)",
-                    ps -> {
-                        ps.setString(1, processIdentifier);
-                        ps.setString(2, SyncStatus.IN_PROGRESS.toString());
-                    }
-            );
-            log.info("Registered a master for the process with identifier {}", processIdentifier);
-        } catch (final DataAccessException exception) {
-            if (!(exception instanceof DuplicateKeyException)) {
-                throw exception;
-            }
-            log.info("Master for the process with identifier {} has already been registered", processIdentifier);
-        }
+    public MasterLockProcessor(final BarrierGenerations barrierGenerations,
+                               final BarrierNotifier barrierNotifier,
+                               final ProcessingRecordWriter processingRecordWriter,
+                               final LockMetrics lockMetrics,
+                               final LockConnectionPool lockConnectionPool) {
+        this.barrierGenerations = barrierGenerations;
+        this.barrierNotifier = barrierNotifier;
+        this.processingRecordWriter = processingRecordWriter;
+        this.lockMetrics = lockMetrics;
+        this.jdbcTemplate = lockConnectionPool.getJdbcTemplate();
     }
 
-    @Transactional(propagation = Propagation.MANDATORY)
-    public Optional<MasterLock> attemptToAcquireMasterLock(final String processIdentifier) {
-        log.info("Attempting to acquire master lock for the process with id = {}", processIdentifier);
-        try {
-            return jdbcTemplate.queryForStream(
-                    """
-                            select * from db_master_lock
-                            where process_identifier = ?
-                            and id is null for update""",
-                    ps -> {
-                        ps.setQueryTimeout(LOCK_OBTAINING_TIMEOUT);
-                        ps.setString(1, processIdentifier);
-                    },
-                    (rs, rowNum) -> new MasterLock(
-                            rs.getLong("id"),
-                            rs.getString("process_identifier"),
-                            SyncStatus.valueOf(rs.getString("status"))
-                    )
-            ).findFirst();
-        } catch (final DataAccessException exception) {
-            if (isQueryTimeoutException(exception)) {
-                return Optional.empty();
-            }
-            throw exception;
-        }
+    /**
+     * Registers the master of the generation. Generation has a single master, so a conflict here means,
+     * that the tickets of the process have been reset while the generation was still open.
+     *
+     * @param syncKey key of the lock of the generation, which tells the live masters from the abandoned ones
+     */
+    public void createMasterLock(final String processIdentifier, final long generation, final long syncKey) {
+        log.debug("Registering the master of the generation {} of the process {}", generation, processIdentifier);
+        jdbcTemplate.update(
+                "insert into db_master_lock(process_identifier, generation, status, sync_key) values(?, ?, ?, ?)",
+                ps -> {
+                    ps.setString(1, processIdentifier);
+                    ps.setLong(2, generation);
+                    ps.setString(3, SyncStatus.IN_PROGRESS.toString());
+                    ps.setLong(4, syncKey);
+                }
+        );
     }
 
-    private boolean isQueryTimeoutException(final Throwable exception) {
-        if (exception instanceof QueryTimeoutException) {
-            return true;
-        }
+    /**
+     * Waits for the slaves of the generation till the batch is full, or till the deadline of the quorum,
+     * when the batch is synced with the slaves claimed by then, if they reach the quorum.
+     */
+    @SneakyThrows
+    public SyncOutcome process(final String processIdentifier,
+                               final long generation,
+                               final BarrierQuorum quorum,
+                               final long masterId) {
+        log.debug(
+                "Started the processing of the master of the generation {} of the process {}",
+                generation, processIdentifier
+        );
 
-        if (exception.getCause() instanceof final SQLException sqlException) {
-            return Objects.equals("57014", sqlException.getSQLState());
-        }
-        return false;
-    }
+        final var startNanos = System.nanoTime();
+        final var deadline = System.currentTimeMillis() + quorum.maxWait().toMillis();
+        try (final var subscription = barrierNotifier.subscribe(processIdentifier)) {
+            while (true) {
+                final var seenVersion = subscription.version();
+                final var remaining = deadline - System.currentTimeMillis();
+                final var outcome = attempt(processIdentifier, generation, quorum, masterId, startNanos, remaining <= 0);
+                if (SyncResult.REPEAT_REQUIRED != outcome.result()) {
+                    return outcome;
+                }
 
-    @SneakyThrows
-    @Transactional(propagation = Propagation.MANDATORY)
-    public SyncResult process(final String processIdentifier, final int batchSize) {
-        log.info("Started the processing of the master for the process with identifier = {}", processIdentifier);
-
-        final var masterId = sequenceValueGenerator.nextValue();
-        final var failedAttemptsBySlaveId = new HashMap<Long, Integer>();
-        for (int attempt = 0; attempt < POLLING_ATTEMPTS; attempt++) {
-            final SyncResult result = attemptToSynchronize(masterId, processIdentifier, batchSize, failedAttemptsBySlaveId);
-            if (SyncResult.REPEAT_REQUIRED == result) {
-                Thread.sleep(POLLING_DELAY);
-                continue;
+                final var waitStartNanos = System.nanoTime();
+                subscription.awaitChange(seenVersion, Math.min(POLLING_DELAY, remaining));
+                lockMetrics.recordBarrierWait(METRICS_ROLE, processIdentifier, waitStartNanos);
             }
-            return result;
         }
+    }
 
-        onSyncFailure(masterId, processIdentifier, batchSize);
-        return SyncResult.FAILURE;
+    /**
+     * Single check of the slaves of the generation. Once the deadline of the quorum has passed, the generation
+     * is either synced with the slaves claimed by then, or failed, so {@link SyncResult#REPEAT_REQUIRED} is returned
+     * only before the deadline.
+     *
+     * @param startNanos start of the processing of the master, for the metrics
+     */
+    public SyncOutcome attempt(final String processIdentifier,
+                               final long generation,
+                               final BarrierQuorum quorum,
+                               final long masterId,
+                               final long startNanos,
+                               final boolean deadlinePassed) {
+        final var outcome = attemptToSynchronize(masterId, processIdentifier, generation, quorum, deadlinePassed);
+        if (SyncResult.REPEAT_REQUIRED == outcome.result() && !deadlinePassed) {
+            lockMetrics.countBarrierRepeat(METRICS_ROLE, processIdentifier);
+            return outcome;
+        }
+        if (SyncResult.REPEAT_REQUIRED == outcome.result()) {
+            onSyncFailure(masterId, processIdentifier, generation, quorum);
+            lockMetrics.recordBarrierFill(processIdentifier, SyncResult.FAILURE.name(), startNanos);
+            return SyncOutcome.of(SyncResult.FAILURE);
+        }
+        lockMetrics.recordBarrierFill(processIdentifier, outcome.result().name(), startNanos);
+        return outcome;
     }
 
     private void onSyncFailure(final long masterId,
                                final String processIdentifier,
-                               final int batchSize) {
-        log.info(
+                               final long generation,
+                               final BarrierQuorum quorum) {
+        log.debug(
                 "Failed to sync required number of processes (id = {}, number = {}) using master lock with id = {}",
-                processIdentifier, batchSize, masterId
+                processIdentifier, quorum.minParticipants(), masterId
         );
-        updateMasterLock(masterId, processIdentifier, SyncStatus.FAILED);
+        barrierGenerations.close(processIdentifier, generation);
+        updateMasterLock(masterId, processIdentifier, generation, SyncStatus.FAILED);
     }
 
-    private SyncResult attemptToSynchronize(final long masterId,
-                                            final String processIdentifier,
-                                            final int batchSize,
-                                            final HashMap<Long, Integer> failedAttemptsBySlaveId) {
-        final var availableSlaveIds = getAvailableSlaveIds(masterId, processIdentifier);
-        if (availableSlaveIds.size() >= batchSize) {
-            final var slavesToProcess = new ArrayList<Long>();
-            availableSlaveIds.stream()
-                    .filter(slaveId -> {
-                        final var failedAttempts = failedAttemptsBySlaveId.getOrDefault(slaveId, 0);
-                        return failedAttempts <= FAILED_ATTEMPTS_THRESHOLD;
-                    })
-                    .takeWhile(ignored -> slavesToProcess.size() < batchSize)
-                    .forEach(slaveId -> {
-                        if (!Objects.equals(masterId, slaveId) && canAcquireLockOnSlave(slaveId)) {
-                            final var failedAttempts = failedAttemptsBySlaveId.getOrDefault(slaveId, 0);
-                            failedAttemptsBySlaveId.put(slaveId, failedAttempts + 1);
-                        } else {
-                            slavesToProcess.add(slaveId);
-                        }
-                    });
-
-            if (slavesToProcess.size() == batchSize) {
-                onSyncSuccess(masterId, processIdentifier, batchSize, slavesToProcess);
-                return SyncResult.SUCCESS;
-            }
+    private SyncOutcome attemptToSynchronize(final long masterId,
+                                             final String processIdentifier,
+                                             final long generation,
+                                             final BarrierQuorum quorum,
+                                             final boolean deadlinePassed) {
+        final var claimedSlaveIds = claimAvailableSlaves(processIdentifier, generation, quorum.maxParticipants() - 1);
+        final var participants = claimedSlaveIds.size() + 1;
+        if (quorum.isFilledBy(participants)) {
+            onSyncSuccess(masterId, processIdentifier, generation, claimedSlaveIds);
+            return new SyncOutcome(SyncResult.SUCCESS, participants);
+        }
+        if (deadlinePassed && quorum.isReachedBy(participants)) {
+            // the rest of the tickets of the generation would only make their holders retry
+            barrierGenerations.close(processIdentifier, generation);
+            onSyncSuccess(masterId, processIdentifier, generation, claimedSlaveIds);
+            return new SyncOutcome(SyncResult.SUCCESS, participants);
         }
 
-        log.info("""
-                        Processing stats:
-                        - slaves: {},\s
-                        - attempts per slave: {}""",
-                availableSlaveIds.stream()
+        log.debug(
+                "Claimed {} of {} required slaves for the process with identifier = {}: [{}]",
+                claimedSlaveIds.size(), quorum.maxParticipants() - 1, processIdentifier,
+                claimedSlaveIds.stream()
                         .map(Object::toString)
-                        .collect(Collectors.joining(",")),
-                failedAttemptsBySlaveId.entrySet().stream()
-                        .map(entry -> "(id: %s, failed attempts: %s)".formatted(entry.getKey(), entry.getValue()))
                         .collect(Collectors.joining(","))
         );
-        return SyncResult.REPEAT_REQUIRED;
+        return SyncOutcome.of(SyncResult.REPEAT_REQUIRED);
     }
 
     private void onSyncSuccess(final long masterId,
                                final String processIdentifier,
-                               final int batchSize,
-                               final List<Long> slavesToProcess) {
-        log.info(
-                "Master (id = {}) was able to sync requested number of " +
+                               final long generation,
+                               final List<Long> slaveIds) {
+        log.debug(
+                "Master (id = {}) was able to sync " +
                         "the slave processors ({}, including itself) for the process with id {}",
-                masterId, batchSize, processIdentifier
-        );
-        updateMasterLock(masterId, processIdentifier, SyncStatus.SYNCED);
-        slavesToProcess.forEach(slaveId -> createProcessingRecords(masterId, slaveId));
-    }
-
-    private List<Long> getAvailableSlaveIds(final Long masterId, final String processIdentifier) {
-        log.info("Retrieving a list of available slaves for the process with identifier = {}", processIdentifier);
-        final var slaves = jdbcTemplate.queryForStream(
-                """
-                        select s.id
-                        from db_slave_lock s
-                                 left join db_slave_per_master spm on s.id = spm.slave_id
-                                 left join db_master_lock m on m.id = spm.master_id
-                        where s.process_identifier = ?
-                          and (m.status is null or m.status != 'SYNCED')
-                         """,
-                ps -> ps.setString(1, processIdentifier),
-                (rs, rowNum) -> rs.getLong(1)
-        ).collect(Collectors.toList());
-        slaves.add(0, masterId);
-        log.info(
-                "Found following slaves (including master): [{}]",
-                slaves.stream()
-                        .map(Object::toString)
-                        .collect(Collectors.joining(","))
+                masterId, slaveIds.size() + 1, processIdentifier
         );
-        return slaves;
+        processingRecordWriter.recordSync(masterId, processIdentifier, generation, slaveIds);
     }
 
-    private boolean canAcquireLockOnSlave(final long slaveId) {
-        log.info("Attempting to acquire lock on the slave (id = {})", slaveId);
-        try {
-            return transactionalProcessor.execute(
-                    () -> jdbcTemplate.queryForStream(
-                            "select * from db_slave_lock where id = ? for update",
-                            ps -> {
-                                ps.setQueryTimeout(LOCK_OBTAINING_TIMEOUT);
-                                ps.setLong(1, slaveId);
-                            },
-                            (rs, rowNum) -> true
-                    ).findFirst().isPresent()
-            );
-        } catch (final DataAccessException exception) {
-            if (isQueryTimeoutException(exception)) {
-                return false;
-            }
-            throw exception;
-        }
-    }
-
-    private void createProcessingRecords(final Long masterId, final Long slaveId) {
-        if (Objects.equals(masterId, slaveId)) return;
-        jdbcTemplate.update(
-                "insert into db_slave_per_master(master_id, slave_id) values (?, ?)",
+    /**
+     * Slaves, which are waiting for the master, hold the advisory lock keyed by their
+     * {@link SlaveLockProcessor#livenessKey(long)}. Live slaves of the generation, which have not participated
+     * in a successful sync yet, are locked by this master in a single statement, the ones being claimed
+     * by the other transactions are skipped.
+     */
+    private List<Long> claimAvailableSlaves(final String processIdentifier,
+                                            final long generation,
+                                            final int slavesCount) {
+        log.debug("Claiming available slaves of the generation {} of the process {}", generation, processIdentifier);
+        return jdbcTemplate.query(
+                CLAIM_AVAILABLE_SLAVES_SQL,
                 ps -> {
-                    ps.setLong(1, masterId);
-                    ps.setLong(2, slaveId);
-                }
+                    ps.setString(1, processIdentifier);
+                    ps.setLong(2, generation);
+                    ps.setInt(3, slavesCount);
+                },
+                (rs, rowNum) -> rs.getLong(1)
         );
     }
 
     private void updateMasterLock(final long masterId,
                                   final String processIdentifier,
+                                  final long generation,
                                   final SyncStatus status) {
         jdbcTemplate.update(
-                "update db_master_lock set id = ?, status = ? where process_identifier = ? and id is null",
+                CLOSE_MASTER_LOCK_SQL,
                 ps -> {
                     ps.setLong(1, masterId);
                     ps.setString(2, status.toString());
-                    ps.setString(3, processIdentifier);
+                    ps.setNull(3, Types.INTEGER);
+                    ps.setString(4, processIdentifier);
+                    ps.setLong(5, generation);
                 }
         );
     }
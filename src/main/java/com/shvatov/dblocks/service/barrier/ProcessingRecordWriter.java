@@ -0,0 +1,95 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.model.enums.SyncStatus;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Marks the master as synced and records all the participants of the sync with a fixed number
+ * of round trips, no matter how many slaves there are.
+ */
+@Slf4j
+@Component
+public class ProcessingRecordWriter {
+    private final JdbcTemplate jdbcTemplate;
+    private final BarrierProperties properties;
+
+    public ProcessingRecordWriter(final LockConnectionPool lockConnectionPool, final BarrierProperties properties) {
+        this.jdbcTemplate = lockConnectionPool.getJdbcTemplate();
+        this.properties = properties;
+    }
+
+    public enum Mode {
+        /**
+         * Single statement: master update and insert of the unnested array of the slave ids.
+         */
+        UNNEST,
+        /**
+         * Master update and a JDBC batch of inserts, which the driver sends as multi-row
+         * statements, when {@code reWriteBatchedInserts} is enabled.
+         */
+        BATCH
+    }
+
+    public void recordSync(final long masterId,
+                           final String processIdentifier,
+                           final long generation,
+                           final List<Long> slaveIds) {
+        log.info("Recording {} slaves of the master (id = {})", slaveIds.size(), masterId);
+        if (properties.getProcessingRecordsWriteMode() == Mode.BATCH) {
+            recordSyncInBatch(masterId, processIdentifier, generation, slaveIds);
+            return;
+        }
+
+        jdbcTemplate.update(
+                """
+                        with master as (
+                            update db_master_lock set id = ?, status = ?, participants = ?
+                            where process_identifier = ? and generation = ? and id is null
+                        )
+                        insert into db_slave_per_master(master_id, slave_id)
+                        select ?, unnest(?::bigint[])""",
+                ps -> {
+                    ps.setLong(1, masterId);
+                    ps.setString(2, SyncStatus.SYNCED.toString());
+                    ps.setInt(3, slaveIds.size() + 1);
+                    ps.setString(4, processIdentifier);
+                    ps.setLong(5, generation);
+                    ps.setLong(6, masterId);
+                    ps.setArray(7, ps.getConnection().createArrayOf("bigint", slaveIds.toArray()));
+                }
+        );
+    }
+
+    private void recordSyncInBatch(final long masterId,
+                                   final String processIdentifier,
+                                   final long generation,
+                                   final List<Long> slaveIds) {
+        jdbcTemplate.update(
+                MasterLockProcessor.CLOSE_MASTER_LOCK_SQL,
+                ps -> {
+                    ps.setLong(1, masterId);
+                    ps.setString(2, SyncStatus.SYNCED.toString());
+                    ps.setInt(3, slaveIds.size() + 1);
+                    ps.setString(4, processIdentifier);
+                    ps.setLong(5, generation);
+                }
+        );
+        if (slaveIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(
+                "insert into db_slave_per_master(master_id, slave_id) values (?, ?)",
+                slaveIds,
+                slaveIds.size(),
+                (ps, slaveId) -> {
+                    ps.setLong(1, masterId);
+                    ps.setLong(2, slaveId);
+                }
+        );
+    }
+}
@@ -2,57 +2,132 @@ package com.shvatov.dblocks.service.barrier;
 
 import com.shvatov.dblocks.model.MasterLock;
 import com.shvatov.dblocks.model.SlaveLock;
+import com.shvatov.dblocks.model.SyncOutcome;
 import com.shvatov.dblocks.model.enums.SyncResult;
 import com.shvatov.dblocks.model.enums.SyncStatus;
-import com.shvatov.dblocks.service.TransactionalProcessor;
-import com.shvatov.dblocks.service.seq.SequenceValueGenerator;
-import com.shvatov.dblocks.utils.ExceptionUtils;
-import lombok.RequiredArgsConstructor;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKey;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockNamespace;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * Slave uses a single connection of the {@link LockConnectionPool} for all of its steps. Advisory lock
+ * signalling that the slave is alive is a session-level one, so it is kept between the short transactions.
+ * Slave waits for the master of its generation on the lock of the generation, see {@link BarrierGenerations}.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class SlaveLockProcessor {
-    private final SequenceValueGenerator sequenceValueGenerator;
-    private final TransactionalProcessor transactionalProcessor;
+    private static final String METRICS_ROLE = "slave";
+
+    /**
+     * Served by the primary keys of the mappings and by the unique index on the id of the master.
+     */
+    static final String MASTER_DATA_AFTER_PROCESSING_SQL = """
+            select m.id as master_id, m.status as status, m.participants as participants
+                from db_slave_per_master ms
+                join db_master_lock m on m.id = ms.master_id
+                where ms.slave_id = ?""";
+
+    private final LockConnectionPool lockConnectionPool;
+    private final BarrierGenerations barrierGenerations;
+    private final BarrierNotifier barrierNotifier;
+    private final LockMetrics lockMetrics;
     private final JdbcTemplate jdbcTemplate;
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public SyncResult process(final String processIdentifier) {
-        log.info("Started the processing of a new slave for the process with identifier = {}", processIdentifier);
+    public SlaveLockProcessor(final LockConnectionPool lockConnectionPool,
+                              final BarrierGenerations barrierGenerations,
+                              final BarrierNotifier barrierNotifier,
+                              final LockMetrics lockMetrics) {
+        this.lockConnectionPool = lockConnectionPool;
+        this.barrierGenerations = barrierGenerations;
+        this.barrierNotifier = barrierNotifier;
+        this.lockMetrics = lockMetrics;
+        this.jdbcTemplate = lockConnectionPool.getJdbcTemplate();
+    }
 
-        final var slaveId = sequenceValueGenerator.nextValue();
-        transactionalProcessor.process(() -> createSlaveLock(processIdentifier, slaveId));
+    /**
+     * @param syncKey key of the lock of the generation, see {@link BarrierGenerations#awaitSync(long)}
+     */
+    public SyncOutcome process(final String processIdentifier,
+                               final long generation,
+                               final long syncKey,
+                               final long slaveId) {
+        return lockConnectionPool.executeOnPinnedConnection(
+                () -> processOnPinnedConnection(processIdentifier, generation, syncKey, slaveId)
+        );
+    }
 
-        final var slaveLock = acquireSlaveLock(slaveId);
-        transactionalProcessor.execute(() -> acquireMasterLock(processIdentifier))
-                .ifPresent(this::updateFailedMasterLockAndThrow);
+    private SyncOutcome processOnPinnedConnection(final String processIdentifier,
+                                                 final long generation,
+                                                 final long syncKey,
+                                                 final long slaveId) {
+        log.debug("Started the processing of a new slave for the process with identifier = {}", processIdentifier);
+
+        // before the row is committed, so the master never takes a live slave for an abandoned one
+        acquireSlaveLock(slaveId);
+        final var slaveLock = new SlaveLock(slaveId, processIdentifier);
+        try {
+            register(processIdentifier, generation, slaveId);
+            barrierNotifier.notifyParticipants(processIdentifier); // slave is ready, wake up the master
+            final var waitStartNanos = System.nanoTime();
+            barrierGenerations.awaitSync(syncKey);
+            lockMetrics.recordBarrierWait(METRICS_ROLE, processIdentifier, waitStartNanos);
+        } finally {
+            releaseSlaveLock(slaveId);
+        }
+        return outcomeOf(slaveLock);
+    }
+
+    /**
+     * Registers the slave without locking it, the lock keyed by {@link #livenessKey(long)} is taken by the caller
+     * beforehand.
+     */
+    void register(final String processIdentifier, final long generation, final long slaveId) {
+        lockConnectionPool.process(() -> createSlaveLock(processIdentifier, generation, slaveId));
+    }
 
+    /**
+     * Outcome of the sync for the slave, whose master has finished the sync. Slave, which has not participated
+     * in it, is deleted.
+     */
+    SyncOutcome outcomeOf(final String processIdentifier, final long slaveId) {
+        return outcomeOf(new SlaveLock(slaveId, processIdentifier));
+    }
+
+    /**
+     * Key of the advisory lock, which tells the master, that the slave is alive.
+     */
+    static AdvisoryLockKey livenessKey(final long slaveId) {
+        return AdvisoryLockNamespace.BARRIER_SLAVE.keyOf(slaveId);
+    }
+
+    private SyncOutcome outcomeOf(final SlaveLock slaveLock) {
+        final var processIdentifier = slaveLock.processIdentifier();
         final var masterLockOpt = getMasterDataAfterProcessing(slaveLock);
         final var hasParticipated = masterLockOpt.isPresent();
         if (!hasParticipated) {
             deleteSlaveLock(slaveLock);
-            return SyncResult.REPEAT_REQUIRED;
+            lockMetrics.countBarrierRepeat(METRICS_ROLE, processIdentifier);
+            return SyncOutcome.of(SyncResult.REPEAT_REQUIRED);
         }
 
         final var masterLock = masterLockOpt.get();
         final var isSyncSuccess = Objects.equals(SyncStatus.SYNCED, masterLock.status());
         if (isSyncSuccess) {
-            return SyncResult.SUCCESS;
+            return new SyncOutcome(SyncResult.SUCCESS, masterLock.participants());
         }
-        return SyncResult.FAILURE;
+        return SyncOutcome.of(SyncResult.FAILURE);
     }
 
     private void deleteSlaveLock(final SlaveLock slaveLock) {
-        log.info(
+        log.debug(
                 "Deleting not used slave (id = {}) for the process with identifier = {}",
                 slaveLock.id(), slaveLock.processIdentifier()
         );
@@ -62,91 +137,65 @@ public class SlaveLockProcessor {
         );
     }
 
-    private void createSlaveLock(final String processIdentifier, final long slaveId) {
-        log.info("Creating a new slave (id = {}) for the process with identifier = {}", slaveId, processIdentifier);
+    private void createSlaveLock(final String processIdentifier, final long generation, final long slaveId) {
+        log.debug("Creating a new slave (id = {}) for the process with identifier = {}", slaveId, processIdentifier);
         jdbcTemplate.update(
-                "insert into db_slave_lock(id, process_identifier) values(?, ?)",
+                "insert into db_slave_lock(id, process_identifier, generation) values(?, ?, ?)",
                 ps -> {
                     ps.setLong(1, slaveId);
                     ps.setString(2, processIdentifier);
+                    ps.setLong(3, generation);
                 }
         );
     }
 
-    private SlaveLock acquireSlaveLock(final long slaveId) {
-        log.info("Attempting to acquire lock on the slave (id = {})", slaveId);
-        return jdbcTemplate.queryForStream(
-                "select * from db_slave_lock where id = ? for update",
-                ps -> ps.setLong(1, slaveId),
-                (rs, rowNum) -> ExceptionUtils.runCatching(
-                        () -> new SlaveLock(
-                                rs.getLong("id"),
-                                rs.getString("process_identifier")
-                        )
-                ).getResultOrThrow()
-        ).findFirst().orElseThrow(
-                () -> new IllegalStateException(
-                        "Could not acquire slave lock with id = %s"
-                                .formatted(slaveId)
-                )
+    /**
+     * Advisory lock keyed by the {@link #livenessKey(long)} of the slave is the signal for the master, that the slave
+     * is alive and waits for the sync. Row itself is left free, so the master may claim it with {@code skip locked}.
+     * Lock is held by the session till {@link #releaseSlaveLock}, or till the connection is closed.
+     */
+    private void acquireSlaveLock(final long slaveId) {
+        log.debug("Attempting to acquire lock on the slave (id = {})", slaveId);
+        final var key = livenessKey(slaveId);
+        jdbcTemplate.query(
+                "select pg_advisory_lock(?, ?)",
+                ps -> {
+                    ps.setInt(1, key.namespace());
+                    ps.setInt(2, (int) key.key());
+                },
+                rs -> null
         );
     }
 
-    private Optional<MasterLock> acquireMasterLock(final String processIdentifier) {
-        log.info("Awaiting the lock on the master for the process with identifier = {}", processIdentifier);
-        return jdbcTemplate.queryForStream(
-                "select * from db_master_lock where process_identifier = ? and id is null for update",
-                ps -> ps.setString(1, processIdentifier),
-                (rs, rowNum) -> ExceptionUtils.runCatching(
-                        () -> new MasterLock(
-                                rs.getLong("id"),
-                                rs.getString("process_identifier"),
-                                SyncStatus.valueOf(rs.getString("status"))
-                        )
-                ).getResultOrThrow()
-        ).findFirst();
+    private void releaseSlaveLock(final long slaveId) {
+        final var key = livenessKey(slaveId);
+        jdbcTemplate.query(
+                "select pg_advisory_unlock(?, ?)",
+                ps -> {
+                    ps.setInt(1, key.namespace());
+                    ps.setInt(2, (int) key.key());
+                },
+                rs -> null
+        );
     }
 
     private Optional<MasterLock> getMasterDataAfterProcessing(final SlaveLock slaveLock) {
-        log.info(
+        log.debug(
                 "Checking whether sync of the process with identifier = {} has succeeded",
                 slaveLock.processIdentifier()
         );
 
-        return jdbcTemplate.queryForStream(
-                """
-                        select m.id as master_id, m.status as status from db_slave_per_master ms
-                            join db_master_lock m on m.id = ms.master_id
-                            where ms.slave_id = ?""",
+        return Optional.ofNullable(jdbcTemplate.query(
+                MASTER_DATA_AFTER_PROCESSING_SQL,
                 ps -> ps.setLong(1, slaveLock.id()),
-                (rs, rowNum) -> ExceptionUtils.runCatching(
-                        () -> new MasterLock(
+                rs -> rs.next()
+                        ? new MasterLock(
                                 rs.getLong("master_id"),
                                 slaveLock.processIdentifier(),
-                                SyncStatus.valueOf(rs.getString("status"))
+                                SyncStatus.valueOf(rs.getString("status")),
+                                rs.getInt("participants")
                         )
-                ).getResultOrThrow()
-        ).findFirst();
-    }
-
-    private void updateFailedMasterLockAndThrow(final MasterLock masterLock) {
-        final var newMasterId = sequenceValueGenerator.nextValue();
-        log.error(
-                "Unexpectedly acquired lock on the master ({}). New id ({}) and status({}) will be set.",
-                masterLock, newMasterId, SyncStatus.FAILED
-        );
-        transactionalProcessor.process(() -> updateMasterLockStatus(masterLock, newMasterId));
-        throw new IllegalStateException("Unexpectedly acquired master lock!");
-    }
-
-    private void updateMasterLockStatus(final MasterLock masterLock, final long newId) {
-        jdbcTemplate.update(
-                "update db_master_lock set id = ?, status = ? where process_identifier = ? and id is null",
-                ps -> {
-                    ps.setLong(1, newId);
-                    ps.setString(2, SyncStatus.FAILED.toString());
-                    ps.setString(3, masterLock.processIdentifier());
-                }
-        );
+                        : null
+        ));
     }
 }
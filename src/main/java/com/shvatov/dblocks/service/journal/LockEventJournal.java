@@ -0,0 +1,204 @@
+package com.shvatov.dblocks.service.journal;
+
+import com.shvatov.dblocks.model.LockEvent;
+import com.shvatov.dblocks.model.enums.LockEventType;
+import com.shvatov.dblocks.model.enums.LockMode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size ring of the latest lock events. Slots are allocated once and overwritten in place:
+ * a writer claims the next sequence and then the slot itself by a CAS of its sequence lock, so neither the writers
+ * nor the readers ever block. Readers skip the slots being written or already overwritten.
+ * If the writers lap the ring while another writer is still filling the same slot, the event of the lapping writer
+ * is dropped, as is the one of a writer, which finds the slot already claimed by a newer event.
+ * <p>
+ * Every {@link LockJournalProperties#getLogEveryNth()} event is logged by a background thread,
+ * so the lock paths do not pay for the logging.
+ */
+@Slf4j
+@Component
+public class LockEventJournal {
+    private final LockJournalProperties properties;
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    private volatile ScheduledExecutorService logScheduler;
+    private long loggedSequence; // confined to the log thread
+
+    public LockEventJournal(final LockJournalProperties properties) {
+        this.properties = properties;
+        final var capacity = Integer.highestOneBit(Math.max(1, properties.getCapacity() - 1)) << 1;
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = capacity - 1;
+    }
+
+    @PostConstruct
+    public void startLogging() {
+        if (!properties.isEnabled() || properties.getLogEveryNth() <= 0) {
+            return;
+        }
+
+        logScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "db-lock-journal-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var interval = properties.getLogInterval().toMillis();
+        logScheduler.scheduleWithFixedDelay(this::logSampledEvents, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopLogging() {
+        if (logScheduler != null) {
+            logScheduler.shutdownNow();
+        }
+    }
+
+    public void record(final LockEventType type,
+                       final String processIdentifier,
+                       final LockMode mode,
+                       final long waitNanos,
+                       final long holdNanos,
+                       final String outcome) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        final var sequence = cursor.getAndIncrement();
+        final var slot = slots[(int) (sequence & mask)];
+        if (!slot.claim(2 * sequence + 1)) {
+            return;
+        }
+        slot.sequence = sequence;
+        slot.epochMillis = System.currentTimeMillis();
+        slot.type = type;
+        slot.processIdentifier = processIdentifier;
+        slot.mode = mode;
+        slot.waitNanos = waitNanos;
+        slot.holdNanos = holdNanos;
+        slot.outcome = outcome;
+        slot.thread = Thread.currentThread().getName();
+        slot.version = 2 * sequence + 2;
+    }
+
+    /**
+     * Events still in the ring, from the oldest to the newest.
+     *
+     * @param limit max number of the latest events returned
+     */
+    public List<LockEvent> events(final int limit) {
+        final var end = cursor.get();
+        final var start = Math.max(0L, end - Math.min(limit, slots.length));
+        final var events = new ArrayList<LockEvent>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            final var event = read(sequence);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return {@code null}, if the slot is being written or has been overwritten by a newer event
+     */
+    private LockEvent read(final long sequence) {
+        final var slot = slots[(int) (sequence & mask)];
+        final var expectedVersion = 2 * sequence + 2;
+        if (slot.version != expectedVersion) {
+            return null;
+        }
+        final var event = new LockEvent(
+                slot.sequence,
+                Instant.ofEpochMilli(slot.epochMillis),
+                slot.type,
+                slot.processIdentifier,
+                slot.mode,
+                slot.waitNanos,
+                slot.holdNanos,
+                slot.outcome,
+                slot.thread
+        );
+        VarHandle.loadLoadFence();
+        return slot.version == expectedVersion ? event : null;
+    }
+
+    private void logSampledEvents() {
+        final var end = cursor.get();
+        var sequence = Math.max(loggedSequence, end - slots.length);
+        if (sequence > loggedSequence) {
+            log.info("{} lock events have been overwritten before being logged", sequence - loggedSequence);
+        }
+
+        final var nth = properties.getLogEveryNth();
+        sequence = (sequence + nth - 1) / nth * nth; // first sampled sequence
+        for (; sequence < end; sequence += nth) {
+            final var event = read(sequence);
+            if (event != null) {
+                log.info("Lock event: {}", event);
+            }
+        }
+        loggedSequence = end;
+    }
+
+    private static final class Slot {
+        private static final VarHandle VERSION;
+
+        static {
+            try {
+                VERSION = MethodHandles.lookup().findVarHandle(Slot.class, "version", long.class);
+            } catch (final ReflectiveOperationException exception) {
+                throw new ExceptionInInitializerError(exception);
+            }
+        }
+
+        private volatile long version;
+        private long sequence;
+        private long epochMillis;
+        private LockEventType type;
+        private String processIdentifier;
+        private LockMode mode;
+        private long waitNanos;
+        private long holdNanos;
+        private String outcome;
+        private String thread;
+
+        /**
+         * Marks the slot as being written, unless it is being written already or holds a newer event,
+         * so only a single writer fills the slot at a time.
+         *
+         * @param writeVersion odd version of the event being written
+         */
+        private boolean claim(final long writeVersion) {
+            var current = version;
+            while ((current & 1) == 0 && current < writeVersion) {
+                if (VERSION.compareAndSet(this, current, writeVersion)) {
+                    return true;
+                }
+                current = version;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.shvatov.dblocks.service.journal;
+
+import com.shvatov.dblocks.model.LockEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Dump of the lock event journal on demand, exposed by the actuator together with the lock metrics.
+ */
+@Component
+@Endpoint(id = "dblocks")
+@RequiredArgsConstructor
+public class LockJournalEndpoint {
+    private final LockEventJournal journal;
+
+    /**
+     * @param limit max number of the latest events, the whole journal by default
+     */
+    @ReadOperation
+    public List<LockEvent> events(@Nullable final Integer limit) {
+        return journal.events(limit != null ? limit : journal.capacity());
+    }
+}
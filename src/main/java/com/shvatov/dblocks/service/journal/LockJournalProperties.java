@@ -0,0 +1,29 @@
+package com.shvatov.dblocks.service.journal;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.journal")
+public class LockJournalProperties {
+    private boolean enabled = true;
+
+    /**
+     * Number of the latest events kept in memory, rounded up to a power of two.
+     */
+    private int capacity = 8192;
+
+    /**
+     * Only every n-th event is logged, {@code 0} turns the logging of the events off.
+     */
+    private int logEveryNth = 100;
+
+    /**
+     * Delay between the runs of the background logger.
+     */
+    private Duration logInterval = Duration.ofSeconds(1);
+}
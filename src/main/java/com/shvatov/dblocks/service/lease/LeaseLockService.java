@@ -0,0 +1,193 @@
+package com.shvatov.dblocks.service.lease;
+
+import com.shvatov.dblocks.model.Lease;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exclusive locks, which outlive the transactions. Each lease is a row, written in a short transaction
+ * and kept alive by the node: all the leases of the node are renewed by a single update, so the cost
+ * of holding does not depend on their number. Lease of a dead node expires after the
+ * {@link LeaseProperties#getTtl()} and may be taken over by the others with a greater fencing token.
+ * Leases are not reentrant.
+ */
+@Slf4j
+@Service
+public class LeaseLockService {
+    private final LeaseProperties properties;
+    private final LockConnectionPool lockConnectionPool;
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentMap<String, HeldLease> heldLeases = new ConcurrentHashMap<>();
+
+    private volatile ScheduledExecutorService renewalScheduler;
+
+    public LeaseLockService(final LeaseProperties properties, final LockConnectionPool lockConnectionPool) {
+        this.properties = properties;
+        this.lockConnectionPool = lockConnectionPool;
+        this.jdbcTemplate = lockConnectionPool.getJdbcTemplate();
+    }
+
+    @PostConstruct
+    public void startRenewal() {
+        renewalScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "db-lock-lease-renewal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var interval = properties.getRenewalInterval().toMillis();
+        renewalScheduler.scheduleWithFixedDelay(this::renewLeases, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopRenewal() {
+        renewalScheduler.shutdownNow();
+        if (heldLeases.isEmpty()) {
+            return;
+        }
+
+        try {
+            lockConnectionPool.process(() ->
+                    jdbcTemplate.update("delete from db_lock_lease where node_id = ?", properties.getNodeId())
+            );
+        } catch (final DataAccessException exception) {
+            log.warn("Could not release the leases of the node \"{}\", they will expire", properties.getNodeId(), exception);
+        }
+        heldLeases.clear();
+    }
+
+    /**
+     * Acquires the lease, if it is free or its holder has not renewed it in time.
+     */
+    public Optional<Lease> tryAcquire(final String processIdentifier) {
+        log.info("Attempting to acquire lease for the process \"{}\"", processIdentifier);
+        final var startNanos = System.nanoTime();
+        final var fencingToken = lockConnectionPool.execute(() ->
+                jdbcTemplate.query(
+                        """
+                                insert into db_lock_lease(process_identifier, node_id, fencing_token, expires_at)
+                                values (?, ?, nextval('seq_lease_fencing_token'), now() + ? * interval '1 millisecond')
+                                on conflict (process_identifier) do update
+                                    set node_id = excluded.node_id,
+                                        fencing_token = excluded.fencing_token,
+                                        expires_at = excluded.expires_at
+                                    where db_lock_lease.expires_at < now()
+                                returning fencing_token""",
+                        ps -> {
+                            ps.setString(1, processIdentifier);
+                            ps.setString(2, properties.getNodeId());
+                            ps.setLong(3, properties.getTtl().toMillis());
+                        },
+                        (rs, rowNum) -> rs.getLong(1)
+                ).stream().findFirst()
+        );
+
+        return fencingToken.map(token -> {
+            final var lease = new Lease(processIdentifier, token);
+            heldLeases.put(processIdentifier, new HeldLease(lease, startNanos));
+            log.info("Acquired lease for the process \"{}\" with fencing token {}", processIdentifier, token);
+            return lease;
+        });
+    }
+
+    /**
+     * Waits for the lease no longer than the provided timeout.
+     */
+    public Optional<Lease> acquire(final String processIdentifier, final Duration timeout) throws InterruptedException {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            final var lease = tryAcquire(processIdentifier);
+            final var remaining = deadline - System.nanoTime();
+            if (lease.isPresent() || remaining <= 0) {
+                return lease;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, properties.getAcquisitionPollingDelay().toNanos()));
+        }
+    }
+
+    /**
+     * Whether the lease is still held by this node. Lease is considered lost, when it has not been renewed
+     * within the ttl, even if the database has not been reachable to confirm that.
+     */
+    public boolean isHeld(final Lease lease) {
+        final var held = heldLeases.get(lease.processIdentifier());
+        return held != null && held.lease.equals(lease) && held.expiresAtNanos - System.nanoTime() > 0;
+    }
+
+    public boolean release(final Lease lease) {
+        log.info("Releasing lease for the process \"{}\"", lease.processIdentifier());
+        heldLeases.computeIfPresent(lease.processIdentifier(), (ignored, held) -> held.lease.equals(lease) ? null : held);
+        final int deleted = lockConnectionPool.execute(() ->
+                jdbcTemplate.update(
+                        "delete from db_lock_lease where process_identifier = ? and fencing_token = ?",
+                        lease.processIdentifier(), lease.fencingToken()
+                )
+        );
+        return deleted > 0;
+    }
+
+    void renewLeases() {
+        if (heldLeases.isEmpty()) {
+            return;
+        }
+
+        final var startNanos = System.nanoTime();
+        final var renewed = new HashSet<Lease>();
+        try {
+            lockConnectionPool.process(() ->
+                    jdbcTemplate.query(
+                            """
+                                    update db_lock_lease set expires_at = now() + ? * interval '1 millisecond'
+                                    where node_id = ?
+                                    returning process_identifier, fencing_token""",
+                            ps -> {
+                                ps.setLong(1, properties.getTtl().toMillis());
+                                ps.setString(2, properties.getNodeId());
+                            },
+                            rs -> {
+                                renewed.add(new Lease(rs.getString(1), rs.getLong(2)));
+                            }
+                    )
+            );
+        } catch (final DataAccessException exception) {
+            log.warn("Could not renew the leases of the node \"{}\"", properties.getNodeId(), exception);
+            return;
+        }
+
+        heldLeases.values().forEach(held -> {
+            if (renewed.contains(held.lease)) {
+                held.expiresAtNanos = startNanos + properties.getTtl().toNanos();
+            } else if (held.acquiredAtNanos - startNanos < 0) {
+                // acquired before the renewal, but has already been taken over by another node
+                log.warn("Lease for the process \"{}\" has been lost", held.lease.processIdentifier());
+                heldLeases.remove(held.lease.processIdentifier(), held);
+            }
+        });
+        log.debug("Renewed {} leases of the node \"{}\"", renewed.size(), properties.getNodeId());
+    }
+
+    private final class HeldLease {
+        private final Lease lease;
+        private final long acquiredAtNanos;
+        private volatile long expiresAtNanos;
+
+        private HeldLease(final Lease lease, final long acquiredAtNanos) {
+            this.lease = lease;
+            this.acquiredAtNanos = acquiredAtNanos;
+            this.expiresAtNanos = acquiredAtNanos + properties.getTtl().toNanos();
+        }
+    }
+}
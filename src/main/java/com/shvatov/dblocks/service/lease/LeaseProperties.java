@@ -0,0 +1,33 @@
+package com.shvatov.dblocks.service.lease;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.lease")
+public class LeaseProperties {
+    /**
+     * Time after the last renewal, when the lease of a dead holder may be taken over by the others.
+     */
+    private Duration ttl = Duration.ofSeconds(30);
+
+    /**
+     * How often all the leases of this node are renewed, should be well below the {@link #ttl}.
+     */
+    private Duration renewalInterval = Duration.ofSeconds(10);
+
+    /**
+     * Delay between the attempts to acquire a lease held by another node.
+     */
+    private Duration acquisitionPollingDelay = Duration.ofMillis(200);
+
+    /**
+     * Identifier of this node, must be unique among the nodes sharing the database.
+     */
+    private String nodeId = UUID.randomUUID().toString();
+}
@@ -0,0 +1,239 @@
+package com.shvatov.dblocks.service.memory;
+
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.provider.BarrierProvider;
+import com.shvatov.dblocks.service.provider.BarrierQuorum;
+import com.shvatov.dblocks.service.provider.BatchAction;
+import com.shvatov.dblocks.service.provider.LockProviderProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Barrier of this JVM only. The participants of the same process join the current generation,
+ * which is a single-phase {@link Phaser} with {@link BarrierQuorum#maxParticipants()} parties. The generation
+ * is removed from the registry once it is full, or once its deadline has passed with the quorum reached,
+ * so the next participants start a new batch. In the latter case the missing parties are deregistered,
+ * and the phase advances as soon as the joined ones have arrived. Without the quorum at the deadline,
+ * the generation fails for all its participants.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class InMemoryBarrierService implements BarrierProvider {
+    private static final String METRICS_ROLE = "in_memory";
+
+    private final LockProviderProperties properties;
+    private final LockMetrics lockMetrics;
+    private final ConcurrentMap<String, Generation> generations = new ConcurrentHashMap<>();
+    private final AtomicInteger actionThreads = new AtomicInteger();
+    /**
+     * Actions of the async batches may block, so they are kept off the common pool.
+     */
+    private final ExecutorService actionExecutor = Executors.newCachedThreadPool(runnable -> {
+        final var thread = new Thread(runnable, "in-memory-barrier-action-" + actionThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        actionExecutor.shutdownNow();
+    }
+
+    @Override
+    public <T> T lockAndExecuteBatch(final String processIdentifier,
+                                     final int batchSize,
+                                     final Callable<T> action) throws Exception {
+        return lockAndExecuteBatch(processIdentifier, exactly(batchSize), ignored -> action.call());
+    }
+
+    @Override
+    public <T> CompletableFuture<T> lockAndExecuteBatchAsync(final String processIdentifier,
+                                                             final int batchSize,
+                                                             final Callable<T> action) {
+        final BarrierQuorum quorum;
+        try {
+            quorum = exactly(batchSize);
+        } catch (final RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        return lockAndExecuteBatchAsync(processIdentifier, quorum, ignored -> action.call());
+    }
+
+    @Override
+    public <T> T lockAndExecuteBatch(final String processIdentifier,
+                                     final BarrierQuorum quorum,
+                                     final BatchAction<T> action) throws Exception {
+        final var startNanos = System.nanoTime();
+        final var generation = join(processIdentifier, quorum);
+        final var phase = generation.arrive();
+        try {
+            try {
+                generation.awaitAdvanceInterruptibly(phase, generation.remainingNanos(), TimeUnit.NANOSECONDS);
+            } catch (final TimeoutException exception) {
+                onDeadline(processIdentifier, generation);
+                // released, filled or failed by now, the joined participants only have to arrive
+                generation.awaitAdvanceInterruptibly(phase);
+            }
+        } catch (final InterruptedException exception) {
+            abandon(processIdentifier, generation);
+            Thread.currentThread().interrupt();
+        }
+        return action.execute(checkFilled(processIdentifier, generation, startNanos));
+    }
+
+    /**
+     * Same as {@link #lockAndExecuteBatch}, but no thread waits for the batch: the action is executed
+     * asynchronously, once the batch has been formed.
+     */
+    @Override
+    public <T> CompletableFuture<T> lockAndExecuteBatchAsync(final String processIdentifier,
+                                                             final BarrierQuorum quorum,
+                                                             final BatchAction<T> action) {
+        final var startNanos = System.nanoTime();
+        final Generation generation;
+        try {
+            generation = join(processIdentifier, quorum);
+        } catch (final RuntimeException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+
+        final var filled = generation.filled.copy()
+                .orTimeout(generation.remainingNanos(), TimeUnit.NANOSECONDS);
+        generation.arrive();
+        return filled
+                .exceptionallyCompose(ignored -> {
+                    onDeadline(processIdentifier, generation);
+                    return generation.filled;
+                })
+                .handle((ignored, exception) -> {
+                    if (exception != null) {
+                        abandon(processIdentifier, generation);
+                    }
+                    return checkFilled(processIdentifier, generation, startNanos);
+                })
+                .thenApplyAsync(batchSize -> {
+                    try {
+                        return action.execute(batchSize);
+                    } catch (final RuntimeException exception) {
+                        throw exception;
+                    } catch (final Exception exception) {
+                        throw new CompletionException(exception);
+                    }
+                }, actionExecutor);
+    }
+
+    private BarrierQuorum exactly(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, but was %d".formatted(batchSize));
+        }
+        return BarrierQuorum.exactly(batchSize, properties.getInMemoryBarrierTimeout());
+    }
+
+    private Generation join(final String processIdentifier, final BarrierQuorum quorum) {
+        final var joined = new Generation[1];
+        generations.compute(processIdentifier, (ignored, existing) -> {
+            final var generation = existing == null ? new Generation(quorum) : existing;
+            if (!generation.quorum.equals(quorum)) {
+                throw new IllegalStateException(
+                        "Barrier of the process \"%s\" is waiting for %s, not for %s"
+                                .formatted(processIdentifier, generation.quorum, quorum)
+                );
+            }
+            joined[0] = generation;
+            return quorum.isFilledBy(++generation.joined) ? null : generation;
+        });
+        return joined[0];
+    }
+
+    /**
+     * Releases the generation with the participants joined so far, if they reach the quorum, or fails it.
+     * Called by each participant, which has not seen the batch filled by the deadline, only the first call counts.
+     */
+    private void onDeadline(final String processIdentifier, final Generation generation) {
+        final var outcome = new Boolean[1];
+        generations.computeIfPresent(processIdentifier, (ignored, existing) -> {
+            if (existing != generation) {
+                return existing;
+            }
+            outcome[0] = generation.quorum.isReachedBy(generation.joined);
+            return outcome[0] ? null : existing;
+        });
+
+        if (outcome[0] == null) {
+            return; // already filled, released or failed
+        }
+        if (!outcome[0]) {
+            abandon(processIdentifier, generation);
+            return;
+        }
+        // outside of the map, as the advance completes the dependent stages of the waiting participants
+        log.debug(
+                "Releasing the barrier of the process \"{}\" with {} participants", processIdentifier, generation.joined
+        );
+        for (var missing = generation.quorum.maxParticipants() - generation.joined; missing > 0; missing--) {
+            generation.arriveAndDeregister();
+        }
+    }
+
+    private void abandon(final String processIdentifier, final Generation generation) {
+        generations.remove(processIdentifier, generation);
+        if (generation.filled.completeExceptionally(new TimeoutException())) {
+            log.info("Barrier of the process \"{}\" has not been filled in time", processIdentifier);
+            generation.forceTermination();
+        }
+    }
+
+    /**
+     * @return size of the batch
+     */
+    private int checkFilled(final String processIdentifier, final Generation generation, final long startNanos) {
+        lockMetrics.recordBarrierWait(METRICS_ROLE, processIdentifier, startNanos);
+        if (!generation.filled.isDone() || generation.filled.isCompletedExceptionally()) {
+            throw new IllegalStateException(
+                    "Failed to fill the barrier of the process %s".formatted(processIdentifier)
+            );
+        }
+        return generation.filled.join();
+    }
+
+    private static final class Generation extends Phaser {
+        private final CompletableFuture<Integer> filled = new CompletableFuture<>();
+        private final BarrierQuorum quorum;
+        private final long deadlineNanos;
+        private int joined; // guarded by the map
+
+        private Generation(final BarrierQuorum quorum) {
+            super(quorum.maxParticipants());
+            this.quorum = quorum;
+            this.deadlineNanos = System.nanoTime() + quorum.maxWait().toNanos();
+        }
+
+        private long remainingNanos() {
+            return Math.max(0L, deadlineNanos - System.nanoTime());
+        }
+
+        /**
+         * Parties of the released generation are the joined participants only.
+         */
+        @Override
+        protected boolean onAdvance(final int phase, final int registeredParties) {
+            filled.complete(registeredParties);
+            return true;
+        }
+    }
+}
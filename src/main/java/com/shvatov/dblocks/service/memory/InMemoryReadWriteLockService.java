@@ -0,0 +1,338 @@
+package com.shvatov.dblocks.service.memory;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.provider.ReadWriteLockProvider;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks of this JVM only. Each process identifier gets its own {@link ProcessLock},
+ * which is referenced weakly by the registry: it is kept by the transactions holding or waiting for it
+ * and is dropped from the registry after being collected. Locks are released, when the transaction
+ * of the caller completes, same as the database ones. Since the locks are owned by the thread,
+ * a nested {@code REQUIRES_NEW} transaction of the same thread re-enters the lock instead of waiting for it.
+ * <p>
+ * Update intent and exclusive locks both take the intent lock of the process first, so the holder
+ * of the intent upgrades it by waiting for the readers only.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class InMemoryReadWriteLockService implements ReadWriteLockProvider {
+    private static final String BACKEND = InMemoryReadWriteLockService.class.getSimpleName();
+    private static final String TIMEOUT_PATH = "read_write";
+
+    private final LockMetrics lockMetrics;
+    private final ConcurrentMap<String, LockReference> locks = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ProcessLock> collectedLocks = new ReferenceQueue<>();
+
+    @Override
+    public void acquireExclusiveLock(final String processIdentifier) {
+        acquireLock(processIdentifier, LockMode.EXCLUSIVE, null);
+    }
+
+    @Override
+    public void acquireSharedLock(final String processIdentifier) {
+        acquireLock(processIdentifier, LockMode.SHARED, null);
+    }
+
+    @Override
+    public void acquireUpdateIntentLock(final String processIdentifier) {
+        acquireLock(processIdentifier, LockMode.UPDATE_INTENT, null);
+    }
+
+    @Override
+    public LockAcquisitionResult tryAcquire(final String processIdentifier, final LockMode mode) {
+        return acquireLock(processIdentifier, mode, Duration.ZERO);
+    }
+
+    @Override
+    public LockAcquisitionResult acquire(final String processIdentifier, final LockMode mode, final Duration timeout) {
+        return acquireLock(processIdentifier, mode, timeout.isNegative() ? Duration.ZERO : timeout);
+    }
+
+    @Override
+    public void acquireAll(final Collection<String> processIdentifiers, final LockMode mode) {
+        processIdentifiers.stream()
+                .distinct()
+                .sorted()
+                .forEach(processIdentifier -> acquireLock(processIdentifier, mode, null));
+    }
+
+    @Override
+    public LockAcquisitionResult upgrade(final String processIdentifier, final Duration timeout) {
+        heldLock(processIdentifier);
+        return acquire(processIdentifier, LockMode.EXCLUSIVE, timeout);
+    }
+
+    /**
+     * Releases the part of the lock, which is not required by the weaker mode, before the transaction completes.
+     * Used by the tests only and not a part of the {@link ReadWriteLockProvider}: Postgres releases neither
+     * the row locks nor the transaction-level advisory ones before the end of the transaction.
+     */
+    void downgrade(final String processIdentifier, final LockMode mode) {
+        heldLock(processIdentifier).downgrade(mode);
+        log.debug("Downgraded in-memory lock for the process \"{}\" to mode = {}", processIdentifier, mode);
+    }
+
+    /**
+     * Number of the identifiers, which locks have not been collected yet.
+     */
+    int registeredLocks() {
+        expungeCollectedLocks();
+        return locks.size();
+    }
+
+    /**
+     * @param timeout {@code null} to wait for the lock as long as required
+     */
+    private LockAcquisitionResult acquireLock(final String processIdentifier,
+                                              final LockMode mode,
+                                              final Duration timeout) {
+        final var startNanos = System.nanoTime();
+        final var heldLock = HeldLocks.current(this).locks.computeIfAbsent(
+                processIdentifier,
+                ignored -> new HeldLock(lockOf(processIdentifier))
+        );
+        if (heldLock.mode != null && heldLock.mode.covers(mode)) {
+            lockMetrics.recordAcquisition(BACKEND, processIdentifier, mode, LockMetrics.REENTERED_RESULT, startNanos);
+            return LockAcquisitionResult.ACQUIRED;
+        }
+
+        final var readWriteLock = heldLock.processLock.readWrite;
+        if (mode != LockMode.SHARED
+                && readWriteLock.getReadHoldCount() > 0
+                && !readWriteLock.isWriteLockedByCurrentThread()) {
+            throw new IllegalStateException(
+                    "Shared lock for the process \"%s\" can not be upgraded".formatted(processIdentifier)
+            );
+        }
+
+        final var result = heldLock.acquire(mode, timeout);
+        lockMetrics.recordAcquisition(BACKEND, processIdentifier, mode, result.name(), startNanos);
+        if (result == LockAcquisitionResult.ACQUIRED) {
+            log.debug("Acquired in-memory lock for the process \"{}\" with mode = {}", processIdentifier, mode);
+            lockMetrics.recordHoldUntilCompletion(BACKEND, processIdentifier, mode);
+        } else if (result == LockAcquisitionResult.TIMED_OUT) {
+            lockMetrics.countTimeout(TIMEOUT_PATH, processIdentifier);
+        }
+        return result;
+    }
+
+    private HeldLock heldLock(final String processIdentifier) {
+        final var heldLock = HeldLocks.current(this).locks.get(processIdentifier);
+        if (heldLock == null || heldLock.mode == null) {
+            throw new IllegalStateException(
+                    "Lock for the process \"%s\" is not held by the transaction".formatted(processIdentifier)
+            );
+        }
+        return heldLock;
+    }
+
+    /**
+     * @param timeout {@code null} to wait for the lock as long as required
+     */
+    private static LockAcquisitionResult lock(final Lock lock, final Duration timeout, final long deadline) {
+        if (timeout == null) {
+            lock.lock();
+            return LockAcquisitionResult.ACQUIRED;
+        }
+        if (timeout.isZero()) {
+            return lock.tryLock() ? LockAcquisitionResult.ACQUIRED : LockAcquisitionResult.REJECTED;
+        }
+        try {
+            return lock.tryLock(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                    ? LockAcquisitionResult.ACQUIRED
+                    : LockAcquisitionResult.TIMED_OUT;
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return LockAcquisitionResult.TIMED_OUT;
+        }
+    }
+
+    private ProcessLock lockOf(final String processIdentifier) {
+        expungeCollectedLocks();
+        while (true) {
+            final var reference = locks.get(processIdentifier);
+            final var existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                return existing;
+            }
+
+            final var created = new ProcessLock();
+            final var createdReference = new LockReference(processIdentifier, created, collectedLocks);
+            final var registered = reference == null
+                    ? locks.putIfAbsent(processIdentifier, createdReference) == null
+                    : locks.replace(processIdentifier, reference, createdReference);
+            if (registered) {
+                return created;
+            }
+        }
+    }
+
+    private void expungeCollectedLocks() {
+        LockReference collected;
+        while ((collected = (LockReference) collectedLocks.poll()) != null) {
+            locks.remove(collected.processIdentifier, collected);
+        }
+    }
+
+    private static final class ProcessLock {
+        private final ReentrantReadWriteLock readWrite = new ReentrantReadWriteLock();
+        private final ReentrantLock intent = new ReentrantLock();
+    }
+
+    private static final class LockReference extends WeakReference<ProcessLock> {
+        private final String processIdentifier;
+
+        private LockReference(final String processIdentifier,
+                              final ProcessLock lock,
+                              final ReferenceQueue<ProcessLock> queue) {
+            super(lock, queue);
+            this.processIdentifier = processIdentifier;
+        }
+    }
+
+    /**
+     * Lock of the process held by a single transaction. Keeps the lock reachable, while it is held.
+     * Exclusive mode holds the intent and the write lock, update intent holds the intent lock only,
+     * shared mode holds the read lock only.
+     */
+    @RequiredArgsConstructor
+    private static final class HeldLock {
+        private final ProcessLock processLock;
+        private LockMode mode;
+
+        /**
+         * @param timeout {@code null} to wait for the lock as long as required
+         */
+        private LockAcquisitionResult acquire(final LockMode requested, final Duration timeout) {
+            final var deadline = timeout == null ? 0L : System.nanoTime() + timeout.toNanos();
+            if (requested == LockMode.SHARED) {
+                return lock(processLock.readWrite.readLock(), timeout, deadline, requested);
+            }
+
+            final var intentTaken = mode == null;
+            if (intentTaken) {
+                final var result = lock(processLock.intent, timeout, deadline, LockMode.UPDATE_INTENT);
+                if (result != LockAcquisitionResult.ACQUIRED || requested == LockMode.UPDATE_INTENT) {
+                    return result;
+                }
+            }
+            final var result = lock(processLock.readWrite.writeLock(), timeout, deadline, requested);
+            if (result != LockAcquisitionResult.ACQUIRED && intentTaken) {
+                processLock.intent.unlock();
+                mode = null;
+            }
+            return result;
+        }
+
+        private LockAcquisitionResult lock(final Lock lock,
+                                           final Duration timeout,
+                                           final long deadline,
+                                           final LockMode acquired) {
+            final var result = InMemoryReadWriteLockService.lock(lock, timeout, deadline);
+            if (result == LockAcquisitionResult.ACQUIRED) {
+                mode = acquired;
+            }
+            return result;
+        }
+
+        /**
+         * Read lock is taken before the stronger locks are released, so no writer gets in between.
+         */
+        private void downgrade(final LockMode requested) {
+            if (!mode.covers(requested)) {
+                throw new IllegalArgumentException(
+                        "Lock held with mode %s can not be downgraded to %s".formatted(mode, requested)
+                );
+            }
+            if (requested == LockMode.SHARED && mode != LockMode.SHARED) {
+                processLock.readWrite.readLock().lock();
+                processLock.intent.unlock();
+            }
+            if (mode == LockMode.EXCLUSIVE && requested != LockMode.EXCLUSIVE) {
+                processLock.readWrite.writeLock().unlock();
+            }
+            mode = requested;
+        }
+
+        private void release() {
+            if (mode == LockMode.EXCLUSIVE) {
+                processLock.readWrite.writeLock().unlock();
+            }
+            if (mode == LockMode.EXCLUSIVE || mode == LockMode.UPDATE_INTENT) {
+                processLock.intent.unlock();
+            }
+            if (mode == LockMode.SHARED) {
+                processLock.readWrite.readLock().unlock();
+            }
+            mode = null;
+        }
+    }
+
+    /**
+     * Locks held by the current transaction. Bound to the transaction, so it is hidden from the nested
+     * {@code REQUIRES_NEW} transactions and released on commit or rollback.
+     */
+    private static final class HeldLocks implements TransactionSynchronization {
+        private final Object owner;
+        private final Map<String, HeldLock> locks = new HashMap<>();
+
+        private HeldLocks(final Object owner) {
+            this.owner = owner;
+        }
+
+        private static HeldLocks current(final Object owner) {
+            final var existing = (HeldLocks) TransactionSynchronizationManager.getResource(owner);
+            if (existing != null) {
+                return existing;
+            }
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                throw new IllegalTransactionStateException(
+                        "No existing transaction found, lock would never be released"
+                );
+            }
+
+            final var created = new HeldLocks(owner);
+            TransactionSynchronizationManager.bindResource(owner, created);
+            TransactionSynchronizationManager.registerSynchronization(created);
+            return created;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(owner);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(owner, this);
+        }
+
+        @Override
+        public void afterCompletion(final int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(owner);
+            locks.values().forEach(HeldLock::release);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.shvatov.dblocks.service.metrics;
+
+import com.shvatov.dblocks.model.enums.LockEventType;
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.journal.LockEventJournal;
+import com.shvatov.dblocks.utils.ProcessIdentifierUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters of the lock acquisition paths, tagged by the family of the process
+ * (see {@link ProcessIdentifierUtils#familyOf(String)}). Meters are created once and cached, the families are
+ * matched against the identifiers in place, so recording costs a few map lookups and allocates nothing. Each recording is also written to the {@link LockEventJournal}.
+ */
+@Component
+public class LockMetrics {
+    public static final String ACQUISITION_TIMER = "db.locks.acquisition";
+    public static final String HOLD_TIMER = "db.locks.hold";
+    public static final String TIMEOUT_COUNTER = "db.locks.timeouts";
+    public static final String CREATION_CONFLICT_COUNTER = "db.locks.creation.conflicts";
+    public static final String BARRIER_FILL_TIMER = "db.locks.barrier.fill";
+    public static final String BARRIER_WAIT_TIMER = "db.locks.barrier.wait";
+    public static final String BARRIER_REPEAT_COUNTER = "db.locks.barrier.repeats";
+
+    public static final String FAILED_RESULT = "FAILED";
+
+    /**
+     * Lock already held by the transaction, acquired again without going to the database.
+     */
+    public static final String REENTERED_RESULT = "REENTERED";
+
+    /**
+     * Families above the limit are reported as {@link #OTHER_FAMILY} to keep the number of the meters bounded.
+     */
+    private static final int MAX_FAMILIES = 100;
+    private static final String OTHER_FAMILY = "other";
+
+    private final MeterRegistry registry;
+    private final LockEventJournal journal;
+    private final ConcurrentMap<MeterKey, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<MeterKey, Counter> counters = new ConcurrentHashMap<>();
+    private final FamilyMeters defaultFamily = new FamilyMeters(ProcessIdentifierUtils.DEFAULT_FAMILY);
+    private final FamilyMeters otherFamily = new FamilyMeters(OTHER_FAMILY);
+
+    /**
+     * Copied on write, there are few families and they are added once.
+     */
+    private volatile FamilyMeters[] families = new FamilyMeters[0];
+
+    public LockMetrics(final ObjectProvider<MeterRegistry> registry, final LockEventJournal journal) {
+        this.registry = registry.getIfAvailable(SimpleMeterRegistry::new);
+        this.journal = journal;
+    }
+
+    /**
+     * Time spent waiting for the lock, {@code result} is either the {@code LockAcquisitionResult},
+     * {@link #FAILED_RESULT} or {@link #REENTERED_RESULT}.
+     */
+    public void recordAcquisition(final String backend,
+                                  final String processIdentifier,
+                                  final LockMode mode,
+                                  final String result,
+                                  final long startNanos) {
+        final var waitNanos = System.nanoTime() - startNanos;
+        familyOf(processIdentifier).acquisitionTimer(backend, mode, result).record(waitNanos, TimeUnit.NANOSECONDS);
+        journal.record(LockEventType.ACQUISITION, processIdentifier, mode, waitNanos, -1, result);
+    }
+
+    /**
+     * Records the time the lock is held, which ends together with the current transaction.
+     */
+    public void recordHoldUntilCompletion(final String backend, final String processIdentifier, final LockMode mode) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        final var timer = familyOf(processIdentifier).holdTimer(backend, mode);
+        final var startNanos = System.nanoTime();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(final int status) {
+                final var holdNanos = System.nanoTime() - startNanos;
+                timer.record(holdNanos, TimeUnit.NANOSECONDS);
+                journal.record(LockEventType.RELEASE, processIdentifier, mode, -1, holdNanos,
+                        status == STATUS_COMMITTED ? "COMMITTED" : "ROLLED_BACK");
+            }
+        });
+    }
+
+    public void countTimeout(final String path, final String processIdentifier) {
+        counter(TIMEOUT_COUNTER, familyOf(processIdentifier).family, "path", path).increment();
+    }
+
+    /**
+     * Concurrent creation of the same lock record, which is resolved by a retry.
+     */
+    public void countCreationConflict(final String path, final String processIdentifier) {
+        counter(CREATION_CONFLICT_COUNTER, familyOf(processIdentifier).family, "path", path).increment();
+    }
+
+    /**
+     * @param role {@code master} checking its slaves again or {@code slave} retrying the barrier
+     */
+    public void countBarrierRepeat(final String role, final String processIdentifier) {
+        counter(BARRIER_REPEAT_COUNTER, familyOf(processIdentifier).family, "role", role).increment();
+        journal.record(LockEventType.BARRIER_REPEAT, processIdentifier, null, -1, -1, role);
+    }
+
+    /**
+     * Time from the start of the master till the barrier is either filled, or given up.
+     */
+    public void recordBarrierFill(final String processIdentifier, final String result, final long startNanos) {
+        final var fillNanos = System.nanoTime() - startNanos;
+        timer(BARRIER_FILL_TIMER, familyOf(processIdentifier).family, "result", result, "", "", "", "")
+                .record(fillNanos, TimeUnit.NANOSECONDS);
+        journal.record(LockEventType.BARRIER_FILL, processIdentifier, null, fillNanos, -1, result);
+    }
+
+    /**
+     * Time the participant of the barrier spends idle, waiting for the others.
+     */
+    public void recordBarrierWait(final String role, final String processIdentifier, final long startNanos) {
+        final var waitNanos = System.nanoTime() - startNanos;
+        timer(BARRIER_WAIT_TIMER, familyOf(processIdentifier).family, "role", role, "", "", "", "")
+                .record(waitNanos, TimeUnit.NANOSECONDS);
+        journal.record(LockEventType.BARRIER_WAIT, processIdentifier, null, waitNanos, -1, role);
+    }
+
+    private FamilyMeters familyOf(final String processIdentifier) {
+        final var familyLength = ProcessIdentifierUtils.familyLengthOf(processIdentifier);
+        if (familyLength == 0) {
+            return defaultFamily;
+        }
+        final var known = families;
+        for (final FamilyMeters meters : known) {
+            if (meters.family.length() == familyLength
+                    && processIdentifier.regionMatches(0, meters.family, 0, familyLength)) {
+                return meters;
+            }
+        }
+        if (known.length >= MAX_FAMILIES) {
+            return otherFamily;
+        }
+        return addFamily(processIdentifier.substring(0, familyLength));
+    }
+
+    private synchronized FamilyMeters addFamily(final String family) {
+        if (family.equals(defaultFamily.family)) {
+            return defaultFamily;
+        }
+        for (final FamilyMeters meters : families) {
+            if (meters.family.equals(family)) {
+                return meters;
+            }
+        }
+        if (families.length >= MAX_FAMILIES) {
+            return otherFamily;
+        }
+        final var added = new FamilyMeters(family);
+        final var extended = Arrays.copyOf(families, families.length + 1);
+        extended[families.length] = added;
+        families = extended;
+        return added;
+    }
+
+    /**
+     * Empty tag keys are skipped.
+     */
+    private Timer timer(final String name,
+                        final String family,
+                        final String key1, final String value1,
+                        final String key2, final String value2,
+                        final String key3, final String value3) {
+        final var key = new MeterKey(name, family, value1, value2, value3);
+        final var timer = timers.get(key);
+        if (timer != null) {
+            return timer;
+        }
+        return timers.computeIfAbsent(key, ignored -> {
+            final var builder = Timer.builder(name).tag("family", family);
+            if (!key1.isEmpty()) builder.tag(key1, value1);
+            if (!key2.isEmpty()) builder.tag(key2, value2);
+            if (!key3.isEmpty()) builder.tag(key3, value3);
+            return builder.register(registry);
+        });
+    }
+
+    private Counter counter(final String name, final String family, final String key, final String value) {
+        final var meterKey = new MeterKey(name, family, value, "", "");
+        final var counter = counters.get(meterKey);
+        if (counter != null) {
+            return counter;
+        }
+        return counters.computeIfAbsent(meterKey, ignored -> {
+            final var builder = Counter.builder(name).tag("family", family);
+            if (!key.isEmpty()) builder.tag(key, value);
+            return builder.register(registry);
+        });
+    }
+
+    private static record MeterKey(String name, String family, String value1, String value2, String value3) {
+    }
+
+    /**
+     * Timers of the lock paths of a single family, looked up by the backend, the mode and the result
+     * without building a key. Maps of the modes are filled up front, so only the timers are created on demand.
+     */
+    private final class FamilyMeters {
+        private final String family;
+        private final ConcurrentMap<String, Map<LockMode, ConcurrentMap<String, Timer>>> acquisitionTimers =
+                new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Map<LockMode, ConcurrentMap<String, Timer>>> holdTimers =
+                new ConcurrentHashMap<>();
+
+        private FamilyMeters(final String family) {
+            this.family = family;
+        }
+
+        Timer acquisitionTimer(final String backend, final LockMode mode, final String result) {
+            return timerOf(acquisitionTimers, ACQUISITION_TIMER, backend, mode, "result", result);
+        }
+
+        Timer holdTimer(final String backend, final LockMode mode) {
+            return timerOf(holdTimers, HOLD_TIMER, backend, mode, "", "");
+        }
+
+        /**
+         * @param resultKey empty for the timers without the result
+         */
+        private Timer timerOf(final ConcurrentMap<String, Map<LockMode, ConcurrentMap<String, Timer>>> timersPerBackend,
+                              final String name,
+                              final String backend,
+                              final LockMode mode,
+                              final String resultKey,
+                              final String result) {
+            final var timersOfMode = timersOf(timersPerBackend, backend).get(mode);
+            final var timer = timersOfMode.get(result);
+            if (timer != null) {
+                return timer;
+            }
+            return timersOfMode.computeIfAbsent(result, ignored ->
+                    timer(name, family, "backend", backend, "mode", mode.name(), resultKey, result)
+            );
+        }
+
+        private static Map<LockMode, ConcurrentMap<String, Timer>> timersOf(
+                final ConcurrentMap<String, Map<LockMode, ConcurrentMap<String, Timer>>> timersPerBackend,
+                final String backend
+        ) {
+            final var timersPerMode = timersPerBackend.get(backend);
+            if (timersPerMode != null) {
+                return timersPerMode;
+            }
+            return timersPerBackend.computeIfAbsent(backend, ignored -> {
+                final var created = new EnumMap<LockMode, ConcurrentMap<String, Timer>>(LockMode.class);
+                for (final LockMode mode : LockMode.values()) {
+                    created.put(mode, new ConcurrentHashMap<>());
+                }
+                return created;
+            });
+        }
+    }
+}
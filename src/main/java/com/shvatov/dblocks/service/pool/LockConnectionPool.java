@@ -0,0 +1,166 @@
+package com.shvatov.dblocks.service.pool;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.SneakyThrows;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+
+/**
+ * Connections of the lock infrastructure, kept apart from the ones of the business transactions.
+ * Lock rows and the steps of the barriers are written in short transactions of their own: taken from the same
+ * pool, they would make a thread holding a connection wait for another one, and once all the connections
+ * were held by such threads, none of them could proceed.
+ * <p>
+ * Each thread is allowed a single connection of this pool at a time and never waits for another one
+ * while holding it. A thread, which would need a second connection, fails immediately instead of
+ * waiting for it. Several short transactions, which must be run on the same connection,
+ * e.g. to keep a session-level lock between them, are run within {@link #executeOnPinnedConnection}.
+ * <p>
+ * Neither the pool nor its transaction manager are exposed as beans, so they do not replace
+ * the ones configured for the application.
+ */
+@Component
+public class LockConnectionPool {
+    private static final String POOL_NAME = "db-locks";
+
+    private final HikariDataSource dataSource;
+    private final DataSourceTransactionManager transactionManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionDefinition transactionDefinition =
+            new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRED);
+
+    public LockConnectionPool(final DataSourceProperties dataSourceProperties, final LockPoolProperties properties) {
+        this.dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName(POOL_NAME);
+        dataSource.setMaximumPoolSize(properties.getMaxSize());
+        dataSource.setConnectionTimeout(properties.getConnectionTimeout().toMillis());
+        properties.getDataSourceProperties().forEach(dataSource::addDataSourceProperty);
+        this.transactionManager = new DataSourceTransactionManager(dataSource);
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @PreDestroy
+    public void close() {
+        dataSource.close();
+    }
+
+    /**
+     * Template bound to the lock pool. Outside of {@link #execute}, {@link #process} and
+     * {@link #executeOnPinnedConnection} each statement borrows a connection of its own.
+     */
+    public JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    /**
+     * Whether a connection may be taken without waiting for it, as far as the pool knows at the moment of the call.
+     */
+    public boolean hasAvailableConnection() {
+        final var pool = dataSource.getHikariPoolMXBean();
+        // the pool is started by the first connection taken
+        return pool == null
+                || pool.getIdleConnections() > 0
+                || pool.getTotalConnections() < dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * Runs the action in a new transaction on a connection of the lock pool, independent from the transaction
+     * of the caller.
+     *
+     * @throws IllegalStateException if the current thread already holds a connection of the lock pool
+     *                               in a transaction, so the action would need a second one
+     */
+    @SneakyThrows
+    public <R> R execute(final Callable<R> action) {
+        checkConnectionBudget();
+        final var status = transactionManager.getTransaction(transactionDefinition);
+        final R result;
+        try {
+            result = action.call();
+        } catch (final Throwable exception) {
+            transactionManager.rollback(status);
+            throw exception;
+        }
+        transactionManager.commit(status);
+        return result;
+    }
+
+    public void process(final Runnable action) {
+        execute(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Keeps a single connection of the lock pool for the current thread, while the action is running.
+     * All the transactions of the action and the statements outside of them are run on this connection.
+     * Session-level advisory locks left by the action are released before the connection is returned
+     * to the pool, the connection is evicted, if they can not be.
+     */
+    @SneakyThrows
+    public <R> R executeOnPinnedConnection(final Callable<R> action) {
+        checkConnectionBudget();
+        if (TransactionSynchronizationManager.hasResource(dataSource)) {
+            return action.call(); // already pinned
+        }
+
+        final var holder = new ConnectionHolder(dataSource.getConnection());
+        TransactionSynchronizationManager.bindResource(dataSource, holder);
+        try {
+            return action.call();
+        } finally {
+            TransactionSynchronizationManager.unbindResource(dataSource);
+            release(holder.getConnection());
+        }
+    }
+
+    /**
+     * Connection of the pool kept by the caller outside of the transactions, e.g. for the session-level locks,
+     * which outlive the threads taking them. Closed by the caller or {@link #evict evicted}, if it has failed.
+     */
+    public Connection borrowConnection() throws SQLException {
+        checkConnectionBudget();
+        return dataSource.getConnection();
+    }
+
+    /**
+     * Closes the connection for real instead of returning it to the pool, so the database releases
+     * all of its session-level locks.
+     */
+    public void evict(final Connection connection) {
+        dataSource.evictConnection(connection);
+    }
+
+    private void release(final Connection connection) throws SQLException {
+        try (final var statement = connection.createStatement()) {
+            statement.execute("select pg_advisory_unlock_all()");
+        } catch (final SQLException exception) {
+            evict(connection);
+            return;
+        }
+        connection.close();
+    }
+
+    private void checkConnectionBudget() {
+        final var holder = (ConnectionHolder) TransactionSynchronizationManager.getResource(dataSource);
+        // set for the whole transaction, both by the transaction manager and by a statement joining a foreign one
+        if (holder != null && holder.isSynchronizedWithTransaction()) {
+            throw new IllegalStateException(
+                    "Thread \"%s\" already holds a connection of the lock pool in a transaction and would need another one"
+                            .formatted(Thread.currentThread().getName())
+            );
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.shvatov.dblocks.service.pool;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.pool")
+public class LockPoolProperties {
+    /**
+     * Max number of the connections of the lock infrastructure. Every participant of a barrier
+     * holds one of them while waiting, so should not be less than the barriers running on the node.
+     */
+    private int maxSize = 10;
+
+    /**
+     * Max time to wait for a free connection of the lock pool.
+     */
+    private Duration connectionTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Properties of the driver, same as {@code spring.datasource.hikari.data-source-properties}.
+     */
+    private Map<String, String> dataSourceProperties = new HashMap<>();
+}
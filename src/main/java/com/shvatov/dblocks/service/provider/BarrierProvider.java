@@ -0,0 +1,33 @@
+package com.shvatov.dblocks.service.provider;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Backend of the barriers: each participant waits, until {@code batchSize} participants
+ * of the same process have arrived, and then executes its action.
+ */
+public interface BarrierProvider {
+    <T> T lockAndExecuteBatch(final String processIdentifier,
+                              final int batchSize,
+                              final Callable<T> action) throws Exception;
+
+    <T> CompletableFuture<T> lockAndExecuteBatchAsync(final String processIdentifier,
+                                                      final int batchSize,
+                                                      final Callable<T> action);
+
+    /**
+     * Waits for the batch of the size allowed by the quorum, the action is told the size of the batch,
+     * which has been formed. Participant requesting another quorum than the one of the batch being formed
+     * for the process is rejected, as is the batch, which has not reached its quorum by the deadline.
+     *
+     * @throws IllegalStateException if the quorum is rejected or has not been reached
+     */
+    <T> T lockAndExecuteBatch(final String processIdentifier,
+                              final BarrierQuorum quorum,
+                              final BatchAction<T> action) throws Exception;
+
+    <T> CompletableFuture<T> lockAndExecuteBatchAsync(final String processIdentifier,
+                                                      final BarrierQuorum quorum,
+                                                      final BatchAction<T> action);
+}
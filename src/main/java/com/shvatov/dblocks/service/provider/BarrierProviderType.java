@@ -0,0 +1,22 @@
+package com.shvatov.dblocks.service.provider;
+
+import com.shvatov.dblocks.service.barrier.BarrierLockService;
+import com.shvatov.dblocks.service.memory.InMemoryBarrierService;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum BarrierProviderType {
+    /**
+     * Master and slave locks in the database, the participants may belong to different nodes.
+     */
+    DATABASE(BarrierLockService.class),
+
+    /**
+     * Participants of this JVM only, for the single-node deployments and the tests.
+     */
+    IN_MEMORY(InMemoryBarrierService.class);
+
+    private final Class<? extends BarrierProvider> providerClass;
+}
@@ -0,0 +1,37 @@
+package com.shvatov.dblocks.service.provider;
+
+import java.time.Duration;
+
+/**
+ * Batch the barrier waits for. Barrier is released as soon as {@code maxParticipants} have arrived,
+ * or once {@code maxWait} has passed since the first of them, if at least {@code minParticipants} have arrived
+ * by then. Otherwise the barrier fails for all its participants.
+ */
+public record BarrierQuorum(int minParticipants, int maxParticipants, Duration maxWait) {
+    public BarrierQuorum {
+        if (minParticipants < 1 || minParticipants > maxParticipants) {
+            throw new IllegalArgumentException(
+                    "Expected 1 <= minParticipants <= maxParticipants, but was %d and %d"
+                            .formatted(minParticipants, maxParticipants)
+            );
+        }
+        if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException("Max wait must not be negative, but was " + maxWait);
+        }
+    }
+
+    /**
+     * Barrier released only when exactly {@code batchSize} participants have arrived.
+     */
+    public static BarrierQuorum exactly(final int batchSize, final Duration maxWait) {
+        return new BarrierQuorum(batchSize, batchSize, maxWait);
+    }
+
+    public boolean isReachedBy(final int participants) {
+        return participants >= minParticipants;
+    }
+
+    public boolean isFilledBy(final int participants) {
+        return participants >= maxParticipants;
+    }
+}
@@ -0,0 +1,9 @@
+package com.shvatov.dblocks.service.provider;
+
+/**
+ * Action of the participant of the barrier, which is told the number of the participants of its batch.
+ */
+@FunctionalInterface
+public interface BatchAction<T> {
+    T execute(final int batchSize) throws Exception;
+}
@@ -0,0 +1,28 @@
+package com.shvatov.dblocks.service.provider;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Exposes the backends selected by {@link LockProviderProperties} as the primary providers, so the callers
+ * depending on {@link ReadWriteLockProvider} or {@link BarrierProvider} switch the backend by configuration.
+ * The services of all the backends stay available by their own classes.
+ */
+@Configuration
+public class LockProviderConfiguration {
+    @Bean
+    @Primary
+    public ReadWriteLockProvider readWriteLockProvider(final LockProviderProperties properties,
+                                                       final ApplicationContext context) {
+        return context.getBean(properties.getReadWrite().getProviderClass());
+    }
+
+    @Bean
+    @Primary
+    public BarrierProvider barrierProvider(final LockProviderProperties properties,
+                                           final ApplicationContext context) {
+        return context.getBean(properties.getBarrier().getProviderClass());
+    }
+}
@@ -0,0 +1,27 @@
+package com.shvatov.dblocks.service.provider;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.provider")
+public class LockProviderProperties {
+    /**
+     * Backend injected as the {@link ReadWriteLockProvider}.
+     */
+    private ReadWriteLockProviderType readWrite = ReadWriteLockProviderType.ROW;
+
+    /**
+     * Backend injected as the {@link BarrierProvider}.
+     */
+    private BarrierProviderType barrier = BarrierProviderType.DATABASE;
+
+    /**
+     * Max time a participant of the in-memory barrier waits for the rest of the batch.
+     */
+    private Duration inMemoryBarrierTimeout = Duration.ofMinutes(1);
+}
@@ -0,0 +1,49 @@
+package com.shvatov.dblocks.service.provider;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+
+import java.time.Duration;
+import java.util.Collection;
+
+/**
+ * Backend of the read/write locks. Locks are held until the transaction of the caller completes,
+ * so all the methods require an existing transaction.
+ */
+public interface ReadWriteLockProvider {
+    void acquireExclusiveLock(final String processIdentifier);
+
+    void acquireSharedLock(final String processIdentifier);
+
+    /**
+     * Acquires the lock, which does not block the readers, but excludes the other holders of the update intent
+     * and the exclusive ones. Its holder is the only one, who may later {@link #upgrade} the lock without a deadlock.
+     */
+    void acquireUpdateIntentLock(final String processIdentifier);
+
+    /**
+     * Acquires the lock only if it is not held by any other transaction at the moment of the call.
+     */
+    LockAcquisitionResult tryAcquire(final String processIdentifier, final LockMode mode);
+
+    /**
+     * Waits for the lock no longer than the provided timeout. Zero or negative timeout is the same as
+     * {@link #tryAcquire(String, LockMode)}.
+     */
+    LockAcquisitionResult acquire(final String processIdentifier, final LockMode mode, final Duration timeout);
+
+    /**
+     * Acquires the locks of all the processes with the same mode. The locks are taken in the canonical order
+     * regardless of the order of the collection, so the callers locking overlapping sets do not deadlock.
+     */
+    void acquireAll(final Collection<String> processIdentifiers, final LockMode mode);
+
+    /**
+     * Acquires the exclusive mode of the lock already held by the transaction, waiting for the readers to leave
+     * no longer than the provided timeout. Upgrade of the {@link LockMode#UPDATE_INTENT} never deadlocks,
+     * while concurrent upgrades of the {@link LockMode#SHARED} locks may.
+     *
+     * @throws IllegalStateException if the lock is not held by the transaction
+     */
+    LockAcquisitionResult upgrade(final String processIdentifier, final Duration timeout);
+}
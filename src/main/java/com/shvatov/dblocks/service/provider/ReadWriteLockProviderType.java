@@ -0,0 +1,34 @@
+package com.shvatov.dblocks.service.provider;
+
+import com.shvatov.dblocks.service.memory.InMemoryReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.CoalescingReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.PgReadWriteLockService;
+import com.shvatov.dblocks.service.readwrite.ReadWriteLockService;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum ReadWriteLockProviderType {
+    /**
+     * Rows of {@code db_read_write_lock} locked with {@code select ... for update / for share}.
+     */
+    ROW(ReadWriteLockService.class),
+
+    /**
+     * Transaction-level advisory locks of Postgres.
+     */
+    ADVISORY(PgReadWriteLockService.class),
+
+    /**
+     * Row locks, which the threads of this JVM coordinate for in memory first.
+     */
+    COALESCING(CoalescingReadWriteLockService.class),
+
+    /**
+     * Locks of this JVM only, for the single-node deployments and the tests.
+     */
+    IN_MEMORY(InMemoryReadWriteLockService.class);
+
+    private final Class<? extends ReadWriteLockProvider> providerClass;
+}
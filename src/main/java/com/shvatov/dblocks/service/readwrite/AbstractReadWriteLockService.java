@@ -1,7 +1,11 @@
 package com.shvatov.dblocks.service.readwrite;
 
 
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
 import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.provider.ReadWriteLockProvider;
+import com.shvatov.dblocks.utils.JdbcTemplateUtils;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
@@ -9,22 +13,225 @@ import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Locks already held by the current transaction in the same or in a stronger mode are acquired again
+ * without going to the database, the stronger mode is requested from the database as usual.
+ * Locks of the {@link FairnessPolicy#FAIR} processes are requested through the {@link LockTurnstile}, unless
+ * the transaction already holds the lock of the process: a writer waiting in the turnstile may wait for this very
+ * transaction in the database, so queueing behind it would never end, while Postgres does not see the wait.
+ */
 @Slf4j
 @RequiredArgsConstructor
-public abstract class AbstractReadWriteLockService {
+public abstract class AbstractReadWriteLockService implements ReadWriteLockProvider {
     protected static final String PROCESS_IDENTIFIER_PARAM_NAME = "processIdentifier";
 
+    private static final String TIMEOUT_PATH = "read_write";
+
+    /**
+     * Same for all the backends, so the services locking the same rows never take them in the opposite orders.
+     */
+    private static final Comparator<String> CANONICAL_ORDER = Comparator.naturalOrder();
+
     protected final NamedParameterJdbcOperations jdbcTemplate;
+    protected final LockMetrics lockMetrics;
+    protected final LockTurnstile lockTurnstile;
+
+    private final String backend = getClass().getSimpleName();
+
+    /**
+     * Callback of the {@link LockTurnstile} created once, so the fair acquisitions do not allocate it on each call.
+     */
+    private final LockTurnstile.Acquisition turnstileAcquisition = this::acquireWithin;
 
+    @Override
     @Transactional(propagation = Propagation.MANDATORY, isolation = Isolation.READ_COMMITTED)
     public void acquireExclusiveLock(final String processIdentifier) {
-        doAcquireLock(processIdentifier, LockMode.EXCLUSIVE);
+        acquireMeasured(processIdentifier, LockMode.EXCLUSIVE, null);
     }
 
+    @Override
     @Transactional(propagation = Propagation.MANDATORY, isolation = Isolation.READ_COMMITTED)
     public void acquireSharedLock(final String processIdentifier) {
-        doAcquireLock(processIdentifier, LockMode.SHARED);
+        acquireMeasured(processIdentifier, LockMode.SHARED, null);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY, isolation = Isolation.READ_COMMITTED)
+    public void acquireUpdateIntentLock(final String processIdentifier) {
+        acquireMeasured(processIdentifier, LockMode.UPDATE_INTENT, null);
+    }
+
+    /**
+     * Acquires the lock only if it is not held by any other transaction at the moment of the call.
+     */
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY, isolation = Isolation.READ_COMMITTED)
+    public LockAcquisitionResult tryAcquire(final String processIdentifier, final LockMode mode) {
+        return acquireMeasured(processIdentifier, mode, Duration.ZERO);
+    }
+
+    /**
+     * Waits for the lock no longer than the provided timeout. Zero or negative timeout is the same as
+     * {@link #tryAcquire(String, LockMode)}. The transaction of the caller stays usable after the timeout.
+     */
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY, isolation = Isolation.READ_COMMITTED)
+    public LockAcquisitionResult acquire(final String processIdentifier, final LockMode mode, final Duration timeout) {
+        return acquireMeasured(processIdentifier, mode, timeout.isNegative() ? Duration.ZERO : timeout);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY, isolation = Isolation.READ_COMMITTED)
+    public void acquireAll(final Collection<String> processIdentifiers, final LockMode mode) {
+        final var startNanos = System.nanoTime();
+        final var transactionLocks = TransactionLocks.current(this);
+        final var sortedIdentifiers = processIdentifiers.stream()
+                .distinct()
+                .filter(processIdentifier -> {
+                    if (transactionLocks == null || !transactionLocks.holds(processIdentifier, mode)) {
+                        return true;
+                    }
+                    lockMetrics.recordAcquisition(backend, processIdentifier, mode, LockMetrics.REENTERED_RESULT, startNanos);
+                    return false;
+                })
+                .sorted(CANONICAL_ORDER)
+                .toList();
+        if (sortedIdentifiers.isEmpty()) {
+            return;
+        }
+
+        try {
+            doAcquireAllLocks(sortedIdentifiers, mode);
+        } catch (final RuntimeException exception) {
+            sortedIdentifiers.forEach(processIdentifier ->
+                    lockMetrics.recordAcquisition(backend, processIdentifier, mode, LockMetrics.FAILED_RESULT, startNanos)
+            );
+            throw exception;
+        }
+        for (final String processIdentifier : sortedIdentifiers) {
+            if (transactionLocks != null) {
+                transactionLocks.add(processIdentifier, mode);
+            }
+            lockMetrics.recordAcquisition(
+                    backend, processIdentifier, mode, LockAcquisitionResult.ACQUIRED.name(), startNanos
+            );
+            lockMetrics.recordHoldUntilCompletion(backend, processIdentifier, mode);
+        }
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY, isolation = Isolation.READ_COMMITTED)
+    public LockAcquisitionResult upgrade(final String processIdentifier, final Duration timeout) {
+        heldMode(processIdentifier);
+        return acquire(processIdentifier, LockMode.EXCLUSIVE, timeout);
     }
 
     protected abstract void doAcquireLock(final String processIdentifier, final LockMode mode);
+
+    protected abstract boolean doTryAcquireLock(final String processIdentifier, final LockMode mode);
+
+    protected boolean doAcquireLock(final String processIdentifier, final LockMode mode, final Duration timeout) {
+        return JdbcTemplateUtils.withLockTimeout(jdbcTemplate.getJdbcOperations(), timeout, () -> {
+            doAcquireLock(processIdentifier, mode);
+            return true;
+        });
+    }
+
+    /**
+     * Acquires the locks one by one, the identifiers are already sorted by {@link #CANONICAL_ORDER}.
+     */
+    protected void doAcquireAllLocks(final List<String> processIdentifiers, final LockMode mode) {
+        processIdentifiers.forEach(processIdentifier -> doAcquireLock(processIdentifier, mode));
+    }
+
+    /**
+     * Locks of the current transaction taken through this service, {@code null} without a transaction.
+     */
+    TransactionLocks currentTransactionLocks() {
+        return TransactionLocks.current(this);
+    }
+
+    private LockMode heldMode(final String processIdentifier) {
+        final var transactionLocks = TransactionLocks.current(this);
+        final var heldMode = transactionLocks == null ? null : transactionLocks.heldMode(processIdentifier);
+        if (heldMode == null) {
+            throw new IllegalStateException(
+                    "Lock for the process \"%s\" is not held by the transaction".formatted(processIdentifier)
+            );
+        }
+        return heldMode;
+    }
+
+    private static boolean holdsAny(final TransactionLocks transactionLocks, final String processIdentifier) {
+        return transactionLocks != null && transactionLocks.heldMode(processIdentifier) != null;
+    }
+
+    /**
+     * @param timeout {@code null} to wait for the lock as long as required, zero to only try it
+     */
+    private LockAcquisitionResult acquireMeasured(final String processIdentifier,
+                                                  final LockMode mode,
+                                                  final Duration timeout) {
+        final var startNanos = System.nanoTime();
+        final var transactionLocks = TransactionLocks.current(this);
+        if (transactionLocks != null && transactionLocks.holds(processIdentifier, mode)) {
+            lockMetrics.recordAcquisition(backend, processIdentifier, mode, LockMetrics.REENTERED_RESULT, startNanos);
+            return LockAcquisitionResult.ACQUIRED;
+        }
+
+        final LockAcquisitionResult result;
+        try {
+            result = lockTurnstile.isFair(processIdentifier) && !holdsAny(transactionLocks, processIdentifier)
+                    ? lockTurnstile.pass(processIdentifier, mode, timeout, turnstileAcquisition)
+                    : acquireWithin(processIdentifier, mode, timeout);
+        } catch (final RuntimeException exception) {
+            lockMetrics.recordAcquisition(backend, processIdentifier, mode, LockMetrics.FAILED_RESULT, startNanos);
+            throw exception;
+        }
+
+        lockMetrics.recordAcquisition(backend, processIdentifier, mode, result.name(), startNanos);
+        if (result == LockAcquisitionResult.ACQUIRED) {
+            if (transactionLocks != null) {
+                transactionLocks.add(processIdentifier, mode);
+            }
+            lockMetrics.recordHoldUntilCompletion(backend, processIdentifier, mode);
+        } else if (result == LockAcquisitionResult.TIMED_OUT) {
+            lockMetrics.countTimeout(TIMEOUT_PATH, processIdentifier);
+        }
+        return result;
+    }
+
+    /**
+     * Acquires the lock from the database without the metrics, the turnstile and the locks of the transaction,
+     * for the services delegating to this one, which do all of that themselves.
+     *
+     * @param timeout {@code null} to wait for the lock as long as required, zero to only try it
+     */
+    protected LockAcquisitionResult acquireUnmeasured(final String processIdentifier,
+                                                      final LockMode mode,
+                                                      final Duration timeout) {
+        return acquireWithin(processIdentifier, mode, timeout);
+    }
+
+    private LockAcquisitionResult acquireWithin(final String processIdentifier,
+                                                final LockMode mode,
+                                                final Duration timeout) {
+        if (timeout == null) {
+            doAcquireLock(processIdentifier, mode);
+            return LockAcquisitionResult.ACQUIRED;
+        }
+        if (timeout.isZero()) {
+            return doTryAcquireLock(processIdentifier, mode)
+                    ? LockAcquisitionResult.ACQUIRED
+                    : LockAcquisitionResult.REJECTED;
+        }
+        return doAcquireLock(processIdentifier, mode, timeout)
+                ? LockAcquisitionResult.ACQUIRED
+                : LockAcquisitionResult.TIMED_OUT;
+    }
 }
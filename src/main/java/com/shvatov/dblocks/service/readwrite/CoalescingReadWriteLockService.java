@@ -0,0 +1,242 @@
+package com.shvatov.dblocks.service.readwrite;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.IllegalTransactionStateException;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets the readers of the same process on this node share a single database lock held by a dedicated holder
+ * transaction. Reader, which finds no hold to join, locks in its own transaction and starts the holder for the
+ * readers coming after it. Holder transactions run on the connections of the {@link LockConnectionPool}, at most
+ * {@link ReadWriteLockProperties#getCoalescingMaxHolds()} of them at a time: readers lock in their own
+ * transactions without coalescing, once all of them are taken or the lock pool has no free connection. Hold accepts new readers for {@link ReadWriteLockProperties#getCoalescingHoldTime()}
+ * or till a writer of the node arrives, then it is released as soon as its readers complete, so the writers
+ * of the other nodes are not kept out by the readers joining it one after another.
+ * <p>
+ * Threads never wait for each other in the JVM, all the waits happen in the database, where Postgres detects
+ * the deadlocks. Writers, update intents and the shared locks of the {@link FairnessPolicy#FAIR} processes
+ * go straight to the database. Reader, which locked in its own transaction, upgrades its lock through the database
+ * as well, while the joined ones can not: the holder would wait for them to complete.
+ */
+@Slf4j
+@Service
+public class CoalescingReadWriteLockService extends AbstractReadWriteLockService {
+    private final AbstractReadWriteLockService delegate;
+
+    /**
+     * Same backend as the delegate, bound to the lock pool, so the holder transactions do not take
+     * the connections of the business ones.
+     */
+    private final AbstractReadWriteLockService holderDelegate;
+    private final LockConnectionPool lockConnectionPool;
+    private final long holdTimeNanos;
+    private final ConcurrentMap<String, SharedHold> sharedHolds = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor holderExecutor;
+
+    public CoalescingReadWriteLockService(final NamedParameterJdbcOperations jdbcTemplate,
+                                          final ReadWriteLockService delegate,
+                                          final LockConnectionPool lockConnectionPool,
+                                          final ReadWriteLockProperties properties,
+                                          final LockMetrics lockMetrics,
+                                          final LockTurnstile lockTurnstile) {
+        super(jdbcTemplate, lockMetrics, lockTurnstile);
+        this.delegate = delegate;
+        this.holderDelegate = new ReadWriteLockService(
+                new NamedParameterJdbcTemplate(lockConnectionPool.getJdbcTemplate()),
+                lockConnectionPool,
+                lockMetrics,
+                lockTurnstile
+        );
+        this.lockConnectionPool = lockConnectionPool;
+        this.holdTimeNanos = properties.getCoalescingHoldTime().toNanos();
+        // no queue, the holder started late is of no use to the readers
+        this.holderExecutor = new ThreadPoolExecutor(
+                0, properties.getCoalescingMaxHolds(),
+                60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                runnable -> {
+                    final var thread = new Thread(runnable, "db-lock-shared-holder");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        holderExecutor.shutdownNow();
+    }
+
+    @Override
+    protected void doAcquireLock(final String processIdentifier, final LockMode mode) {
+        acquireLock(processIdentifier, mode, null);
+    }
+
+    @Override
+    protected boolean doTryAcquireLock(final String processIdentifier, final LockMode mode) {
+        return acquireLock(processIdentifier, mode, Duration.ZERO);
+    }
+
+    @Override
+    protected boolean doAcquireLock(final String processIdentifier, final LockMode mode, final Duration timeout) {
+        return acquireLock(processIdentifier, mode, timeout);
+    }
+
+    /**
+     * @param timeout {@code null} to wait for the lock as long as required
+     */
+    private boolean acquireLock(final String processIdentifier, final LockMode mode, final Duration timeout) {
+        final var transactionLocks = currentTransactionLocks();
+        if (transactionLocks == null) {
+            throw new IllegalTransactionStateException(
+                    "Lock for the process \"%s\" requires an active transaction".formatted(processIdentifier)
+            );
+        }
+        // locks held in the same or in a stronger mode never get here, the owned shared ones are upgraded by the delegate
+        if (transactionLocks.isJoined(processIdentifier)) {
+            throw new IllegalStateException(
+                    "Shared lock for the process \"%s\" is held by the node, it can not be upgraded"
+                            .formatted(processIdentifier)
+            );
+        }
+        if (mode != LockMode.SHARED) {
+            // the hold of the node stops accepting the readers, so the writer waits only for the current ones
+            final var hold = sharedHolds.remove(processIdentifier);
+            if (hold != null) {
+                hold.close();
+            }
+            return acquireDelegateLock(processIdentifier, mode, timeout);
+        }
+        // the shared hold of the node would keep the writers of the other nodes waiting for a fair process
+        if (lockTurnstile.isFair(processIdentifier)) {
+            return acquireDelegateLock(processIdentifier, mode, timeout);
+        }
+
+        final var hold = sharedHolds.get(processIdentifier);
+        if (hold != null && hold.join()) {
+            transactionLocks.join(processIdentifier);
+            transactionLocks.onCompletion(hold.leaveOnCompletion);
+            return true;
+        }
+        if (!acquireDelegateLock(processIdentifier, mode, timeout)) {
+            return false;
+        }
+        startSharedHold(processIdentifier);
+        return true;
+    }
+
+    /**
+     * Acquisition is measured by this service, so the delegate does not record it once more.
+     *
+     * @param timeout {@code null} to wait for the lock as long as required
+     */
+    private boolean acquireDelegateLock(final String processIdentifier, final LockMode mode, final Duration timeout) {
+        return delegate.acquireUnmeasured(processIdentifier, mode, timeout) == LockAcquisitionResult.ACQUIRED;
+    }
+
+    private void startSharedHold(final String processIdentifier) {
+        if (!lockConnectionPool.hasAvailableConnection()) {
+            log.debug("Lock pool is exhausted, shared lock for the process \"{}\" is not coalesced", processIdentifier);
+            return;
+        }
+        final var started = new SharedHold();
+        if (sharedHolds.putIfAbsent(processIdentifier, started) != null) {
+            return;
+        }
+        log.debug("Acquiring shared lock for the process \"{}\" on behalf of this node", processIdentifier);
+        try {
+            holderExecutor.execute(() -> holdSharedLock(processIdentifier, started));
+        } catch (final RejectedExecutionException exception) {
+            log.debug("All the holders are busy, shared lock for the process \"{}\" is not coalesced", processIdentifier);
+            sharedHolds.remove(processIdentifier, started);
+        }
+    }
+
+    private void holdSharedLock(final String processIdentifier, final SharedHold hold) {
+        try {
+            lockConnectionPool.process(() -> {
+                holderDelegate.acquireUnmeasured(processIdentifier, LockMode.SHARED, null);
+                hold.acquired.complete(null);
+                hold.awaitRelease(System.nanoTime() + holdTimeNanos);
+            });
+        } catch (final Throwable exception) {
+            log.warn("Shared lock for the process \"{}\" has not been held for the node", processIdentifier, exception);
+            hold.close();
+            hold.acquired.completeExceptionally(exception);
+        } finally {
+            sharedHolds.remove(processIdentifier, hold);
+        }
+    }
+
+    /**
+     * Shared lock held by the holder transaction for the readers, who joined it.
+     */
+    private static final class SharedHold {
+        private final CompletableFuture<Void> acquired = new CompletableFuture<>();
+
+        /**
+         * Registered by each joined reader, created once per hold instead of once per reader.
+         */
+        private final Runnable leaveOnCompletion = this::leave;
+        private int readers; // guarded by this
+        private boolean open = true; // guarded by this
+
+        /**
+         * @return {@code false}, if the lock is not held yet or does not accept the readers any more
+         */
+        synchronized boolean join() {
+            if (!open || !acquired.isDone() || acquired.isCompletedExceptionally()) {
+                return false;
+            }
+            readers++;
+            return true;
+        }
+
+        synchronized void leave() {
+            if (--readers == 0) {
+                notifyAll();
+            }
+        }
+
+        synchronized void close() {
+            open = false;
+            notifyAll();
+        }
+
+        /**
+         * Accepts the readers till the close time or till it is closed, then waits for the joined ones to leave.
+         */
+        synchronized void awaitRelease(final long closeAtNanos) {
+            try {
+                var left = closeAtNanos - System.nanoTime();
+                while (open && left > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                    left = closeAtNanos - System.nanoTime();
+                }
+                open = false;
+                while (readers > 0) {
+                    wait();
+                }
+            } catch (final InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Holder of the shared lock has been interrupted", exception);
+            }
+        }
+    }
+}
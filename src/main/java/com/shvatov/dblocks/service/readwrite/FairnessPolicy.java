@@ -0,0 +1,18 @@
+package com.shvatov.dblocks.service.readwrite;
+
+/**
+ * Order, in which the writers waiting for the lock of a process are served against its readers.
+ */
+public enum FairnessPolicy {
+    /**
+     * Readers overtake a waiting writer as long as the lock is held in the shared mode only,
+     * so under a steady stream of the readers the writer may wait indefinitely.
+     */
+    NONE,
+
+    /**
+     * Threads of the node pass a FIFO turnstile of the process, the row locks are additionally guarded
+     * by an advisory gate of the process, so the readers arriving after a waiting writer queue behind it.
+     */
+    FAIR
+}
@@ -0,0 +1,115 @@
+package com.shvatov.dblocks.service.readwrite;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * FIFO queue of the threads of this node acquiring the locks of the same {@link FairnessPolicy#FAIR} process.
+ * Writer keeps its place in the queue, while it waits for the lock in the database, readers only pass through it.
+ * So the readers arriving after a waiting writer wait for it to get the lock, and the writers are served
+ * in the order of their arrival. Turnstiles exist only while there are threads in them.
+ */
+@Component
+public class LockTurnstile {
+    private final ReadWriteLockProperties properties;
+    private final ConcurrentMap<String, Turnstile> turnstiles = new ConcurrentHashMap<>();
+
+    public LockTurnstile(final ReadWriteLockProperties properties) {
+        this.properties = properties;
+    }
+
+    public boolean isFair(final String processIdentifier) {
+        return properties.isFair(processIdentifier);
+    }
+
+    /**
+     * Runs the acquisition of the lock of the fair process in its turnstile.
+     *
+     * @param timeout     {@code null} to wait as long as required, zero to acquire the lock only if it is free
+     * @param acquisition acquires the lock within the timeout left after passing the turnstile
+     */
+    public LockAcquisitionResult pass(final String processIdentifier,
+                                      final LockMode mode,
+                                      final Duration timeout,
+                                      final Acquisition acquisition) {
+        final var deadline = timeout == null ? 0L : System.nanoTime() + timeout.toNanos();
+        final var turnstile = enter(processIdentifier);
+        try {
+            final var lock = mode == LockMode.EXCLUSIVE ? turnstile.queue.writeLock() : turnstile.queue.readLock();
+            final var result = lock(lock, timeout, deadline);
+            if (result != LockAcquisitionResult.ACQUIRED) {
+                return result;
+            }
+            if (mode != LockMode.EXCLUSIVE) {
+                lock.unlock();
+                return acquisition.acquire(processIdentifier, mode, remaining(timeout, deadline));
+            }
+            try {
+                return acquisition.acquire(processIdentifier, mode, remaining(timeout, deadline));
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            leave(processIdentifier, turnstile);
+        }
+    }
+
+    private Turnstile enter(final String processIdentifier) {
+        return turnstiles.compute(processIdentifier, (ignored, existing) -> {
+            final var result = existing == null ? new Turnstile() : existing;
+            result.threads++;
+            return result;
+        });
+    }
+
+    private void leave(final String processIdentifier, final Turnstile turnstile) {
+        turnstiles.computeIfPresent(processIdentifier, (ignored, existing) ->
+                existing != turnstile || --existing.threads > 0 ? existing : null
+        );
+    }
+
+    /**
+     * Untimed {@link Lock#tryLock()} barges ahead of the queue, so even the attempts without waiting
+     * use the timed one.
+     */
+    private static LockAcquisitionResult lock(final Lock lock, final Duration timeout, final long deadline) {
+        if (timeout == null) {
+            lock.lock();
+            return LockAcquisitionResult.ACQUIRED;
+        }
+        try {
+            if (lock.tryLock(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return LockAcquisitionResult.ACQUIRED;
+            }
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        return timeout.isZero() ? LockAcquisitionResult.REJECTED : LockAcquisitionResult.TIMED_OUT;
+    }
+
+    private static Duration remaining(final Duration timeout, final long deadline) {
+        if (timeout == null || timeout.isZero()) {
+            return timeout;
+        }
+        // the turnstile has taken the whole timeout, the database is still given a chance
+        return Duration.ofNanos(Math.max(1L, deadline - System.nanoTime()));
+    }
+
+    @FunctionalInterface
+    public interface Acquisition {
+        LockAcquisitionResult acquire(final String processIdentifier, final LockMode mode, final Duration timeout);
+    }
+
+    private static final class Turnstile {
+        private final ReentrantReadWriteLock queue = new ReentrantReadWriteLock(true);
+        private int threads; // guarded by the map
+    }
+}
@@ -1,33 +1,195 @@
 package com.shvatov.dblocks.service.readwrite;
 
 import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKey;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKeyStrategy;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKeyVerifier;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.stereotype.Service;
 
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Transaction-level advisory locks. Update intent is an exclusive lock of the {@link AdvisoryLockKey#intentKey()}
+ * taken together with the shared lock of the key itself, so the readers proceed, while the other intents wait.
+ * Exclusive lock of the key does not need the intent key: it waits for the shared lock of the intent holder anyway.
+ * Postgres queues the requests of the shared locks behind the waiting exclusive ones, so the advisory locks
+ * need no gate of their own to be {@link FairnessPolicy#FAIR}.
+ */
 @Slf4j
 @Service
 public class PgReadWriteLockService extends AbstractReadWriteLockService {
-    public PgReadWriteLockService(final NamedParameterJdbcOperations jdbcTemplate) {
-        super(jdbcTemplate);
+    /**
+     * Failed attempt to take the update intent is rolled back to it, so it leaves no half of the intent held.
+     */
+    private static final String INTENT_SAVEPOINT = "db_lock_intent";
+
+    private final AdvisoryLockKeyStrategy keyStrategy;
+    private final AdvisoryLockKeyVerifier keyVerifier;
+
+    /**
+     * Calls of the lock functions built once per mode, so nothing is formatted on the acquisition path.
+     */
+    private final Map<LockMode, String> lockSql = new EnumMap<>(LockMode.class);
+    private final Map<LockMode, String> tryLockSql = new EnumMap<>(LockMode.class);
+
+    public PgReadWriteLockService(final NamedParameterJdbcOperations jdbcTemplate,
+                                  final AdvisoryLockKeyStrategy keyStrategy,
+                                  final AdvisoryLockKeyVerifier keyVerifier,
+                                  final LockMetrics lockMetrics,
+                                  final LockTurnstile lockTurnstile) {
+        super(jdbcTemplate, lockMetrics, lockTurnstile);
+        this.keyStrategy = keyStrategy;
+        this.keyVerifier = keyVerifier;
+        for (final LockMode mode : LockMode.values()) {
+            lockSql.put(mode, "select " + lockFunctionCall(mode.getPgLockFunction(), keyStrategy.isNamespaced()));
+            tryLockSql.put(mode, "select " + lockFunctionCall(mode.getPgTryLockFunction(), keyStrategy.isNamespaced()));
+        }
+        // intent is locked first, the readers never wait for it; intent keys are always namespaced
+        lockSql.put(
+                LockMode.UPDATE_INTENT,
+                "select %s, %s".formatted(
+                        lockFunctionCall(LockMode.EXCLUSIVE.getPgLockFunction(), true),
+                        lockFunctionCall(LockMode.UPDATE_INTENT.getPgLockFunction(), keyStrategy.isNamespaced())
+                )
+        );
+        tryLockSql.put(
+                LockMode.UPDATE_INTENT,
+                "select %s and %s".formatted(
+                        lockFunctionCall(LockMode.EXCLUSIVE.getPgTryLockFunction(), true),
+                        lockFunctionCall(LockMode.UPDATE_INTENT.getPgTryLockFunction(), keyStrategy.isNamespaced())
+                )
+        );
     }
 
     @Override
     protected void doAcquireLock(final String processIdentifier, final LockMode mode) {
-        log.info(
-                "Attempting to acquire lock for the process with id = {} with mode = {} using pg procedures",
-                processIdentifier, mode
+        log.debug("Attempting to acquire lock for the process \"{}\" with mode = {} using pg procedures",
+                processIdentifier, mode);
+        final var key = keyStrategy.keyOf(processIdentifier);
+        keyVerifier.verify(processIdentifier, key);
+        jdbcTemplate.getJdbcOperations().query(lockSql.get(mode), ps -> setKeys(ps, mode, key), ResultSet::next);
+    }
+
+    @Override
+    protected boolean doTryAcquireLock(final String processIdentifier, final LockMode mode) {
+        log.debug("Attempting to acquire lock for the process \"{}\" with mode = {} without waiting",
+                processIdentifier, mode);
+        final var key = keyStrategy.keyOf(processIdentifier);
+        keyVerifier.verify(processIdentifier, key);
+        if (mode != LockMode.UPDATE_INTENT) {
+            return tryLock(mode, key);
+        }
+
+        final var jdbcOperations = jdbcTemplate.getJdbcOperations();
+        jdbcOperations.execute("savepoint " + INTENT_SAVEPOINT);
+        final var acquired = tryLock(mode, key);
+        if (!acquired) {
+            jdbcOperations.execute("rollback to savepoint " + INTENT_SAVEPOINT);
+        }
+        jdbcOperations.execute("release savepoint " + INTENT_SAVEPOINT);
+        return acquired;
+    }
+
+    private boolean tryLock(final LockMode mode, final AdvisoryLockKey key) {
+        return Boolean.TRUE.equals(
+                jdbcTemplate.getJdbcOperations().query(
+                        tryLockSql.get(mode),
+                        ps -> setKeys(ps, mode, key),
+                        rs -> rs.next() && rs.getBoolean(1)
+                )
         );
-        jdbcTemplate.execute(
-                "select %s(:%s)".formatted(
-                        mode.getPgLockFunction(),
-                        PROCESS_IDENTIFIER_PARAM_NAME
-                ),
-                new MapSqlParameterSource().addValue(PROCESS_IDENTIFIER_PARAM_NAME, processIdentifier.hashCode()),
-                PreparedStatement::execute
+    }
+
+    /**
+     * Acquires all the locks in a single statement, which calls the lock function for each key
+     * of the array. Keys are sorted by their value, identifiers sharing the same key are locked once.
+     * Intents of all the keys are locked by a statement of their own before the keys.
+     */
+    @Override
+    protected void doAcquireAllLocks(final List<String> processIdentifiers, final LockMode mode) {
+        log.debug("Attempting to acquire locks for {} processes with mode = {} using pg procedures",
+                processIdentifiers.size(), mode);
+        final var keys = processIdentifiers.stream()
+                .map(processIdentifier -> {
+                    final var key = keyStrategy.keyOf(processIdentifier);
+                    keyVerifier.verify(processIdentifier, key);
+                    return key;
+                })
+                .distinct()
+                .sorted(Comparator.comparingLong(AdvisoryLockKey::packedKey))
+                .toList();
+
+        if (mode == LockMode.UPDATE_INTENT) {
+            lockAll(
+                    keys.stream()
+                            .map(AdvisoryLockKey::intentKey)
+                            .sorted(Comparator.comparingLong(AdvisoryLockKey::packedKey))
+                            .toList(),
+                    LockMode.EXCLUSIVE.getPgLockFunction()
+            );
+        }
+        lockAll(keys, mode.getPgLockFunction());
+    }
+
+    private void lockAll(final List<AdvisoryLockKey> keys, final String lockFunction) {
+        if (keys.get(0).namespaced()) {
+            jdbcTemplate.getJdbcOperations().execute(
+                    """
+                            select %s(lock_namespace, lock_key)
+                            from unnest(?::int[], ?::int[]) as keys(lock_namespace, lock_key)"""
+                            .formatted(lockFunction),
+                    (PreparedStatement ps) -> {
+                        final var namespaces = keys.stream().map(AdvisoryLockKey::namespace).toArray();
+                        final var namespacedKeys = keys.stream().map(key -> (int) key.key()).toArray();
+                        ps.setArray(1, ps.getConnection().createArrayOf("int", namespaces));
+                        ps.setArray(2, ps.getConnection().createArrayOf("int", namespacedKeys));
+                        return ps.execute();
+                    }
+            );
+            return;
+        }
+        jdbcTemplate.getJdbcOperations().execute(
+                "select %s(lock_key) from unnest(?::bigint[]) as keys(lock_key)".formatted(lockFunction),
+                (PreparedStatement ps) -> {
+                    final var plainKeys = keys.stream().map(AdvisoryLockKey::key).toArray();
+                    ps.setArray(1, ps.getConnection().createArrayOf("bigint", plainKeys));
+                    return ps.execute();
+                }
         );
     }
+
+    private static String lockFunctionCall(final String lockFunction, final boolean namespaced) {
+        return namespaced ? "%s(?, ?)".formatted(lockFunction) : "%s(?)".formatted(lockFunction);
+    }
+
+    private static void setKeys(final PreparedStatement ps,
+                                final LockMode mode,
+                                final AdvisoryLockKey key) throws SQLException {
+        final var index = mode == LockMode.UPDATE_INTENT ? setKey(ps, 1, key.intentKey()) : 1;
+        setKey(ps, index, key);
+    }
+
+    /**
+     * @return index of the next parameter
+     */
+    private static int setKey(final PreparedStatement ps,
+                              final int index,
+                              final AdvisoryLockKey key) throws SQLException {
+        if (key.namespaced()) {
+            ps.setInt(index, key.namespace());
+            ps.setInt(index + 1, (int) key.key());
+            return index + 2;
+        }
+        ps.setLong(index, key.key());
+        return index + 1;
+    }
 }
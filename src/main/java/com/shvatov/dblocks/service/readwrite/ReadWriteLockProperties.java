@@ -0,0 +1,62 @@
+package com.shvatov.dblocks.service.readwrite;
+
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKeyStrategyType;
+import com.shvatov.dblocks.utils.ProcessIdentifierUtils;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.read-write")
+public class ReadWriteLockProperties {
+    /**
+     * How long the shared lock held by {@link CoalescingReadWriteLockService} on behalf of the node accepts
+     * the new readers, after that it is released as soon as its readers complete.
+     */
+    private Duration coalescingHoldTime = Duration.ofMillis(100);
+
+    /**
+     * Max number of the shared locks held by {@link CoalescingReadWriteLockService} at the same time. Each of them
+     * takes a connection of the lock pool, the readers lock in their own transactions, once all of them are taken.
+     */
+    private int coalescingMaxHolds = 4;
+
+    /**
+     * How {@link PgReadWriteLockService} derives the keys of the advisory locks from the process identifiers.
+     * All the nodes must use the same strategy, otherwise they do not exclude each other: switching it requires
+     * stopping all the nodes, it is not possible with a rolling deploy.
+     */
+    private AdvisoryLockKeyStrategyType advisoryKeyStrategy = AdvisoryLockKeyStrategyType.HASH_CODE;
+
+    /**
+     * Whether the owners of the advisory lock keys are recorded in the database to detect the collisions.
+     */
+    private boolean verifyAdvisoryKeys = false;
+
+    /**
+     * Number of the identifiers, which are remembered as verified to avoid repeated checks.
+     */
+    private int verifiedAdvisoryKeysCacheSize = 100_000;
+
+    /**
+     * Fairness of the locks of the families, which are not listed in {@link #fairness}.
+     */
+    private FairnessPolicy defaultFairness = FairnessPolicy.NONE;
+
+    /**
+     * Fairness per family of the process identifiers, e.g. {@code db-locks.read-write.fairness.orders=fair}.
+     */
+    private Map<String, FairnessPolicy> fairness = new HashMap<>();
+
+    public boolean isFair(final String processIdentifier) {
+        final var policy = fairness.isEmpty()
+                ? defaultFairness
+                : fairness.getOrDefault(ProcessIdentifierUtils.familyOf(processIdentifier), defaultFairness);
+        return policy == FairnessPolicy.FAIR;
+    }
+}
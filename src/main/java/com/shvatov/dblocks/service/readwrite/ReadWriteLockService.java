@@ -2,78 +2,283 @@ package com.shvatov.dblocks.service.readwrite;
 
 import com.shvatov.dblocks.model.ReadWriteLock;
 import com.shvatov.dblocks.model.enums.LockMode;
-import com.shvatov.dblocks.service.TransactionalProcessor;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.utils.HashUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.DuplicateKeyException;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.stereotype.Service;
 
-import java.util.Optional;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Row locks of the {@code db_lock} table. Postgres lets the shared row lockers join the current ones even
+ * if a writer waits for the row, so the rows of the {@link FairnessPolicy#FAIR} processes are guarded
+ * by an advisory gate taken before the row: writers wait for the row holding the gate in the exclusive mode,
+ * while the readers take it in the shared one and queue behind them.
+ */
 @Slf4j
 @Service
 public class ReadWriteLockService extends AbstractReadWriteLockService {
-    private final TransactionalProcessor transactionalProcessor;
+    private static final String SKIP_LOCKED = "skip locked";
+    private static final String CREATION_CONFLICT_PATH = "read_write";
+
+    private static final String CREATE_LOCK_SQL = "insert into %s(%s) values (?)".formatted(
+            ReadWriteLock.TABLE_NAME,
+            ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME
+    );
+    private static final String CREATE_LOCKS_SQL = "insert into %s(%s) select unnest(?::text[]) on conflict do nothing"
+            .formatted(ReadWriteLock.TABLE_NAME, ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME);
+    private static final String COUNT_LOCKS_SQL = "select count(*) from %s where %s = any(?::text[])".formatted(
+            ReadWriteLock.TABLE_NAME,
+            ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME
+    );
+    private static final String LOCK_EXISTS_SQL = "select exists(select 1 from %s where %s = ?)".formatted(
+            ReadWriteLock.TABLE_NAME,
+            ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME
+    );
+
+    /**
+     * Statements are built once per mode, so the driver reuses the server-side prepared statements
+     * for the same SQL and nothing is formatted on the acquisition path.
+     */
+    private static final Map<LockMode, String> ACQUIRE_LOCK_SQL = statementsPerMode(
+            "select 1 from %s where %s = ? for %s",
+            ""
+    );
+    private static final Map<LockMode, String> TRY_ACQUIRE_LOCK_SQL = statementsPerMode(
+            "select 1 from %s where %s = ? for %s",
+            " " + SKIP_LOCKED
+    );
+    private static final Map<LockMode, String> ACQUIRE_LOCKS_SQL = statementsPerMode(
+            "select 1 from %s where %s = any(?::text[]) order by %2$s collate \"C\" for %s",
+            ""
+    );
+
+    private static final Map<LockMode, String> ENTER_GATE_SQL = gateStatementsPerMode(false);
+    private static final Map<LockMode, String> TRY_ENTER_GATE_SQL = gateStatementsPerMode(true);
+
+    /**
+     * Missing lock rows are created on the connections of the lock pool, so the thread holding
+     * the connection of the business transaction never waits for another one of the same pool.
+     */
+    private final LockConnectionPool lockConnectionPool;
 
     public ReadWriteLockService(final NamedParameterJdbcOperations jdbcTemplate,
-                                final TransactionalProcessor transactionalProcessor) {
-        super(jdbcTemplate);
-        this.transactionalProcessor = transactionalProcessor;
+                                final LockConnectionPool lockConnectionPool,
+                                final LockMetrics lockMetrics,
+                                final LockTurnstile lockTurnstile) {
+        super(jdbcTemplate, lockMetrics, lockTurnstile);
+        this.lockConnectionPool = lockConnectionPool;
     }
 
     @Override
     protected void doAcquireLock(final String processIdentifier, final LockMode mode) {
-        final var existingLock = attemptToAcquireLock(processIdentifier, mode);
-        if (existingLock.isPresent()) {
-            log.info("Acquired existing lock for the process \"{}\" with mode \"{}\"", processIdentifier, mode);
+        if (lockTurnstile.isFair(processIdentifier)) {
+            jdbcTemplate.getJdbcOperations().query(
+                    ENTER_GATE_SQL.get(mode),
+                    ps -> ps.setLong(1, gateKey(processIdentifier)),
+                    ResultSet::next
+            );
+        }
+        if (attemptToAcquireLock(ACQUIRE_LOCK_SQL.get(mode), processIdentifier)) {
+            log.debug("Acquired existing lock for the process \"{}\" with mode \"{}\"", processIdentifier, mode);
             return;
         }
 
+        createLock(processIdentifier);
+        if (!attemptToAcquireLock(ACQUIRE_LOCK_SQL.get(mode), processIdentifier)) {
+            throw new IllegalStateException(
+                    "Could not obtain lock for the process \"%s\"".formatted(processIdentifier)
+            );
+        }
+        log.debug("Acquired created lock for the process \"{}\" with mode \"{}\"", processIdentifier, mode);
+    }
+
+    /**
+     * Creates the missing rows first, then locks all the rows in a single statement, so no row is held,
+     * while the others are created. Rows are locked in the order of the identifiers, compared in the
+     * {@code "C"} collation same as {@link String#compareTo(String)} does it.
+     */
+    @Override
+    protected void doAcquireAllLocks(final List<String> processIdentifiers, final LockMode mode) {
+        if (countLocks(processIdentifiers) != processIdentifiers.size()) {
+            createLocks(processIdentifiers);
+        }
+
+        final var gateKeys = processIdentifiers.stream()
+                .filter(lockTurnstile::isFair)
+                .mapToLong(ReadWriteLockService::gateKey)
+                .sorted()
+                .boxed()
+                .toArray();
+        if (gateKeys.length > 0) {
+            jdbcTemplate.getJdbcOperations().execute(
+                    "select %s(gate_key) from unnest(?::bigint[]) as gates(gate_key)"
+                            .formatted(mode.getPgLockFunction()),
+                    (PreparedStatement ps) -> {
+                        ps.setArray(1, ps.getConnection().createArrayOf("bigint", gateKeys));
+                        return ps.execute();
+                    }
+            );
+        }
+
+        final var acquired = attemptToAcquireLocks(processIdentifiers, mode);
+        if (acquired != processIdentifiers.size()) {
+            throw new IllegalStateException(
+                    "Could not obtain locks for %d out of %d processes"
+                            .formatted(processIdentifiers.size() - acquired, processIdentifiers.size())
+            );
+        }
+        log.debug("Acquired locks for {} processes with mode \"{}\"", processIdentifiers.size(), mode);
+    }
+
+    private int countLocks(final List<String> processIdentifiers) {
+        return jdbcTemplate.getJdbcOperations().query(
+                COUNT_LOCKS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", processIdentifiers.toArray())),
+                rs -> rs.next() ? rs.getInt(1) : 0
+        );
+    }
+
+    private int attemptToAcquireLocks(final List<String> processIdentifiers, final LockMode mode) {
+        return jdbcTemplate.getJdbcOperations().query(
+                ACQUIRE_LOCKS_SQL.get(mode),
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", processIdentifiers.toArray())),
+                ReadWriteLockService::countRows
+        );
+    }
+
+    private void createLocks(final List<String> processIdentifiers) {
+        log.info("Attempting to create locks for {} processes", processIdentifiers.size());
+        final var created = lockConnectionPool.execute(() ->
+                lockConnectionPool.getJdbcTemplate().update(
+                        CREATE_LOCKS_SQL,
+                        ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", processIdentifiers.toArray()))
+                )
+        );
+        log.info("Created locks for {} processes", created);
+    }
+
+    private void createLock(final String processIdentifier) {
         try {
             log.info("Attempting to create a lock for the process \"{}\"", processIdentifier);
-            transactionalProcessor.process(() -> // optional, no difference where we wait - on insert or on select
-                    jdbcTemplate.update(
-                            "insert into %s(%s) values (:%s)".formatted(
-                                    ReadWriteLock.TABLE_NAME,
-                                    ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME,
-                                    PROCESS_IDENTIFIER_PARAM_NAME
-                            ),
-                            new MapSqlParameterSource().addValue(PROCESS_IDENTIFIER_PARAM_NAME, processIdentifier)
-                    )
+            lockConnectionPool.process(() -> // optional, no difference where we wait - on insert or on select
+                    lockConnectionPool.getJdbcTemplate().update(CREATE_LOCK_SQL, ps -> ps.setString(1, processIdentifier))
             );
             log.info("Created a lock for the process \"{}\"", processIdentifier);
         } catch (final DataAccessException exception) {
             if (!(exception instanceof DuplicateKeyException)) {
                 throw exception;
             }
+            lockMetrics.countCreationConflict(CREATION_CONFLICT_PATH, processIdentifier);
             log.info(
                     "Unique constraint violation exception caught " +
                             "while creating a lock for the process \"{}\"", processIdentifier
             );
         }
+    }
+
+    @Override
+    protected boolean doTryAcquireLock(final String processIdentifier, final LockMode mode) {
+        // writers that do not wait do not hold the gate, otherwise a failed attempt would hold back the readers
+        if (mode != LockMode.EXCLUSIVE
+                && lockTurnstile.isFair(processIdentifier)
+                && !tryEnterGate(processIdentifier, mode)) {
+            log.debug("Writer is waiting for the lock of the process \"{}\"", processIdentifier);
+            return false;
+        }
+        if (attemptToAcquireLock(TRY_ACQUIRE_LOCK_SQL.get(mode), processIdentifier)) {
+            log.debug("Acquired existing lock for the process \"{}\" with mode \"{}\"", processIdentifier, mode);
+            return true;
+        }
+
+        // skipped row is indistinguishable from the missing one
+        if (lockExists(processIdentifier)) {
+            log.debug("Lock for the process \"{}\" is held by another transaction", processIdentifier);
+            return false;
+        }
 
-        attemptToAcquireLock(processIdentifier, mode)
-                .orElseThrow(() ->
-                        new IllegalStateException(
-                                ("Could not obtain lock for the process \"%s\"")
-                                        .formatted(processIdentifier)
-                        )
-                );
-        log.info("Acquired existing lock for the process \"{}\" with mode \"{}\"", processIdentifier, mode);
+        createLock(processIdentifier);
+        final var acquired = attemptToAcquireLock(TRY_ACQUIRE_LOCK_SQL.get(mode), processIdentifier);
+        if (log.isDebugEnabled()) {
+            log.debug("Lock for the process \"{}\" with mode \"{}\" acquired: {}", processIdentifier, mode, acquired);
+        }
+        return acquired;
+    }
+
+    private boolean tryEnterGate(final String processIdentifier, final LockMode mode) {
+        return Boolean.TRUE.equals(
+                jdbcTemplate.getJdbcOperations().query(
+                        TRY_ENTER_GATE_SQL.get(mode),
+                        ps -> ps.setLong(1, gateKey(processIdentifier)),
+                        rs -> rs.next() && rs.getBoolean(1)
+                )
+        );
     }
 
-    private Optional<ReadWriteLock> attemptToAcquireLock(final String processIdentifier, final LockMode mode) {
-        return jdbcTemplate.queryForStream(
-                "select * from %s where %s = :%s for %s".formatted(
-                        ReadWriteLock.TABLE_NAME,
-                        ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME,
-                        PROCESS_IDENTIFIER_PARAM_NAME,
-                        mode.getSqlKeyWord()
-                ),
-                new MapSqlParameterSource().addValue(PROCESS_IDENTIFIER_PARAM_NAME, processIdentifier),
-                (rs, rowNum) -> new ReadWriteLock(rs.getString(1), mode)
-        ).findFirst();
+    private boolean lockExists(final String processIdentifier) {
+        return Boolean.TRUE.equals(
+                jdbcTemplate.getJdbcOperations().query(
+                        LOCK_EXISTS_SQL,
+                        ps -> ps.setString(1, processIdentifier),
+                        rs -> rs.next() && rs.getBoolean(1)
+                )
+        );
+    }
+
+    private boolean attemptToAcquireLock(final String sql, final String processIdentifier) {
+        return Boolean.TRUE.equals(
+                jdbcTemplate.getJdbcOperations().query(sql, ps -> ps.setString(1, processIdentifier), ResultSet::next)
+        );
+    }
+
+    private static int countRows(final ResultSet rs) throws SQLException {
+        var rows = 0;
+        while (rs.next()) {
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Gate differs from the key of the same process used by {@link PgReadWriteLockService},
+     * so both backends may lock the same process independently.
+     */
+    private static long gateKey(final String processIdentifier) {
+        return ~HashUtils.hash64(processIdentifier);
+    }
+
+    private static Map<LockMode, String> gateStatementsPerMode(final boolean tryLock) {
+        final var statements = new EnumMap<LockMode, String>(LockMode.class);
+        for (final LockMode mode : LockMode.values()) {
+            statements.put(
+                    mode,
+                    "select %s(?)".formatted(tryLock ? mode.getPgTryLockFunction() : mode.getPgLockFunction())
+            );
+        }
+        return statements;
+    }
+
+    private static Map<LockMode, String> statementsPerMode(final String template, final String waitPolicy) {
+        final var statements = new EnumMap<LockMode, String>(LockMode.class);
+        for (final LockMode mode : LockMode.values()) {
+            statements.put(
+                    mode,
+                    template.formatted(
+                            ReadWriteLock.TABLE_NAME,
+                            ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME,
+                            mode.getSqlKeyWord()
+                    ) + waitPolicy
+            );
+        }
+        return statements;
     }
 }
@@ -0,0 +1,145 @@
+package com.shvatov.dblocks.service.readwrite;
+
+import com.shvatov.dblocks.model.enums.LockMode;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Locks taken by the current transaction through a single lock service. Bound to the transaction,
+ * so it is hidden from the nested {@code REQUIRES_NEW} transactions and cleared on commit or rollback.
+ * Locks acquired after a savepoint, e.g. the one of a {@code NESTED} transaction, are not remembered: Spring reports
+ * no rollbacks to the savepoints, while Postgres releases the locks acquired after them. Savepoints made by the plain
+ * SQL statements or on the raw connections are not seen. Accessed only by the thread of the transaction.
+ */
+final class TransactionLocks implements TransactionSynchronization {
+    /**
+     * Number of the savepoints created by Spring on the connection of the transaction, it is never decreased.
+     * {@code null}, if this version of Spring does not have it, then no lock is remembered.
+     */
+    private static final Field SAVEPOINT_COUNTER = savepointCounter();
+
+    private final Object owner;
+    private final Map<String, LockMode> modes = new HashMap<>();
+    private final Deque<Runnable> releases = new ArrayDeque<>();
+    private final Set<String> joined = new HashSet<>();
+
+    private TransactionLocks(final Object owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * @return {@code null}, if there is no transaction synchronization to bind the locks to
+     */
+    static TransactionLocks current(final Object owner) {
+        final var existing = (TransactionLocks) TransactionSynchronizationManager.getResource(owner);
+        if (existing != null) {
+            return existing;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        final var created = new TransactionLocks(owner);
+        TransactionSynchronizationManager.bindResource(owner, created);
+        TransactionSynchronizationManager.registerSynchronization(created);
+        return created;
+    }
+
+    /**
+     * @return {@code null}, if the lock is not held by the transaction
+     */
+    LockMode heldMode(final String processIdentifier) {
+        return modes.get(processIdentifier);
+    }
+
+    /**
+     * Whether the lock is held in the requested mode or in a stronger one.
+     */
+    boolean holds(final String processIdentifier, final LockMode mode) {
+        final var heldMode = modes.get(processIdentifier);
+        return heldMode != null && heldMode.covers(mode);
+    }
+
+    void add(final String processIdentifier, final LockMode mode) {
+        if (!hasSavepoints()) {
+            modes.merge(processIdentifier, mode, (held, acquired) -> held.covers(acquired) ? held : acquired);
+        }
+    }
+
+    /**
+     * Marks the shared lock as held by another transaction on behalf of this one. It is kept
+     * till the completion of the transaction, even if the savepoint it was joined within is rolled back.
+     */
+    void join(final String processIdentifier) {
+        joined.add(processIdentifier);
+    }
+
+    /**
+     * Whether the shared lock has been {@link #join joined} instead of being acquired by the transaction itself.
+     */
+    boolean isJoined(final String processIdentifier) {
+        return joined.contains(processIdentifier);
+    }
+
+    /**
+     * Action run on the completion of the transaction, the actions are run in the reverse order.
+     */
+    void onCompletion(final Runnable release) {
+        releases.push(release);
+    }
+
+    @Override
+    public void suspend() {
+        TransactionSynchronizationManager.unbindResource(owner);
+    }
+
+    @Override
+    public void resume() {
+        TransactionSynchronizationManager.bindResource(owner, this);
+    }
+
+    @Override
+    public void afterCompletion(final int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(owner);
+        while (!releases.isEmpty()) {
+            releases.pop().run();
+        }
+    }
+
+
+    /**
+     * Whether a savepoint has ever been created in the current transaction, the released ones included,
+     * as {@link ConnectionHolder} does not tell the active ones.
+     */
+    private static boolean hasSavepoints() {
+        if (SAVEPOINT_COUNTER == null) {
+            return true;
+        }
+        for (final Object resource : TransactionSynchronizationManager.getResourceMap().values()) {
+            if (resource instanceof ConnectionHolder holder
+                    && holder.isSynchronizedWithTransaction()
+                    && (int) ReflectionUtils.getField(SAVEPOINT_COUNTER, holder) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Field savepointCounter() {
+        final var field = ReflectionUtils.findField(ConnectionHolder.class, "savepointCounter", int.class);
+        if (field != null) {
+            ReflectionUtils.makeAccessible(field);
+        }
+        return field;
+    }
+}
@@ -0,0 +1,45 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+/**
+ * Key of the advisory lock either in the single {@code bigint} form or in the {@code (int, int)} form.
+ * Postgres keeps these forms in separate key spaces, so namespaced keys never collide with the plain ones.
+ */
+public record AdvisoryLockKey(int namespace, long key, boolean namespaced) {
+    private static final short PLAIN_KEY_SPACE = 1;
+    private static final short NAMESPACED_KEY_SPACE = 2;
+
+    public static AdvisoryLockKey of(final long key) {
+        return new AdvisoryLockKey(0, key, false);
+    }
+
+    public static AdvisoryLockKey of(final int namespace, final int key) {
+        return new AdvisoryLockKey(namespace, key, true);
+    }
+
+    /**
+     * Key space of the key in the same manner as Postgres reports it in {@code pg_locks.objsubid}.
+     */
+    public short keySpace() {
+        return namespaced ? NAMESPACED_KEY_SPACE : PLAIN_KEY_SPACE;
+    }
+
+    /**
+     * Whole key packed into a single {@code bigint}, unique within the {@link #keySpace()}.
+     */
+    public long packedKey() {
+        return namespaced ? (long) namespace << 32 | key & 0xffffffffL : key;
+    }
+
+    /**
+     * Key of the update intent on this one, always namespaced, so it never collides with the plain keys.
+     * Intent of the plain key is the key itself split into the namespace and the key, the mapping is a bijection
+     * apart from the namespaces reserved by {@link AdvisoryLockNamespace}. Intent of the namespaced key is taken
+     * from the reserved {@link AdvisoryLockNamespace#INTENT} namespace, so it never collides with the keys
+     * of the identifiers, but the intents of the namespaced keys with the same folded value exclude each other.
+     */
+    public AdvisoryLockKey intentKey() {
+        return namespaced
+                ? of(AdvisoryLockNamespace.INTENT.getNamespace(), (int) (namespace ^ key))
+                : of(AdvisoryLockNamespace.outsideReserved((int) (key >>> 32)), (int) key);
+    }
+}
@@ -0,0 +1,17 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+import com.shvatov.dblocks.service.readwrite.ReadWriteLockProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class AdvisoryLockKeyConfiguration {
+    @Bean
+    public AdvisoryLockKeyStrategy advisoryLockKeyStrategy(final ReadWriteLockProperties properties) {
+        return switch (properties.getAdvisoryKeyStrategy()) {
+            case HASH_CODE -> new HashCodeKeyStrategy();
+            case HASH_64 -> new Hash64KeyStrategy();
+            case NAMESPACED -> new NamespacedKeyStrategy();
+        };
+    }
+}
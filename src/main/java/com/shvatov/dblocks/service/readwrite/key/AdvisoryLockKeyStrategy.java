@@ -0,0 +1,14 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+/**
+ * Derives the key of the advisory lock from the identifier of the process.
+ */
+public interface AdvisoryLockKeyStrategy {
+    /**
+     * Whether the keys are of the {@code (int, int)} form. Constant for the strategy,
+     * so that the lock statements may be built once.
+     */
+    boolean isNamespaced();
+
+    AdvisoryLockKey keyOf(String processIdentifier);
+}
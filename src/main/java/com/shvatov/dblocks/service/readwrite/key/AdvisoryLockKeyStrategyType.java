@@ -0,0 +1,22 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+/**
+ * Nodes using different strategies derive different keys for the same process, so the strategy can be switched
+ * only after all the nodes are stopped.
+ */
+public enum AdvisoryLockKeyStrategyType {
+    /**
+     * 32-bit {@link String#hashCode()} of the identifier, compatible with the keys used before.
+     */
+    HASH_CODE,
+
+    /**
+     * 64-bit hash of the identifier, fewer collisions than the {@link #HASH_CODE}.
+     */
+    HASH_64,
+
+    /**
+     * {@code (int, int)} form, where the first one is the hash of the family of the identifier.
+     */
+    NAMESPACED
+}
@@ -0,0 +1,90 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.readwrite.ReadWriteLockProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optionally records which process owns which advisory lock key and reports the keys shared
+ * by different processes. Collisions do not break the locks, but make unrelated processes wait for each other.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdvisoryLockKeyVerifier {
+    private final ReadWriteLockProperties properties;
+    private final LockConnectionPool lockConnectionPool;
+
+    private final Set<String> verifiedIdentifiers = ConcurrentHashMap.newKeySet();
+    private final AtomicLong detectedCollisions = new AtomicLong();
+
+    public void verify(final String processIdentifier, final AdvisoryLockKey key) {
+        if (!properties.isVerifyAdvisoryKeys() || verifiedIdentifiers.contains(processIdentifier)) {
+            return;
+        }
+
+        final var owner = lockConnectionPool.execute(() -> findOwner(processIdentifier, key));
+        if (owner == null) {
+            return; // the row has been removed meanwhile, verified by the next call
+        }
+
+        if (!Objects.equals(owner, processIdentifier)) {
+            detectedCollisions.incrementAndGet();
+            log.warn(
+                    "Advisory lock key {} of the process \"{}\" collides with the one of the process \"{}\"",
+                    key, processIdentifier, owner
+            );
+        }
+
+        if (verifiedIdentifiers.size() >= properties.getVerifiedAdvisoryKeysCacheSize()) {
+            verifiedIdentifiers.clear();
+        }
+        verifiedIdentifiers.add(processIdentifier);
+    }
+
+    /**
+     * Select of the first statement does not see the row inserted by a concurrent transaction, which has made
+     * the insert wait for it, so the owner is selected once more by a new statement, which sees the committed row.
+     */
+    private String findOwner(final String processIdentifier, final AdvisoryLockKey key) {
+        final var jdbcTemplate = lockConnectionPool.getJdbcTemplate();
+        final var inserted = jdbcTemplate.query(
+                """
+                        with inserted as (
+                            insert into db_advisory_lock_key(key_space, lock_key, process_identifier)
+                            values (?, ?, ?)
+                            on conflict do nothing
+                            returning process_identifier
+                        )
+                        select process_identifier from inserted
+                        union all
+                        select process_identifier from db_advisory_lock_key
+                        where key_space = ? and lock_key = ?
+                        limit 1""",
+                (rs, rowNum) -> rs.getString(1),
+                key.keySpace(), key.packedKey(), processIdentifier,
+                key.keySpace(), key.packedKey()
+        );
+        if (!inserted.isEmpty()) {
+            return inserted.get(0);
+        }
+
+        final var selected = jdbcTemplate.query(
+                "select process_identifier from db_advisory_lock_key where key_space = ? and lock_key = ?",
+                (rs, rowNum) -> rs.getString(1),
+                key.keySpace(), key.packedKey()
+        );
+        return selected.isEmpty() ? null : selected.get(0);
+    }
+
+    public long getDetectedCollisions() {
+        return detectedCollisions.get();
+    }
+}
@@ -0,0 +1,68 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Namespaces of the {@code (int, int)} advisory locks reserved for the lock infrastructure. Namespaces of the keys
+ * derived from the process identifiers are moved out of the reserved range by {@link #outsideReserved(int)},
+ * so the locks of the infrastructure never collide with them.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum AdvisoryLockNamespace {
+    /**
+     * Locks of the barrier generations held by their masters till the end of the sync.
+     */
+    BARRIER_SYNC(0x6462_6C01),
+
+    /**
+     * Liveness locks of the barrier slaves held till the end of their wait.
+     */
+    BARRIER_SLAVE(0x6462_6C02),
+
+    /**
+     * Update intents on the namespaced keys, see {@link AdvisoryLockKey#intentKey()}.
+     */
+    INTENT(0x6462_6C03);
+
+    /**
+     * Namespaces of the keys of the values up to {@code 2^48} in all the reserved namespaces, see {@link #keyOf(long)}.
+     */
+    private static final int RESERVED_FIRST = 0x6460_0000;
+    private static final int RESERVED_COUNT = 0x10_0000;
+    private static final int VALUE_SHIFT = 4;
+
+    private final int namespace;
+
+    /**
+     * Key of the lock of the whole value, e.g. of a sequence, in this namespace. Lower half of the value is the key,
+     * the upper one is mixed into the namespace above its lower bits, which tell the reserved namespaces apart.
+     * Values below {@code 2^48} keep to the reserved range, the ones up to {@code 2^60} still get unique keys.
+     */
+    public AdvisoryLockKey keyOf(final long value) {
+        return AdvisoryLockKey.of(namespace ^ ((int) (value >>> Integer.SIZE) << VALUE_SHIFT), (int) value);
+    }
+
+    /**
+     * Same key as {@link #keyOf(long)} gives for the value of the {@code bigint} SQL expression, as the two
+     * {@code int} arguments of the advisory lock functions.
+     */
+    public String sqlKeyOf(final String value) {
+        return "(%d # ((%s) >> %d & %d))::bit(32)::int, (%2$s)::bit(32)::int".formatted(
+                Integer.toUnsignedLong(namespace),
+                value,
+                Integer.SIZE - VALUE_SHIFT,
+                Integer.toUnsignedLong(-1 << VALUE_SHIFT)
+        );
+    }
+
+    /**
+     * Namespace itself, unless it is reserved, otherwise another one out of the reserved range.
+     */
+    public static int outsideReserved(final int namespace) {
+        return Integer.compareUnsigned(namespace - RESERVED_FIRST, RESERVED_COUNT) < 0
+                ? namespace + RESERVED_COUNT
+                : namespace;
+    }
+}
@@ -0,0 +1,15 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+import com.shvatov.dblocks.utils.HashUtils;
+
+public class Hash64KeyStrategy implements AdvisoryLockKeyStrategy {
+    @Override
+    public boolean isNamespaced() {
+        return false;
+    }
+
+    @Override
+    public AdvisoryLockKey keyOf(final String processIdentifier) {
+        return AdvisoryLockKey.of(HashUtils.hash64(processIdentifier));
+    }
+}
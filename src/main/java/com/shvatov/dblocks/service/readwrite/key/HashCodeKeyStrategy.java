@@ -0,0 +1,13 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+public class HashCodeKeyStrategy implements AdvisoryLockKeyStrategy {
+    @Override
+    public boolean isNamespaced() {
+        return false;
+    }
+
+    @Override
+    public AdvisoryLockKey keyOf(final String processIdentifier) {
+        return AdvisoryLockKey.of(processIdentifier.hashCode());
+    }
+}
@@ -0,0 +1,28 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+import com.shvatov.dblocks.utils.HashUtils;
+import com.shvatov.dblocks.utils.ProcessIdentifierUtils;
+
+/**
+ * Keeps the lock families apart: identifiers of different families never collide,
+ * since the family is hashed into the first key of the {@code (int, int)} pair. Namespaces reserved
+ * by {@link AdvisoryLockNamespace} are never used.
+ */
+public class NamespacedKeyStrategy implements AdvisoryLockKeyStrategy {
+    @Override
+    public boolean isNamespaced() {
+        return true;
+    }
+
+    @Override
+    public AdvisoryLockKey keyOf(final String processIdentifier) {
+        final var familyLength = ProcessIdentifierUtils.familyLengthOf(processIdentifier);
+        final var namespace = familyLength == 0
+                ? HashUtils.hash64(ProcessIdentifierUtils.DEFAULT_FAMILY)
+                : HashUtils.hash64(processIdentifier, 0, familyLength);
+        return AdvisoryLockKey.of(
+                AdvisoryLockNamespace.outsideReserved((int) namespace),
+                (int) HashUtils.hash64(processIdentifier)
+        );
+    }
+}
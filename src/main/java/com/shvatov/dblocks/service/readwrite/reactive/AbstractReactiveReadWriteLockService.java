@@ -0,0 +1,57 @@
+package com.shvatov.dblocks.service.readwrite.reactive;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of the {@code AbstractReadWriteLockService}. Locks must be acquired
+ * within a transaction of {@link ReactiveLockTransactions} and are released, when it completes.
+ */
+@RequiredArgsConstructor
+public abstract class AbstractReactiveReadWriteLockService {
+    protected static final String PROCESS_IDENTIFIER_PARAM_NAME = "processIdentifier";
+
+    protected final DatabaseClient databaseClient;
+
+    public Mono<Void> acquireExclusiveLock(final String processIdentifier) {
+        return withinTransaction(doAcquireLock(processIdentifier, LockMode.EXCLUSIVE));
+    }
+
+    public Mono<Void> acquireSharedLock(final String processIdentifier) {
+        return withinTransaction(doAcquireLock(processIdentifier, LockMode.SHARED));
+    }
+
+    public Mono<Void> acquireUpdateIntentLock(final String processIdentifier) {
+        return withinTransaction(doAcquireLock(processIdentifier, LockMode.UPDATE_INTENT));
+    }
+
+    /**
+     * Acquires the lock only if it is not held by any other transaction at the moment of the call.
+     */
+    public Mono<LockAcquisitionResult> tryAcquire(final String processIdentifier, final LockMode mode) {
+        return withinTransaction(
+                doTryAcquireLock(processIdentifier, mode)
+                        .map(acquired -> acquired ? LockAcquisitionResult.ACQUIRED : LockAcquisitionResult.REJECTED)
+        );
+    }
+
+    protected abstract Mono<Void> doAcquireLock(final String processIdentifier, final LockMode mode);
+
+    protected abstract Mono<Boolean> doTryAcquireLock(final String processIdentifier, final LockMode mode);
+
+    private static <T> Mono<T> withinTransaction(final Mono<T> action) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .filter(TransactionSynchronizationManager::isActualTransactionActive)
+                .onErrorResume(NoTransactionException.class, ignored -> Mono.empty())
+                .switchIfEmpty(Mono.error(() -> new IllegalTransactionStateException(
+                        "No existing transaction found, lock would be released immediately"
+                )))
+                .then(action);
+    }
+}
@@ -0,0 +1,27 @@
+package com.shvatov.dblocks.service.readwrite.reactive;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.r2dbc")
+public class R2dbcLockProperties {
+    /**
+     * Whether the reactive lock services are created.
+     */
+    private boolean enabled = false;
+
+    /**
+     * R2DBC url of the database, by default derived from {@code spring.datasource.url}.
+     * Credentials are taken from {@code spring.datasource.*}, if not set.
+     */
+    private String url;
+
+    private String username;
+
+    private String password;
+
+    private int maxPoolSize = 20;
+}
@@ -0,0 +1,62 @@
+package com.shvatov.dblocks.service.readwrite.reactive;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+import java.util.Objects;
+
+@Configuration
+@ConditionalOnProperty(prefix = "db-locks.r2dbc", name = "enabled", havingValue = "true")
+public class ReactiveLockConfiguration {
+    @Bean(destroyMethod = "dispose")
+    public ConnectionPool lockConnectionPool(final R2dbcLockProperties properties,
+                                             final DataSourceProperties dataSourceProperties) {
+        final var url = Objects.requireNonNullElseGet(
+                properties.getUrl(),
+                () -> dataSourceProperties.getUrl().replaceFirst("^jdbc:", "r2dbc:").replaceFirst("\\?.*$", "")
+        );
+        final var options = ConnectionFactoryOptions.parse(url).mutate()
+                .option(
+                        ConnectionFactoryOptions.USER,
+                        Objects.requireNonNullElseGet(properties.getUsername(), dataSourceProperties::getUsername)
+                )
+                .option(
+                        ConnectionFactoryOptions.PASSWORD,
+                        Objects.requireNonNullElseGet(properties.getPassword(), dataSourceProperties::getPassword)
+                )
+                .build();
+        return new ConnectionPool(
+                ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                        .maxSize(properties.getMaxPoolSize())
+                        .build()
+        );
+    }
+
+    @Bean
+    public DatabaseClient lockDatabaseClient(final ConnectionPool lockConnectionPool) {
+        return DatabaseClient.create(lockConnectionPool);
+    }
+
+    @Bean
+    public ReactiveLockTransactions reactiveLockTransactions(final ConnectionPool lockConnectionPool) {
+        final var transactionManager = new R2dbcTransactionManager(lockConnectionPool);
+        final var readCommitted = new DefaultTransactionDefinition();
+        readCommitted.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        final var requiresNew = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return new ReactiveLockTransactions(
+                TransactionalOperator.create(transactionManager, readCommitted),
+                TransactionalOperator.create(transactionManager, requiresNew)
+        );
+    }
+}
@@ -0,0 +1,39 @@
+package com.shvatov.dblocks.service.readwrite.reactive;
+
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive transactions of the lock database. Not exposed as a transaction manager bean,
+ * so that it does not compete with the JDBC one for {@code @Transactional}.
+ */
+public class ReactiveLockTransactions {
+    private final TransactionalOperator transactionalOperator;
+    private final TransactionalOperator requiresNewOperator;
+
+    public ReactiveLockTransactions(final TransactionalOperator transactionalOperator,
+                                    final TransactionalOperator requiresNewOperator) {
+        this.transactionalOperator = transactionalOperator;
+        this.requiresNewOperator = requiresNewOperator;
+    }
+
+    /**
+     * Runs the action in a transaction, joining the current one, if present. Locks acquired
+     * by the action are held until the transaction completes.
+     */
+    public <T> Mono<T> transactional(final Mono<T> action) {
+        return transactionalOperator.transactional(action);
+    }
+
+    public <T> Flux<T> transactional(final Flux<T> action) {
+        return transactionalOperator.transactional(action);
+    }
+
+    /**
+     * Runs the action in a new transaction, suspending the current one.
+     */
+    public <T> Mono<T> requiresNew(final Mono<T> action) {
+        return requiresNewOperator.transactional(action);
+    }
+}
@@ -0,0 +1,87 @@
+package com.shvatov.dblocks.service.readwrite.reactive;
+
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKey;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKeyStrategy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * Advisory locks with the same keys as the {@code PgReadWriteLockService}, so both services
+ * exclude each other. Keys are not verified for the collisions. Failed attempt to acquire the update intent
+ * is rolled back to a savepoint, so the intent taken by it is released at once.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "db-locks.r2dbc", name = "enabled", havingValue = "true")
+public class ReactivePgReadWriteLockService extends AbstractReactiveReadWriteLockService {
+    private static final String LOCK_KEY_PARAM_NAME = "lockKey";
+    private static final String LOCK_NAMESPACE_PARAM_NAME = "lockNamespace";
+
+    /**
+     * Same as the one of the {@code PgReadWriteLockService}.
+     */
+    private static final String INTENT_SAVEPOINT = "db_lock_intent";
+
+    private final AdvisoryLockKeyStrategy keyStrategy;
+
+    public ReactivePgReadWriteLockService(final DatabaseClient lockDatabaseClient,
+                                          final AdvisoryLockKeyStrategy keyStrategy) {
+        super(lockDatabaseClient);
+        this.keyStrategy = keyStrategy;
+    }
+
+    @Override
+    protected Mono<Void> doAcquireLock(final String processIdentifier, final LockMode mode) {
+        final var key = keyStrategy.keyOf(processIdentifier);
+        final var intent = mode == LockMode.UPDATE_INTENT
+                ? lockFunctionCall(LockMode.EXCLUSIVE.getPgLockFunction(), key.intentKey()).then()
+                : Mono.<Void>empty();
+        return intent
+                .then(lockFunctionCall(mode.getPgLockFunction(), key).then())
+                .doOnSuccess(ignored -> log.debug(
+                        "Acquired lock for the process \"{}\" with mode \"{}\"", processIdentifier, mode
+                ));
+    }
+
+    @Override
+    protected Mono<Boolean> doTryAcquireLock(final String processIdentifier, final LockMode mode) {
+        final var key = keyStrategy.keyOf(processIdentifier);
+        if (mode != LockMode.UPDATE_INTENT) {
+            return tryLock(mode.getPgTryLockFunction(), key);
+        }
+        return databaseClient.inConnection(connection ->
+                Mono.from(connection.createSavepoint(INTENT_SAVEPOINT))
+                        .then(tryLock(LockMode.EXCLUSIVE.getPgTryLockFunction(), key.intentKey()))
+                        .flatMap(acquired -> acquired ? tryLock(mode.getPgTryLockFunction(), key) : Mono.just(false))
+                        .flatMap(acquired -> (acquired
+                                ? Mono.<Void>empty()
+                                : Mono.from(connection.rollbackTransactionToSavepoint(INTENT_SAVEPOINT)))
+                                .then(Mono.from(connection.releaseSavepoint(INTENT_SAVEPOINT)))
+                                .thenReturn(acquired)
+                        )
+        );
+    }
+
+    private Mono<Boolean> tryLock(final String lockFunction, final AdvisoryLockKey key) {
+        return lockFunctionCall(lockFunction, key)
+                .map(row -> Boolean.TRUE.equals(row.get("acquired", Boolean.class)))
+                .one();
+    }
+
+    private DatabaseClient.GenericExecuteSpec lockFunctionCall(final String lockFunction, final AdvisoryLockKey key) {
+        if (key.namespaced()) {
+            return databaseClient.sql(
+                            "select %s(:%s, :%s) as acquired"
+                                    .formatted(lockFunction, LOCK_NAMESPACE_PARAM_NAME, LOCK_KEY_PARAM_NAME)
+                    )
+                    .bind(LOCK_NAMESPACE_PARAM_NAME, key.namespace())
+                    .bind(LOCK_KEY_PARAM_NAME, (int) key.key());
+        }
+        return databaseClient.sql("select %s(:%s) as acquired".formatted(lockFunction, LOCK_KEY_PARAM_NAME))
+                .bind(LOCK_KEY_PARAM_NAME, key.key());
+    }
+}
@@ -0,0 +1,100 @@
+package com.shvatov.dblocks.service.readwrite.reactive;
+
+import com.shvatov.dblocks.model.ReadWriteLock;
+import com.shvatov.dblocks.model.enums.LockMode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "db-locks.r2dbc", name = "enabled", havingValue = "true")
+public class ReactiveReadWriteLockService extends AbstractReactiveReadWriteLockService {
+    private static final String SKIP_LOCKED = "skip locked";
+
+    private final ReactiveLockTransactions transactions;
+
+    public ReactiveReadWriteLockService(final DatabaseClient lockDatabaseClient,
+                                        final ReactiveLockTransactions transactions) {
+        super(lockDatabaseClient);
+        this.transactions = transactions;
+    }
+
+    @Override
+    protected Mono<Void> doAcquireLock(final String processIdentifier, final LockMode mode) {
+        return attemptToAcquireLock(processIdentifier, mode, "")
+                .switchIfEmpty(
+                        createLock(processIdentifier)
+                                .then(attemptToAcquireLock(processIdentifier, mode, ""))
+                                .switchIfEmpty(Mono.error(() -> new IllegalStateException(
+                                        "Could not obtain lock for the process \"%s\"".formatted(processIdentifier)
+                                )))
+                )
+                .doOnNext(ignored -> log.debug(
+                        "Acquired lock for the process \"{}\" with mode \"{}\"", processIdentifier, mode
+                ))
+                .then();
+    }
+
+    @Override
+    protected Mono<Boolean> doTryAcquireLock(final String processIdentifier, final LockMode mode) {
+        return attemptToAcquireLock(processIdentifier, mode, SKIP_LOCKED)
+                .map(ignored -> true)
+                // skipped row is indistinguishable from the missing one
+                .switchIfEmpty(lockExists(processIdentifier).flatMap(exists -> exists
+                        ? Mono.just(false)
+                        : createLock(processIdentifier)
+                        .then(attemptToAcquireLock(processIdentifier, mode, SKIP_LOCKED).hasElement())
+                ));
+    }
+
+    /**
+     * Created in a separate transaction, so the uncommitted row does not block the others.
+     */
+    private Mono<Void> createLock(final String processIdentifier) {
+        return transactions.requiresNew(
+                databaseClient.sql(
+                                "insert into %s(%s) values (:%s) on conflict do nothing".formatted(
+                                        ReadWriteLock.TABLE_NAME,
+                                        ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME,
+                                        PROCESS_IDENTIFIER_PARAM_NAME
+                                )
+                        )
+                        .bind(PROCESS_IDENTIFIER_PARAM_NAME, processIdentifier)
+                        .then()
+        );
+    }
+
+    private Mono<Boolean> lockExists(final String processIdentifier) {
+        return databaseClient.sql(
+                        "select exists(select 1 from %s where %s = :%s) as lock_exists".formatted(
+                                ReadWriteLock.TABLE_NAME,
+                                ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME,
+                                PROCESS_IDENTIFIER_PARAM_NAME
+                        )
+                )
+                .bind(PROCESS_IDENTIFIER_PARAM_NAME, processIdentifier)
+                .map(row -> Boolean.TRUE.equals(row.get("lock_exists", Boolean.class)))
+                .one();
+    }
+
+    private Mono<String> attemptToAcquireLock(final String processIdentifier,
+                                              final LockMode mode,
+                                              final String waitPolicy) {
+        return databaseClient.sql(
+                        "select %s from %s where %s = :%s for %s %s".formatted(
+                                ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME,
+                                ReadWriteLock.TABLE_NAME,
+                                ReadWriteLock.PROCESS_IDENTIFIER_COLUMN_NAME,
+                                PROCESS_IDENTIFIER_PARAM_NAME,
+                                mode.getSqlKeyWord(),
+                                waitPolicy
+                        )
+                )
+                .bind(PROCESS_IDENTIFIER_PARAM_NAME, processIdentifier)
+                .map(row -> row.get(0, String.class))
+                .first();
+    }
+}
@@ -0,0 +1,117 @@
+package com.shvatov.dblocks.service.seq;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Hands out ids from the block reserved in the database. Ids are taken from the current block
+ * with a single CAS, the lock is only used to switch to the next block once the current one is exhausted.
+ */
+@Slf4j
+class PooledIdAllocator {
+    private final Supplier<IdBlock> blockSupplier;
+    private final Executor prefetchExecutor;
+    private final double prefetchRatio;
+
+    private final AtomicReference<IdBlock> currentBlock = new AtomicReference<>(IdBlock.EMPTY);
+    private final AtomicReference<CompletableFuture<IdBlock>> nextBlock = new AtomicReference<>();
+    private final ReentrantLock refillLock = new ReentrantLock();
+
+    PooledIdAllocator(final Supplier<IdBlock> blockSupplier,
+                      final Executor prefetchExecutor,
+                      final double prefetchRatio) {
+        this.blockSupplier = blockSupplier;
+        this.prefetchExecutor = prefetchExecutor;
+        this.prefetchRatio = prefetchRatio;
+    }
+
+    long nextValue() {
+        while (true) {
+            final var block = currentBlock.get();
+            final var value = block.cursor.getAndIncrement();
+            if (value < block.end) {
+                if (value == block.prefetchMark) {
+                    prefetchNextBlock();
+                }
+                return value;
+            }
+            switchBlock(block);
+        }
+    }
+
+    private void prefetchNextBlock() {
+        final var future = new CompletableFuture<IdBlock>();
+        if (!nextBlock.compareAndSet(null, future)) {
+            return;
+        }
+
+        prefetchExecutor.execute(() -> {
+            try {
+                future.complete(blockSupplier.get());
+            } catch (final Throwable exception) {
+                future.completeExceptionally(exception);
+            }
+        });
+    }
+
+    private void switchBlock(final IdBlock exhaustedBlock) {
+        refillLock.lock();
+        try {
+            if (currentBlock.get() != exhaustedBlock) {
+                return; // already switched by another thread
+            }
+
+            IdBlock block = null;
+            final var prefetched = nextBlock.getAndSet(null);
+            if (prefetched != null) {
+                try {
+                    block = prefetched.join();
+                } catch (final CompletionException exception) {
+                    log.warn("Failed to prefetch the next block of ids, fetching it synchronously", exception.getCause());
+                }
+            }
+
+            if (block == null) {
+                block = blockSupplier.get();
+            }
+            currentBlock.set(block.withPrefetchMark(prefetchRatio));
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    static final class IdBlock {
+        private static final IdBlock EMPTY = new IdBlock(0, 0, -1);
+
+        private final AtomicLong cursor;
+        private final long end;
+        private final long prefetchMark;
+
+        private IdBlock(final long start, final long size, final long prefetchMark) {
+            this.cursor = new AtomicLong(start);
+            this.end = start + size;
+            this.prefetchMark = prefetchMark;
+        }
+
+        static IdBlock of(final long start, final long size) {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Size of the block must be positive, got %s".formatted(size));
+            }
+            return new IdBlock(start, size, -1);
+        }
+
+        private IdBlock withPrefetchMark(final double prefetchRatio) {
+            final var start = cursor.get();
+            final var size = end - start;
+            final var remaining = Math.max(1, Math.round(size * prefetchRatio));
+            return new IdBlock(start, size, end - Math.min(size, remaining));
+        }
+    }
+}
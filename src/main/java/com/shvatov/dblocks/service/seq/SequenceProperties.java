@@ -0,0 +1,21 @@
+package com.shvatov.dblocks.service.seq;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "db-locks.sequence")
+public class SequenceProperties {
+    /**
+     * Whether ids are handed out from in-memory blocks reserved via the hi-lo sequence
+     * instead of calling {@code nextval} for every single id.
+     */
+    private boolean pooled = false;
+
+    /**
+     * Fraction of the current block, which may still be left, when the next block is fetched in background.
+     */
+    private double prefetchRatio = 0.25;
+}
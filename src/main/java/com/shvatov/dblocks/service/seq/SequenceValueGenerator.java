@@ -1,20 +1,44 @@
 package com.shvatov.dblocks.service.seq;
 
-import lombok.RequiredArgsConstructor;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.sql.ResultSet;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Service
-@RequiredArgsConstructor
 public class SequenceValueGenerator {
     private static final String ID_SEQ_NAME = "seq_lock_id";
+    private static final String POOLED_ID_SEQ_NAME = "seq_lock_id_pooled";
 
     private final JdbcTemplate jdbcTemplate;
+    private final SequenceProperties properties;
+    private final ExecutorService prefetchExecutor;
+    private final PooledIdAllocator pooledIdAllocator;
+
+    public SequenceValueGenerator(final JdbcTemplate jdbcTemplate, final SequenceProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+        this.prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            final var thread = new Thread(runnable, "seq-lock-id-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pooledIdAllocator = new PooledIdAllocator(
+                this::nextBlock,
+                prefetchExecutor,
+                properties.getPrefetchRatio()
+        );
+    }
 
     public long nextValue() {
+        if (properties.isPooled()) {
+            return pooledIdAllocator.nextValue();
+        }
+
         return Objects.requireNonNull(
                 jdbcTemplate.query(
                         "select nextval('%s') as id".formatted(ID_SEQ_NAME),
@@ -22,4 +46,22 @@ public class SequenceValueGenerator {
                 ).get(0)
         );
     }
+
+    private PooledIdAllocator.IdBlock nextBlock() {
+        return Objects.requireNonNull(
+                jdbcTemplate.query(
+                        """
+                                select nextval('%1$s') as id, increment_by as size
+                                from pg_sequences
+                                where schemaname = current_schema() and sequencename = '%1$s'"""
+                                .formatted(POOLED_ID_SEQ_NAME),
+                        (ResultSet rs, int rowNum) -> PooledIdAllocator.IdBlock.of(rs.getLong("id"), rs.getLong("size"))
+                ).get(0)
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
 }
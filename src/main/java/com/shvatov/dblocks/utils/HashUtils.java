@@ -0,0 +1,60 @@
+package com.shvatov.dblocks.utils;
+
+public class HashUtils {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private HashUtils() {
+    }
+
+    /**
+     * 64-bit MurmurHash3 (x64 mixing) of the UTF-16 code units of the provided value.
+     * Works on the chars directly, so hashing does not allocate.
+     */
+    public static long hash64(final CharSequence value) {
+        return hash64(value, 0, value.length());
+    }
+
+    /**
+     * Same as {@link #hash64(CharSequence)} for the chars of the value in range [{@code from}, {@code to}).
+     */
+    public static long hash64(final CharSequence value, final int from, final int to) {
+        final var length = to - from;
+        var hash = (long) length * C2;
+
+        var index = from;
+        for (; index + 4 <= to; index += 4) {
+            final var block = (long) value.charAt(index)
+                    | (long) value.charAt(index + 1) << 16
+                    | (long) value.charAt(index + 2) << 32
+                    | (long) value.charAt(index + 3) << 48;
+            hash ^= mixBlock(block);
+            hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+        }
+
+        var tail = 0L;
+        for (var shift = 0; index < to; index++, shift += 16) {
+            tail |= (long) value.charAt(index) << shift;
+        }
+        hash ^= mixBlock(tail);
+        hash ^= length;
+
+        return finalizeHash(hash);
+    }
+
+    private static long mixBlock(long block) {
+        block *= C1;
+        block = Long.rotateLeft(block, 31);
+        block *= C2;
+        return block;
+    }
+
+    private static long finalizeHash(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
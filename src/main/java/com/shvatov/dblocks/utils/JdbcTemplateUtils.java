@@ -1,54 +1,117 @@
 package com.shvatov.dblocks.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.jdbc.core.JdbcOperations;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
 
-import java.sql.ResultSet;
-import java.util.Objects;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
-import java.util.function.Function;
-import java.util.function.Supplier;
-import java.util.stream.Stream;
+import java.util.function.BooleanSupplier;
 
+import static com.shvatov.dblocks.utils.ExceptionUtils.hasSqlState;
+
+/**
+ * Timeouts are never set on the shared {@link JdbcOperations}, only on the statement being executed
+ * or on the current transaction, so concurrent callers do not see the timeouts of each other.
+ */
+@Slf4j
 public class JdbcTemplateUtils {
+    public static final String QUERY_CANCELED_SQL_STATE = "57014";
+    public static final String LOCK_NOT_AVAILABLE_SQL_STATE = "55P03";
+
+    private static final String LOCK_TIMEOUT_SAVEPOINT = "db_lock_timeout";
+
     private JdbcTemplateUtils() {
     }
 
+    /**
+     * Same as {@link #queryWithTimeout}, but returns only the first row.
+     * Empty result means either that there are no rows, or that the timeout has expired.
+     */
     public static <L> Optional<L> querySingleWithTimeout(final JdbcOperations jdbcTemplate,
                                                          final String sql,
-                                                         final Function<ResultSet, L> mapper,
-                                                         final Integer timeout) {
-        return JdbcTemplateUtils.queryWithTimeout(jdbcTemplate, sql, mapper, timeout)
-                .findFirst();
+                                                         final PreparedStatementSetter parameters,
+                                                         final RowMapper<L> mapper,
+                                                         final Duration timeout) {
+        return queryWithTimeout(jdbcTemplate, sql, parameters, mapper, timeout)
+                .flatMap(rows -> rows.stream().findFirst());
     }
 
-    public static <L> Stream<L> queryWithTimeout(final JdbcOperations jdbcTemplate,
-                                                 final String sql,
-                                                 final Function<ResultSet, L> mapper,
-                                                 final Integer timeout) {
-        return JdbcTemplateUtils.queryWithTimeout(
-                jdbcTemplate,
-                () -> jdbcTemplate.queryForStream(sql, (rs, rowNum) -> mapper.apply(rs)),
-                timeout
-        );
+    /**
+     * Executes the query with the timeout applied to its own statement. The timeout has the precision of
+     * seconds and cancels the statement, which aborts the current transaction, so the query should be
+     * executed in a dedicated one.
+     *
+     * @return rows of the query or empty result, if the timeout has expired
+     */
+    public static <L> Optional<List<L>> queryWithTimeout(final JdbcOperations jdbcTemplate,
+                                                         final String sql,
+                                                         final PreparedStatementSetter parameters,
+                                                         final RowMapper<L> mapper,
+                                                         final Duration timeout) {
+        final var timeoutSeconds = (int) Math.max(1L, (timeout.toMillis() + 999) / 1000);
+        try {
+            return Optional.of(
+                    jdbcTemplate.query(
+                            sql,
+                            ps -> {
+                                // invoked after the statement settings of the template are applied
+                                ps.setQueryTimeout(timeoutSeconds);
+                                parameters.setValues(ps);
+                            },
+                            mapper
+                    )
+            );
+        } catch (final DataAccessException exception) {
+            if (isTimeoutException(exception)) {
+                log.debug("Query has not completed in {} s", timeoutSeconds);
+                return Optional.empty();
+            }
+            throw exception;
+        }
     }
 
-    public static <T> T queryWithTimeout(final JdbcOperations jdbcTemplate,
-                                         final Supplier<T> query,
-                                         final Integer timeout) {
-        if (Objects.nonNull(timeout) && jdbcTemplate instanceof final JdbcTemplate template) {
-            final var overriddenTimeout = template.getQueryTimeout();
-            template.setQueryTimeout(timeout);
-
-            final T result;
-            try {
-                result = query.get();
-            } finally {
-                template.setQueryTimeout(overriddenTimeout);
+    /**
+     * Runs the action with {@code lock_timeout} set for the current transaction only. Lock waits are
+     * made inside a savepoint, so when the timeout expires, the transaction is rolled back to it
+     * and {@code false} is returned instead of the failure of the whole transaction.
+     */
+    public static boolean withLockTimeout(final JdbcOperations jdbcTemplate,
+                                          final Duration timeout,
+                                          final BooleanSupplier action) {
+        jdbcTemplate.execute("savepoint " + LOCK_TIMEOUT_SAVEPOINT);
+        final var previousTimeout = jdbcTemplate.queryForObject(
+                "select current_setting('lock_timeout'), set_config('lock_timeout', ?, true)",
+                (rs, rowNum) -> rs.getString(1),
+                Math.max(1L, timeout.toMillis()) + "ms"
+        );
+
+        final boolean result;
+        try {
+            result = action.getAsBoolean();
+        } catch (final DataAccessException exception) {
+            if (!hasSqlState(exception, LOCK_NOT_AVAILABLE_SQL_STATE)) {
+                throw exception;
             }
-            return result;
-        } else {
-            return query.get();
+            log.info("Lock has not been acquired in {} ms", timeout.toMillis());
+            // restores the previous lock_timeout as well
+            jdbcTemplate.execute("rollback to savepoint " + LOCK_TIMEOUT_SAVEPOINT);
+            jdbcTemplate.execute("release savepoint " + LOCK_TIMEOUT_SAVEPOINT);
+            return false;
         }
+
+        jdbcTemplate.queryForObject("select set_config('lock_timeout', ?, true)", String.class, previousTimeout);
+        jdbcTemplate.execute("release savepoint " + LOCK_TIMEOUT_SAVEPOINT);
+        return result;
+    }
+
+    public static boolean isTimeoutException(final Throwable exception) {
+        return exception instanceof QueryTimeoutException
+                || hasSqlState(exception, QUERY_CANCELED_SQL_STATE)
+                || hasSqlState(exception, LOCK_NOT_AVAILABLE_SQL_STATE);
     }
 }
@@ -0,0 +1,29 @@
+package com.shvatov.dblocks.utils;
+
+public class ProcessIdentifierUtils {
+    public static final String DEFAULT_FAMILY = "default";
+
+    private static final char FAMILY_SEPARATOR = ':';
+
+    private ProcessIdentifierUtils() {
+    }
+
+    /**
+     * Family of the process is the prefix of its identifier up to the first {@code ':'},
+     * e.g. {@code orders} for {@code orders:42}. Identifiers without a prefix belong to the default family.
+     */
+    public static String familyOf(final String processIdentifier) {
+        final var familyLength = familyLengthOf(processIdentifier);
+        if (familyLength == 0) {
+            return DEFAULT_FAMILY;
+        }
+        return processIdentifier.substring(0, familyLength);
+    }
+
+    /**
+     * Length of the family prefix of the identifier or {@code 0}, if it belongs to the default family.
+     */
+    public static int familyLengthOf(final String processIdentifier) {
+        return Math.max(processIdentifier.indexOf(FAMILY_SEPARATOR), 0);
+    }
+}
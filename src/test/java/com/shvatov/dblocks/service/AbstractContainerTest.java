@@ -14,6 +14,7 @@ import org.springframework.test.context.support.TestPropertySourceUtils;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import java.sql.DriverManager;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -47,11 +48,34 @@ public abstract class AbstractContainerTest {
                     applicationContext,
                     "spring.datasource.url=" + postgreDBContainer.getJdbcUrl(),
                     "spring.datasource.username=" + postgreDBContainer.getUsername(),
-                    "spring.datasource.password=" + postgreDBContainer.getPassword()
+                    "spring.datasource.password=" + postgreDBContainer.getPassword(),
+                    "db-locks.read-write.fairness.fair=fair"
             );
         }
     }
 
+    /**
+     * Separate database of the shared container, e.g. for the schema migrated with other options.
+     *
+     * @return JDBC url of the database
+     */
+    @SneakyThrows
+    protected static String createDatabase(final String name) {
+        try (final var connection = DriverManager.getConnection(
+                postgreDBContainer.getJdbcUrl(), postgreDBContainer.getUsername(), postgreDBContainer.getPassword()
+        ); final var statement = connection.prepareStatement("select 1 from pg_database where datname = ?")) {
+            statement.setString(1, name);
+            try (final var resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    connection.createStatement().execute("create database " + name);
+                }
+            }
+        }
+        return postgreDBContainer.getJdbcUrl().replaceFirst(
+                "/" + postgreDBContainer.getDatabaseName() + "(\\?|$)", "/" + name + "$1"
+        );
+    }
+
     public static record MeasuredExecResult<R>(R result, Long executionTime) {}
 
     @SneakyThrows
@@ -1,27 +1,39 @@
 package com.shvatov.dblocks.service.barrier;
 
+import com.shvatov.dblocks.model.enums.SyncStatus;
 import com.shvatov.dblocks.service.AbstractContainerTest;
+import com.shvatov.dblocks.service.provider.BarrierQuorum;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.RepeatedTest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class BarrierLockTest extends AbstractContainerTest {
     private static final int BATCH_SIZE = 3;
+    private static final Duration QUORUM_WAIT = Duration.ofMillis(500);
 
     @Autowired
     private BarrierLockService barrierLockService;
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @SneakyThrows
     @RepeatedTest(10)
     @DisplayName("barrier awaits until required number of processes is present")
@@ -223,4 +235,185 @@ class BarrierLockTest extends AbstractContainerTest {
         assertTrue(threadCompletionQueue.contains(3));
         assertTrue(threadCompletionQueue.contains(4));
     }
-}
\ No newline at end of file
+
+    @SneakyThrows
+    @RepeatedTest(10)
+    @DisplayName("batch size is 2, 8 suppliers present => 4 generations synced side by side")
+    void testGenerations() {
+        final var participants = 8;
+        final var barrier = new CyclicBarrier(participants);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var threadCompletionQueue = Collections.synchronizedCollection(new LinkedHashSet<Integer>());
+        final var syncs = new ArrayList<Future<Object>>();
+
+        for (int participant = 0; participant < participants; participant++) {
+            final var participantNumber = participant;
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await();
+                        barrierLockService.lockAndExecuteBatch(
+                                processIdentifier, 2,
+                                () -> {
+                                    threadCompletionQueue.add(participantNumber);
+                                    return null;
+                                });
+                        return null;
+                    })
+            );
+        }
+
+        for (final Future<Object> sync : syncs) {
+            sync.get();
+        }
+
+        assertEquals(participants, threadCompletionQueue.size());
+        assertEquals(
+                List.of(0L, 1L, 2L, 3L),
+                jdbcTemplate.queryForList(
+                        "select generation from db_master_lock where process_identifier = ? and status = ? " +
+                                "order by generation",
+                        Long.class, processIdentifier, SyncStatus.SYNCED.toString()
+                )
+        );
+    }
+
+    @SneakyThrows
+    @RepeatedTest(10)
+    @DisplayName("quorum of 2 to 5 with 3 suppliers present => released at the deadline with 3 participants")
+    void testQuorum() {
+        final var participants = 3;
+        final var quorum = new BarrierQuorum(2, 5, QUORUM_WAIT);
+        final var barrier = new CyclicBarrier(participants);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var syncs = new ArrayList<Future<Integer>>();
+
+        for (int participant = 0; participant < participants; participant++) {
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await();
+                        return barrierLockService.lockAndExecuteBatch(
+                                processIdentifier, quorum, batchSize -> batchSize
+                        );
+                    })
+            );
+        }
+
+        for (final Future<Integer> sync : syncs) {
+            assertEquals(participants, sync.get());
+        }
+        // next participant starts the next generation
+        final int nextBatchSize = barrierLockService.lockAndExecuteBatch(
+                processIdentifier, new BarrierQuorum(1, 5, QUORUM_WAIT), batchSize -> batchSize
+        );
+        assertEquals(1, nextBatchSize);
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("quorum of 3 to 5 with 2 suppliers present => failed for both at the deadline")
+    void testQuorumNotReached() {
+        final var participants = 2;
+        final var quorum = new BarrierQuorum(3, 5, QUORUM_WAIT);
+        final var barrier = new CyclicBarrier(participants);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var syncs = new ArrayList<Future<Integer>>();
+
+        for (int participant = 0; participant < participants; participant++) {
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await();
+                        return barrierLockService.lockAndExecuteBatch(
+                                processIdentifier, quorum, batchSize -> batchSize
+                        );
+                    })
+            );
+        }
+
+        for (final Future<Integer> sync : syncs) {
+            assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, sync::get).getCause());
+        }
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("participant requesting another quorum of the same batch size, while a generation is open => rejected")
+    void testQuorumMismatch() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var waiting = barrierLockService.lockAndExecuteBatchAsync(
+                processIdentifier, new BarrierQuorum(1, 2, QUORUM_WAIT), batchSize -> batchSize
+        );
+        Thread.sleep(QUORUM_WAIT.toMillis() / 5); // let the first participant open the generation
+
+        assertThrows(
+                IllegalStateException.class,
+                () -> barrierLockService.lockAndExecuteBatch(
+                        processIdentifier, new BarrierQuorum(2, 2, QUORUM_WAIT), batchSize -> batchSize
+                )
+        );
+        assertEquals(1, waiting.get());
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("participant requesting another batch size, while a generation is open => rejected")
+    void testBatchSizeMismatch() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var waiting = barrierLockService.lockAndExecuteBatchAsync(
+                processIdentifier, new BarrierQuorum(2, 2, QUORUM_WAIT), batchSize -> batchSize
+        );
+        Thread.sleep(QUORUM_WAIT.toMillis() / 5); // let the first participant open the generation
+
+        assertThrows(
+                IllegalStateException.class,
+                () -> barrierLockService.lockAndExecuteBatch(processIdentifier, BATCH_SIZE, () -> null)
+        );
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, waiting::get).getCause());
+        // failed generation is closed, so the next one may have any batch size
+        assertEquals(1, barrierLockService.lockAndExecuteBatch(processIdentifier, 1, () -> 1));
+    }
+
+    @SneakyThrows
+    @RepeatedTest(10)
+    @DisplayName("asynchronous participants complete the barrier without blocking the caller")
+    void testAsync() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var threadCompletionQueue = Collections.synchronizedCollection(new LinkedHashSet<Integer>());
+        final var syncs = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int participant = 0; participant < BATCH_SIZE; participant++) {
+            final var participantNumber = participant;
+            syncs.add(
+                    barrierLockService.lockAndExecuteBatchAsync(
+                            processIdentifier, BATCH_SIZE,
+                            () -> {
+                                threadCompletionQueue.add(participantNumber);
+                                return participantNumber;
+                            })
+            );
+        }
+
+        CompletableFuture.allOf(syncs.toArray(CompletableFuture[]::new)).get();
+        for (int participant = 0; participant < BATCH_SIZE; participant++) {
+            assertEquals(participant, syncs.get(participant).get());
+            assertTrue(threadCompletionQueue.contains(participant));
+        }
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("asynchronous batch larger than the async thread pool, mixed with a synchronous participant")
+    void testAsyncAboveThreadPool() {
+        final var participants = 3 * new BarrierProperties().getAsyncThreads();
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var syncs = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int participant = 1; participant < participants; participant++) {
+            syncs.add(barrierLockService.lockAndExecuteBatchAsync(processIdentifier, participants, () -> 1));
+        }
+        assertEquals(1, barrierLockService.lockAndExecuteBatch(processIdentifier, participants, () -> 1));
+
+        for (final CompletableFuture<Integer> sync : syncs) {
+            assertEquals(1, sync.get());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+@TestPropertySource(properties = {
+        "db-locks.barrier.notifications-enabled=true",
+        "db-locks.barrier.fallback-polling-delay=30s"
+})
+class BarrierNotificationTest extends AbstractContainerTest {
+    private static final int BATCH_SIZE = 3;
+
+    /**
+     * Far below both the polling delay of the master and the fallback one, so only the notifications complete
+     * the barrier in time.
+     */
+    private static final Duration MAX_SYNC_TIME = Duration.ofSeconds(3);
+
+    @Autowired
+    private BarrierLockService barrierLockService;
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("master is woken up by the slaves instead of waiting for the next polling attempt")
+    void testNotifiedMasterCompletesBeforePollingDelay() {
+        final var barrier = new CyclicBarrier(BATCH_SIZE);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var threadCompletionQueue = Collections.synchronizedCollection(new LinkedHashSet<Integer>());
+        final var syncs = new ArrayList<Future<Long>>();
+
+        for (int participant = 0; participant < BATCH_SIZE; participant++) {
+            final var participantNumber = participant;
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await(); // sync point
+                        if (participantNumber > 0) {
+                            Thread.sleep(200L * participantNumber); // make sure the master has to wait for the slaves
+                        }
+                        return runMeasuringTime(() ->
+                                barrierLockService.lockAndExecuteBatch(
+                                        processIdentifier, BATCH_SIZE,
+                                        () -> threadCompletionQueue.add(participantNumber)
+                                )
+                        ).executionTime();
+                    })
+            );
+        }
+
+        long maxExecutionTime = 0;
+        for (final Future<Long> sync : syncs) {
+            maxExecutionTime = Math.max(maxExecutionTime, sync.get());
+        }
+
+        log.info("Barrier completed in {} ms", Duration.ofNanos(maxExecutionTime).toMillis());
+        assertEquals(BATCH_SIZE, threadCompletionQueue.size());
+        assertTrue(Duration.ofNanos(maxExecutionTime).compareTo(MAX_SYNC_TIME) < 0);
+    }
+}
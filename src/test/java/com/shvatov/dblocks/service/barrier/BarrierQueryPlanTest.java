@@ -0,0 +1,130 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.model.enums.SyncStatus;
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Seeds the history of the barriers and checks, that the queries of the live barriers are still served
+ * by the indexes. Number of the slaves is set by {@code db-locks.benchmark.barrier-rows}. History is seeded
+ * into a database of its own in a transaction rolled back after the checks, so it never slows down the other tests.
+ */
+@Slf4j
+@ContextConfiguration(initializers = BarrierQueryPlanTest.QueryPlanDatabaseInitializer.class)
+class BarrierQueryPlanTest extends AbstractContainerTest {
+    private static final int SLAVES = Integer.getInteger("db-locks.benchmark.barrier-rows", 1_000_000);
+    private static final int SLAVES_PER_PROCESS = 100;
+    private static final int SLAVES_PER_MASTER = 10;
+    private static final String PROCESS_IDENTIFIER = "plan-42";
+
+    public static class QueryPlanDatabaseInitializer
+            implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+        @Override
+        public void initialize(@NotNull final ConfigurableApplicationContext applicationContext) {
+            // first one wins over the url of the shared database, whatever the order of the initializers
+            applicationContext.getEnvironment().getPropertySources().addFirst(new MapPropertySource(
+                    "query-plan-database",
+                    Map.of("spring.datasource.url", createDatabase("db_locks_query_plans"))
+            ));
+        }
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    @DisplayName("barrier queries do not fall back to the sequential scans on a large history")
+    void testQueryPlans() {
+        final var seededHistory = new TransactionTemplate(transactionManager);
+        seededHistory.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        seededHistory.executeWithoutResult(status -> {
+            status.setRollbackOnly();
+            seedHistory();
+            assertQueryPlans();
+        });
+    }
+
+    private void assertQueryPlans() {
+
+        assertIndexScans("claim available slaves", MasterLockProcessor.CLAIM_AVAILABLE_SLAVES_SQL,
+                ps -> {
+                    ps.setString(1, PROCESS_IDENTIFIER);
+                    ps.setLong(2, 0);
+                    ps.setInt(3, SLAVES_PER_PROCESS);
+                });
+        assertIndexScans("close master lock", MasterLockProcessor.CLOSE_MASTER_LOCK_SQL,
+                ps -> {
+                    ps.setLong(1, -SLAVES - 1);
+                    ps.setString(2, SyncStatus.FAILED.toString());
+                    ps.setInt(3, 1);
+                    ps.setString(4, PROCESS_IDENTIFIER);
+                    ps.setLong(5, 0);
+                });
+        assertIndexScans("master data after processing", SlaveLockProcessor.MASTER_DATA_AFTER_PROCESSING_SQL,
+                ps -> ps.setLong(1, -SLAVES / 2 - 1));
+    }
+
+    /**
+     * Synced masters with their slaves, every slave out of {@link #SLAVES_PER_MASTER} is abandoned.
+     * Ids are negative, so they never clash with the ones of the sequences.
+     */
+    private void seedHistory() {
+        jdbcTemplate.update(
+                """
+                        insert into db_master_lock(id, process_identifier, status, created_at)
+                        select -g, 'plan-' || (g * ? % ?), 'SYNCED', now() - interval '2 days'
+                        from generate_series(1, ?) g""",
+                SLAVES_PER_MASTER, SLAVES / SLAVES_PER_PROCESS, SLAVES / SLAVES_PER_MASTER
+        );
+        jdbcTemplate.update(
+                """
+                        insert into db_slave_lock(id, process_identifier, created_at)
+                        select -g, 'plan-' || (g % ?), now() - interval '2 days'
+                        from generate_series(1, ?) g""",
+                SLAVES / SLAVES_PER_PROCESS, SLAVES
+        );
+        jdbcTemplate.update(
+                """
+                        insert into db_slave_per_master(slave_id, master_id, created_at)
+                        select -g, -((g - 1) / ? + 1), now() - interval '2 days'
+                        from generate_series(1, ?) g
+                        where g % ? <> 0""",
+                SLAVES_PER_MASTER, SLAVES, SLAVES_PER_MASTER
+        );
+        jdbcTemplate.execute("analyze db_master_lock, db_slave_lock, db_slave_per_master");
+    }
+
+    private void assertIndexScans(final String name, final String sql, final PreparedStatementSetter parameters) {
+        final List<String> plan = jdbcTemplate.query(
+                "explain (analyze, buffers) " + sql,
+                parameters,
+                (rs, rowNum) -> rs.getString(1)
+        );
+        log.info("Plan of the query \"{}\" on {} slaves:\n{}", name, SLAVES, String.join("\n", plan));
+        assertFalse(
+                plan.stream().anyMatch(line -> line.contains("Seq Scan on db_")),
+                "Query \"%s\" falls back to a sequential scan".formatted(name)
+        );
+    }
+}
@@ -0,0 +1,158 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.model.enums.SyncStatus;
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockNamespace;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestPropertySource(properties = {
+        "db-locks.barrier.retention.enabled=false",
+        "db-locks.barrier.retention.retention=1h",
+        "db-locks.barrier.retention.batch-size=2"
+})
+class BarrierRetentionReaperTest extends AbstractContainerTest {
+    private static final String EXPIRED = "now() - interval '2 hours'";
+    private static final String FRESH = "now()";
+
+    @Autowired
+    private BarrierRetentionReaper reaper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @RepeatedTest(5)
+    @DisplayName("expired masters and their slaves are deleted in batches, fresh and running ones are kept")
+    void testReap() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var firstId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+
+        final var expiredMasters = List.of(firstId, firstId - 1, firstId - 2);
+        for (final long masterId : expiredMasters) {
+            insertMaster(masterId, processIdentifier, SyncStatus.SYNCED, EXPIRED);
+            insertSlave(masterId - 100, processIdentifier, masterId, EXPIRED);
+        }
+        final var abandonedSlaveId = firstId - 200;
+        insertSlave(abandonedSlaveId, processIdentifier, null, EXPIRED);
+
+        final var freshMasterId = firstId - 300;
+        insertMaster(freshMasterId, processIdentifier, SyncStatus.SYNCED, FRESH);
+        insertSlave(freshMasterId - 100, processIdentifier, freshMasterId, FRESH);
+        final var freshSlaveId = firstId - 500;
+        insertSlave(freshSlaveId, processIdentifier, null, FRESH);
+        insertMaster(null, processIdentifier, SyncStatus.IN_PROGRESS, FRESH);
+
+        reaper.reap();
+
+        assertEquals(
+                List.of(freshMasterId),
+                jdbcTemplate.queryForList(
+                        "select id from db_master_lock where process_identifier = ? and id is not null",
+                        Long.class, processIdentifier
+                )
+        );
+        assertEquals(
+                1,
+                jdbcTemplate.queryForObject(
+                        "select count(*) from db_master_lock where process_identifier = ? and id is null",
+                        Integer.class, processIdentifier
+                )
+        );
+        assertEquals(
+                List.of(freshMasterId - 100, freshSlaveId),
+                jdbcTemplate.queryForList(
+                        "select id from db_slave_lock where process_identifier = ? order by id desc",
+                        Long.class, processIdentifier
+                )
+        );
+        assertEquals(
+                List.of(freshMasterId),
+                jdbcTemplate.queryForList(
+                        "select master_id from db_slave_per_master where slave_id in (?, ?)",
+                        Long.class, freshMasterId - 100, expiredMasters.get(0) - 100
+                )
+        );
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("expired masters in progress are deleted only if nobody holds the lock of their generation")
+    void testReapAbandonedMasters() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var liveSyncKey = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        final var abandonedSyncKey = liveSyncKey - 1;
+        insertRunningMaster(processIdentifier, 0, abandonedSyncKey);
+        insertRunningMaster(processIdentifier, 1, liveSyncKey);
+
+        final var liveKey = AdvisoryLockNamespace.BARRIER_SYNC.keyOf(liveSyncKey);
+        try (final var connection = dataSource.getConnection();
+             final var statement = connection.prepareStatement("select pg_advisory_lock(?, ?)")) {
+            statement.setInt(1, liveKey.namespace());
+            statement.setInt(2, (int) liveKey.key());
+            statement.execute();
+            try {
+                reaper.reap();
+            } finally {
+                // connection goes back to the pool with its session-level locks
+                connection.createStatement().execute("select pg_advisory_unlock_all()");
+            }
+        }
+
+        assertEquals(
+                List.of(1L),
+                jdbcTemplate.queryForList(
+                        "select generation from db_master_lock where process_identifier = ?",
+                        Long.class, processIdentifier
+                )
+        );
+    }
+
+    private void insertRunningMaster(final String processIdentifier, final long generation, final long syncKey) {
+        jdbcTemplate.update(
+                "insert into db_master_lock(process_identifier, generation, status, sync_key, created_at) " +
+                        "values (?, ?, ?, ?, %s)".formatted(EXPIRED),
+                processIdentifier, generation, SyncStatus.IN_PROGRESS.toString(), syncKey
+        );
+    }
+
+    private void insertMaster(final Long masterId,
+                              final String processIdentifier,
+                              final SyncStatus status,
+                              final String createdAt) {
+        jdbcTemplate.update(
+                "insert into db_master_lock(id, process_identifier, status, created_at) values (?, ?, ?, %s)"
+                        .formatted(createdAt),
+                masterId, processIdentifier, status.toString()
+        );
+    }
+
+    private void insertSlave(final long slaveId,
+                             final String processIdentifier,
+                             final Long masterId,
+                             final String createdAt) {
+        jdbcTemplate.update(
+                "insert into db_slave_lock(id, process_identifier, created_at) values (?, ?, %s)".formatted(createdAt),
+                slaveId, processIdentifier
+        );
+        if (masterId != null) {
+            jdbcTemplate.update(
+                    "insert into db_slave_per_master(slave_id, master_id, created_at) values (?, ?, %s)"
+                            .formatted(createdAt),
+                    slaveId, masterId
+            );
+        }
+    }
+}
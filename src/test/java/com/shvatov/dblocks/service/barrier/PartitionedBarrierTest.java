@@ -0,0 +1,151 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import lombok.SneakyThrows;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestPropertySource(properties = {
+        "db-locks.barrier.retention.enabled=false",
+        "db-locks.barrier.retention.partitioned=true",
+        "db-locks.barrier.retention.retention=1h"
+})
+@ContextConfiguration(initializers = PartitionedBarrierTest.PartitionedDatabaseInitializer.class)
+class PartitionedBarrierTest extends AbstractContainerTest {
+    private static final int BATCH_SIZE = 2;
+
+    /**
+     * Older than the first daily partition, so the rows go to the default one.
+     */
+    private static final String EXPIRED = "now() - interval '3 days'";
+    private static final String FRESH = "now()";
+
+    /**
+     * Partitioned schema is created by the migration only, so it gets a database of its own.
+     */
+    public static class PartitionedDatabaseInitializer
+            implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+        @Override
+        public void initialize(@NotNull final ConfigurableApplicationContext applicationContext) {
+            // first one wins over the url of the shared database, whatever the order of the initializers
+            applicationContext.getEnvironment().getPropertySources().addFirst(new MapPropertySource(
+                    "partitioned-database",
+                    Map.of("spring.datasource.url", createDatabase("db_locks_partitioned"))
+            ));
+        }
+    }
+
+    @Autowired
+    private BarrierLockService barrierLockService;
+
+    @Autowired
+    private BarrierRetentionReaper reaper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("barrier is synced on the partitioned slaves and their mappings")
+    void testBarrier() {
+        assertEquals(
+                List.of("p", "p"),
+                jdbcTemplate.queryForList(
+                        "select relkind::text from pg_class " +
+                                "where relname in ('db_slave_lock', 'db_slave_per_master') order by relname",
+                        String.class
+                )
+        );
+
+        final var barrier = new CyclicBarrier(BATCH_SIZE);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var syncs = new ArrayList<Future<Integer>>();
+        for (int participant = 0; participant < BATCH_SIZE; participant++) {
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await();
+                        return barrierLockService.lockAndExecuteBatch(processIdentifier, BATCH_SIZE, () -> BATCH_SIZE);
+                    })
+            );
+        }
+        for (final Future<Integer> sync : syncs) {
+            assertEquals(BATCH_SIZE, sync.get());
+        }
+        assertEquals(
+                1,
+                jdbcTemplate.queryForObject(
+                        "select count(*) from db_slave_lock where process_identifier = ?",
+                        Integer.class, processIdentifier
+                )
+        );
+    }
+
+    @RepeatedTest(5)
+    @DisplayName("expired rows of the default partitions are deleted, whatever their masters are")
+    void testReapDefaultPartitions() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var firstId = -ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE / 2);
+
+        // mapped to a master deleted long ago, so no other statement of the reaper finds them
+        insertSlave(firstId, processIdentifier, firstId - 100, EXPIRED);
+        insertSlave(firstId - 1, processIdentifier, firstId - 100, EXPIRED);
+        final var freshSlaveId = firstId - 2;
+        insertSlave(freshSlaveId, processIdentifier, firstId - 200, FRESH);
+
+        reaper.reap();
+
+        assertEquals(
+                List.of(freshSlaveId),
+                jdbcTemplate.queryForList(
+                        "select id from db_slave_lock where process_identifier = ?",
+                        Long.class, processIdentifier
+                )
+        );
+        assertEquals(
+                List.of(freshSlaveId),
+                jdbcTemplate.queryForList(
+                        "select slave_id from db_slave_per_master where master_id in (?, ?)",
+                        Long.class, firstId - 100, firstId - 200
+                )
+        );
+        assertEquals(
+                0,
+                jdbcTemplate.queryForObject(
+                        "select count(*) from db_slave_lock_default where created_at < now() - interval '1 hour'",
+                        Integer.class
+                )
+        );
+    }
+
+    private void insertSlave(final long slaveId,
+                             final String processIdentifier,
+                             final long masterId,
+                             final String createdAt) {
+        jdbcTemplate.update(
+                "insert into db_slave_lock(id, process_identifier, created_at) values (?, ?, %s)".formatted(createdAt),
+                slaveId, processIdentifier
+        );
+        jdbcTemplate.update(
+                "insert into db_slave_per_master(slave_id, master_id, created_at) values (?, ?, %s)"
+                        .formatted(createdAt),
+                slaveId, masterId
+        );
+    }
+}
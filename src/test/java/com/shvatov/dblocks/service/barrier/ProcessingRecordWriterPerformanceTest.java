@@ -0,0 +1,77 @@
+package com.shvatov.dblocks.service.barrier;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import com.shvatov.dblocks.service.seq.SequenceValueGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Slf4j
+class ProcessingRecordWriterPerformanceTest extends AbstractContainerTest {
+    private static final List<Integer> PARTICIPANTS = List.of(3, 100, 1000);
+    private static final long GENERATION = 0;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private LockConnectionPool lockConnectionPool;
+
+    @Autowired
+    private MasterLockProcessor masterLockProcessor;
+
+    @Autowired
+    private SequenceValueGenerator sequenceValueGenerator;
+
+    @RepeatedTest(5)
+    @DisplayName("compare the commit latency of the processing records for different batch sizes")
+    void testProcessingRecordsCommitLatency() {
+        for (final var participants : PARTICIPANTS) {
+            for (final var mode : ProcessingRecordWriter.Mode.values()) {
+                final var properties = new BarrierProperties();
+                properties.setProcessingRecordsWriteMode(mode);
+                final var writer = new ProcessingRecordWriter(lockConnectionPool, properties);
+
+                final var processIdentifier = uniqueProcessIdentifier();
+                final var masterId = sequenceValueGenerator.nextValue();
+                lockConnectionPool.process(
+                        () -> masterLockProcessor.createMasterLock(processIdentifier, GENERATION, masterId)
+                );
+                final var slaveIds = new ArrayList<Long>();
+                for (int i = 1; i < participants; i++) {
+                    slaveIds.add(sequenceValueGenerator.nextValue());
+                }
+
+                // includes the commit
+                final var executionTime = runMeasuringTime(() ->
+                        lockConnectionPool.execute(() -> {
+                            writer.recordSync(masterId, processIdentifier, GENERATION, slaveIds);
+                            return null;
+                        })
+                ).executionTime();
+
+                log.info(
+                        "Recorded sync of {} participants in mode {} in {} us",
+                        participants, mode, TimeUnit.NANOSECONDS.toMicros(executionTime)
+                );
+                assertEquals(
+                        participants - 1,
+                        jdbcTemplate.queryForObject(
+                                "select count(*) from db_slave_per_master where master_id = ?",
+                                Integer.class,
+                                masterId
+                        )
+                );
+            }
+        }
+    }
+}
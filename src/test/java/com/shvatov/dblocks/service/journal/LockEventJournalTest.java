@@ -0,0 +1,110 @@
+package com.shvatov.dblocks.service.journal;
+
+import com.shvatov.dblocks.model.LockEvent;
+import com.shvatov.dblocks.model.enums.LockEventType;
+import com.shvatov.dblocks.model.enums.LockMode;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LockEventJournalTest {
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 100_000;
+
+    @Test
+    @DisplayName("journal keeps only the latest events, from the oldest to the newest")
+    void testOverwrite() {
+        final var properties = new LockJournalProperties();
+        properties.setCapacity(6); // rounded up to 8
+        final var journal = new LockEventJournal(properties);
+
+        for (int i = 0; i < 20; i++) {
+            journal.record(LockEventType.ACQUISITION, "orders:" + i, LockMode.SHARED, i, -1, "ACQUIRED");
+        }
+
+        final var events = journal.events(Integer.MAX_VALUE);
+        assertEquals(8, journal.capacity());
+        assertEquals(8, events.size());
+        assertEquals(12, events.get(0).sequence());
+        assertEquals("orders:19", events.get(7).processIdentifier());
+        assertEquals(3, journal.events(3).size());
+    }
+
+    @Test
+    @DisplayName("disabled journal records nothing")
+    void testDisabled() {
+        final var properties = new LockJournalProperties();
+        properties.setEnabled(false);
+        final var journal = new LockEventJournal(properties);
+
+        journal.record(LockEventType.RELEASE, "orders:1", LockMode.EXCLUSIVE, -1, 10, "COMMITTED");
+        assertTrue(journal.events(10).isEmpty());
+    }
+
+    @Test
+    @DisplayName("concurrent readers never see an event torn by the writers lapping the ring")
+    void testConcurrentWrites() {
+        final var journal = writeConcurrently(1024);
+        assertEquals(1024, journal.events(Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    @DisplayName("writers lapping a small ring never mix their events in the same slot")
+    void testLappingWrites() {
+        final var journal = writeConcurrently(8);
+        for (final LockEvent event : journal.events(Integer.MAX_VALUE)) {
+            assertEquals(event.waitNanos(), event.holdNanos());
+            assertEquals(event.processIdentifier(), event.outcome());
+        }
+    }
+
+    @SneakyThrows
+    private static LockEventJournal writeConcurrently(final int capacity) {
+        final var properties = new LockJournalProperties();
+        properties.setCapacity(capacity);
+        final var journal = new LockEventJournal(properties);
+        final var executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            final var start = new CountDownLatch(1);
+            final var writers = new ArrayList<Future<?>>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                final var processIdentifier = "family:" + thread;
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (long i = 0; i < EVENTS_PER_THREAD; i++) {
+                        // wait and hold time are equal, so a torn event is easy to spot
+                        journal.record(LockEventType.ACQUISITION, processIdentifier, LockMode.SHARED, i, i, processIdentifier);
+                    }
+                    return null;
+                }));
+            }
+            final var reader = executor.submit(() -> {
+                start.await();
+                while (writers.stream().anyMatch(writer -> !writer.isDone())) {
+                    for (final LockEvent event : journal.events(capacity)) {
+                        assertEquals(event.waitNanos(), event.holdNanos());
+                        assertEquals(event.processIdentifier(), event.outcome());
+                    }
+                }
+                return null;
+            });
+
+            start.countDown();
+            for (final Future<?> writer : writers) {
+                writer.get();
+            }
+            reader.get();
+            return journal;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.shvatov.dblocks.service.lease;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestPropertySource(properties = {
+        "db-locks.lease.ttl=1s",
+        "db-locks.lease.renewal-interval=200ms"
+})
+class LeaseLockTest extends AbstractContainerTest {
+    private static final Duration TTL = Duration.ofSeconds(1);
+
+    @Autowired
+    private LeaseLockService leaseLockService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @RepeatedTest(5)
+    @DisplayName("lease is exclusive and its fencing token grows with each acquisition")
+    void testExclusiveLease() {
+        final var processIdentifier = uniqueProcessIdentifier();
+
+        final var first = leaseLockService.tryAcquire(processIdentifier).orElseThrow();
+        assertTrue(leaseLockService.tryAcquire(processIdentifier).isEmpty());
+        assertTrue(leaseLockService.release(first));
+        assertFalse(leaseLockService.isHeld(first));
+
+        final var second = leaseLockService.tryAcquire(processIdentifier).orElseThrow();
+        assertTrue(second.fencingToken() > first.fencingToken());
+        assertTrue(leaseLockService.release(second));
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("lease held by the live node is renewed and outlives the ttl")
+    void testRenewal() {
+        final var processIdentifier = uniqueProcessIdentifier();
+
+        final var lease = leaseLockService.tryAcquire(processIdentifier).orElseThrow();
+        Thread.sleep(TTL.multipliedBy(3).toMillis());
+
+        assertTrue(leaseLockService.isHeld(lease));
+        assertTrue(leaseLockService.tryAcquire(processIdentifier).isEmpty());
+        assertTrue(leaseLockService.release(lease));
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("lease of a dead node expires and is taken over with a greater fencing token")
+    void testExpiration() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var deadToken = executeInTransaction(() ->
+                jdbcTemplate.queryForObject(
+                        """
+                                insert into db_lock_lease(process_identifier, node_id, fencing_token, expires_at)
+                                values (?, 'dead-node', nextval('seq_lease_fencing_token'), now() + interval '500 milliseconds')
+                                returning fencing_token""",
+                        Long.class,
+                        processIdentifier
+                )
+        );
+
+        assertTrue(leaseLockService.tryAcquire(processIdentifier).isEmpty());
+        final var lease = leaseLockService.acquire(processIdentifier, TTL.multipliedBy(2)).orElseThrow();
+        assertTrue(lease.fencingToken() > deadToken);
+        assertTrue(leaseLockService.release(lease));
+    }
+}
@@ -0,0 +1,266 @@
+package com.shvatov.dblocks.service.memory;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.journal.LockEventJournal;
+import com.shvatov.dblocks.service.journal.LockJournalProperties;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.provider.BarrierQuorum;
+import com.shvatov.dblocks.service.provider.LockProviderProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryLockProviderTest {
+    private static final int THREADS = 8;
+    private static final Duration BARRIER_TIMEOUT = Duration.ofMillis(500);
+
+    private final LockMetrics lockMetrics = new LockMetrics(
+            new StaticListableBeanFactory(Map.of()).getBeanProvider(MeterRegistry.class),
+            new LockEventJournal(new LockJournalProperties())
+    );
+    private final InMemoryReadWriteLockService lockService = new InMemoryReadWriteLockService(lockMetrics);
+    private final InMemoryBarrierService barrierService = new InMemoryBarrierService(barrierProperties(), lockMetrics);
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("exclusive locks of the same process are held by one transaction at a time")
+    void testExclusiveLock() {
+        final var holders = new AtomicInteger();
+        final var maxHolders = new AtomicInteger();
+        final var syncs = new ArrayList<Future<Object>>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            syncs.add(executor.submit(() -> inTransaction(() -> {
+                lockService.acquireExclusiveLock("process");
+                maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                Thread.sleep(10);
+                holders.decrementAndGet();
+                return null;
+            })));
+        }
+
+        syncs.forEach(InMemoryLockProviderTest::await);
+        assertEquals(1, maxHolders.get());
+    }
+
+    @Test
+    @DisplayName("shared locks do not wait for each other, but conflict with the exclusive one")
+    void testSharedLock() {
+        final var sharedHeld = new CountDownLatch(2);
+        final var released = new CountDownLatch(1);
+        final var readers = new ArrayList<Future<Object>>();
+        for (int reader = 0; reader < 2; reader++) {
+            readers.add(executor.submit(() -> inTransaction(() -> {
+                lockService.acquireSharedLock("process");
+                sharedHeld.countDown();
+                released.await();
+                return null;
+            })));
+        }
+
+        assertTrue(await(() -> sharedHeld.await(1, TimeUnit.SECONDS)));
+        assertEquals(
+                LockAcquisitionResult.REJECTED,
+                submitInTransaction(() -> lockService.tryAcquire("process", LockMode.EXCLUSIVE))
+        );
+        assertEquals(
+                LockAcquisitionResult.TIMED_OUT,
+                submitInTransaction(() -> lockService.acquire("process", LockMode.EXCLUSIVE, Duration.ofMillis(50)))
+        );
+        assertEquals(
+                LockAcquisitionResult.ACQUIRED,
+                submitInTransaction(() -> lockService.tryAcquire("process", LockMode.SHARED))
+        );
+
+        released.countDown();
+        readers.forEach(InMemoryLockProviderTest::await);
+        assertEquals(
+                LockAcquisitionResult.ACQUIRED,
+                submitInTransaction(() -> lockService.tryAcquire("process", LockMode.EXCLUSIVE))
+        );
+    }
+
+    @Test
+    @DisplayName("locks are reentrant within the transaction, but shared ones can not be upgraded")
+    void testReentrancy() {
+        inTransaction(() -> {
+            lockService.acquireExclusiveLock("exclusive");
+            lockService.acquireExclusiveLock("exclusive");
+            lockService.acquireSharedLock("exclusive");
+            lockService.acquireSharedLock("shared");
+            assertThrows(IllegalStateException.class, () -> lockService.acquireExclusiveLock("shared"));
+            return null;
+        });
+        assertEquals(
+                LockAcquisitionResult.ACQUIRED,
+                submitInTransaction(() -> lockService.tryAcquire("exclusive", LockMode.EXCLUSIVE))
+        );
+    }
+
+    @Test
+    @DisplayName("update intent is upgraded by its holder and downgraded back before the transaction completes")
+    void testUpdateIntent() {
+        final var acquired = LockAcquisitionResult.ACQUIRED;
+        final var rejected = LockAcquisitionResult.REJECTED;
+        inTransaction(() -> {
+            lockService.acquireUpdateIntentLock("process");
+            assertEquals(List.of(acquired, rejected, rejected), tryAcquireInOtherTransactions("process"));
+
+            assertEquals(acquired, lockService.upgrade("process", Duration.ZERO));
+            assertEquals(List.of(rejected, rejected, rejected), tryAcquireInOtherTransactions("process"));
+
+            lockService.downgrade("process", LockMode.UPDATE_INTENT);
+            assertEquals(List.of(acquired, rejected, rejected), tryAcquireInOtherTransactions("process"));
+
+            lockService.downgrade("process", LockMode.SHARED);
+            assertEquals(List.of(acquired, acquired, rejected), tryAcquireInOtherTransactions("process"));
+
+            assertThrows(IllegalArgumentException.class, () -> lockService.downgrade("process", LockMode.EXCLUSIVE));
+            assertThrows(IllegalStateException.class, () -> lockService.upgrade("process", Duration.ZERO));
+            assertThrows(IllegalStateException.class, () -> lockService.upgrade("other", Duration.ZERO));
+            return null;
+        });
+        assertEquals(List.of(acquired, acquired, acquired), tryAcquireInOtherTransactions("process"));
+    }
+
+    @Test
+    @DisplayName("locks can not be acquired outside of a transaction")
+    void testNoTransaction() {
+        assertThrows(IllegalTransactionStateException.class, () -> lockService.acquireExclusiveLock("process"));
+    }
+
+    @Test
+    @DisplayName("all the participants of the barrier execute their actions once the batch is filled")
+    void testBarrier() {
+        final var executed = new AtomicInteger();
+        final var syncs = new ArrayList<Future<Integer>>();
+        for (int round = 0; round < 2; round++) {
+            for (int participant = 0; participant < THREADS / 2; participant++) {
+                syncs.add(executor.submit(() ->
+                        barrierService.lockAndExecuteBatch("process", THREADS / 2, executed::incrementAndGet)
+                ));
+            }
+        }
+        syncs.forEach(InMemoryLockProviderTest::await);
+        assertEquals(THREADS, executed.get());
+
+        final var asyncs = new ArrayList<Future<Integer>>();
+        for (int participant = 0; participant < THREADS; participant++) {
+            asyncs.add(barrierService.lockAndExecuteBatchAsync("process", THREADS, executed::incrementAndGet));
+        }
+        asyncs.forEach(InMemoryLockProviderTest::await);
+        assertEquals(2 * THREADS, executed.get());
+    }
+
+    @Test
+    @DisplayName("barrier fails for all the participants, if the batch is not filled in time")
+    void testBarrierTimeout() {
+        final var sync = executor.submit(() -> barrierService.lockAndExecuteBatch("process", 3, () -> true));
+        final var async = barrierService.lockAndExecuteBatchAsync("process", 3, () -> true);
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, sync::get).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, async::get).getCause());
+
+        // next participants start a new batch
+        final var next = barrierService.lockAndExecuteBatchAsync("process", 1, () -> true);
+        assertTrue(await(next));
+    }
+
+    @Test
+    @DisplayName("barrier with a quorum is released at the deadline with the participants arrived by then")
+    void testBarrierQuorum() {
+        final var quorum = new BarrierQuorum(2, THREADS, BARRIER_TIMEOUT);
+        final var syncs = new ArrayList<Future<Integer>>();
+        for (int participant = 0; participant < 2; participant++) {
+            syncs.add(executor.submit(() ->
+                    barrierService.lockAndExecuteBatch("process", quorum, batchSize -> batchSize)
+            ));
+        }
+        syncs.add(barrierService.lockAndExecuteBatchAsync("process", quorum, batchSize -> batchSize));
+        syncs.forEach(sync -> assertEquals(3, await(sync)));
+
+        // full batch does not wait for the deadline
+        final var fullQuorum = new BarrierQuorum(1, 2, Duration.ofHours(1));
+        final var full = List.of(
+                barrierService.lockAndExecuteBatchAsync("full", fullQuorum, batchSize -> batchSize),
+                barrierService.lockAndExecuteBatchAsync("full", fullQuorum, batchSize -> batchSize)
+        );
+        full.forEach(sync -> assertEquals(2, await(sync)));
+
+        final var alone = barrierService.lockAndExecuteBatchAsync("process", quorum, batchSize -> batchSize);
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, alone::get).getCause());
+    }
+
+    /**
+     * Tries the shared, the update intent and the exclusive modes, each in a transaction of its own.
+     */
+    private List<LockAcquisitionResult> tryAcquireInOtherTransactions(final String processIdentifier) {
+        return Stream.of(LockMode.SHARED, LockMode.UPDATE_INTENT, LockMode.EXCLUSIVE)
+                .map(mode -> submitInTransaction(() -> lockService.tryAcquire(processIdentifier, mode)))
+                .toList();
+    }
+
+    private <T> T submitInTransaction(final Callable<T> action) {
+        return await(executor.submit(() -> inTransaction(action)));
+    }
+
+    @SneakyThrows
+    private static <T> T inTransaction(final Callable<T> action) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            return action.call();
+        } finally {
+            final var synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationManager.clearSynchronization();
+            synchronizations.forEach(synchronization ->
+                    synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED)
+            );
+        }
+    }
+
+    @SneakyThrows
+    private static <T> T await(final Future<T> future) {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @SneakyThrows
+    private static <T> T await(final Callable<T> action) {
+        return action.call();
+    }
+
+    private static LockProviderProperties barrierProperties() {
+        final var properties = new LockProviderProperties();
+        properties.setInMemoryBarrierTimeout(BARRIER_TIMEOUT);
+        return properties;
+    }
+}
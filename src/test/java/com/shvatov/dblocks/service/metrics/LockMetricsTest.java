@@ -0,0 +1,73 @@
+package com.shvatov.dblocks.service.metrics;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.journal.LockEventJournal;
+import com.shvatov.dblocks.service.journal.LockJournalProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class LockMetricsTest {
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final LockMetrics lockMetrics = new LockMetrics(
+            new StaticListableBeanFactory(Map.of("registry", registry)).getBeanProvider(MeterRegistry.class),
+            new LockEventJournal(new LockJournalProperties())
+    );
+
+    @Test
+    @DisplayName("acquisitions are tagged by the family of the process and the mode")
+    void testAcquisitionTags() {
+        final var startNanos = System.nanoTime();
+        lockMetrics.recordAcquisition("backend", "orders:1", LockMode.EXCLUSIVE, "ACQUIRED", startNanos);
+        lockMetrics.recordAcquisition("backend", "orders:2", LockMode.EXCLUSIVE, "ACQUIRED", startNanos);
+        lockMetrics.recordAcquisition("backend", "no-family", LockMode.SHARED, "TIMED_OUT", startNanos);
+
+        final var ordersTimer = registry.get(LockMetrics.ACQUISITION_TIMER)
+                .tags("family", "orders", "mode", "EXCLUSIVE", "result", LockAcquisitionResult.ACQUIRED.name())
+                .timer();
+        assertEquals(2, ordersTimer.count());
+        assertNotNull(
+                registry.get(LockMetrics.ACQUISITION_TIMER)
+                        .tags("family", "default", "mode", "SHARED")
+                        .timer()
+        );
+    }
+
+    @Test
+    @DisplayName("hold time is recorded on the completion of the transaction")
+    void testHoldTime() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            lockMetrics.recordHoldUntilCompletion("backend", "orders:1", LockMode.SHARED);
+            final var timer = registry.get(LockMetrics.HOLD_TIMER).tags("family", "orders").timer();
+            assertEquals(0, timer.count());
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(it -> it.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+            assertEquals(1, timer.count());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("number of the families is bounded")
+    void testFamiliesAreBounded() {
+        for (int i = 0; i < 1000; i++) {
+            lockMetrics.countTimeout("path", "family-%d:1".formatted(i));
+        }
+
+        assertEquals(101, registry.get(LockMetrics.TIMEOUT_COUNTER).counters().size());
+        assertEquals(900, registry.get(LockMetrics.TIMEOUT_COUNTER).tags("family", "other").counter().count());
+    }
+}
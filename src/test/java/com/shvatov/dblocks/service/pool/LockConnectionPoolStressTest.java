@@ -0,0 +1,109 @@
+package com.shvatov.dblocks.service.pool;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import com.shvatov.dblocks.service.barrier.BarrierLockService;
+import com.shvatov.dblocks.service.readwrite.ReadWriteLockService;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Slf4j
+class LockConnectionPoolStressTest extends AbstractContainerTest {
+    /**
+     * Well below the connection timeout of both pools, so a starved pool fails the test instead of recovering.
+     */
+    private static final Duration COMPLETION_TIMEOUT = Duration.ofSeconds(20);
+    private static final Duration HOLD_TIME = Duration.ofMillis(50);
+
+    @Autowired
+    private ReadWriteLockService readWriteLockService;
+
+    @Autowired
+    private BarrierLockService barrierLockService;
+
+    @Autowired
+    private LockConnectionPool lockConnectionPool;
+
+    @Autowired
+    private LockPoolProperties lockPoolProperties;
+
+    @SneakyThrows
+    @RepeatedTest(3)
+    @DisplayName("threads holding all the application connections still create the missing lock rows")
+    void testApplicationPoolSaturation() {
+        // three times the default size of the application pool, each thread needs a new lock row
+        final var threads = 30;
+        final var barrier = new CyclicBarrier(threads);
+        final var syncs = new ArrayList<Future<Long>>();
+        for (int thread = 0; thread < threads; thread++) {
+            final var processIdentifier = uniqueProcessIdentifier();
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await(); // sync point
+                        return runMeasuringTime(() ->
+                                executeInTransaction(() -> {
+                                    readWriteLockService.acquireExclusiveLock(processIdentifier);
+                                    Thread.sleep(HOLD_TIME.toMillis());
+                                    return null;
+                                })
+                        ).executionTime();
+                    })
+            );
+        }
+
+        long maxExecutionTime = 0;
+        for (final Future<Long> sync : syncs) {
+            maxExecutionTime = Math.max(maxExecutionTime, sync.get(COMPLETION_TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        }
+        log.info("All {} threads acquired their locks in {} ms", threads, TimeUnit.NANOSECONDS.toMillis(maxExecutionTime));
+    }
+
+    @SneakyThrows
+    @RepeatedTest(3)
+    @DisplayName("barrier as large as the lock pool is filled, each participant holds a single connection")
+    void testLockPoolSaturation() {
+        final var batchSize = lockPoolProperties.getMaxSize();
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var barrier = new CyclicBarrier(batchSize);
+        final var executed = new AtomicInteger();
+        final var syncs = new ArrayList<Future<Object>>();
+        for (int participant = 0; participant < batchSize; participant++) {
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await(); // sync point
+                        return barrierLockService.lockAndExecuteBatch(
+                                processIdentifier, batchSize,
+                                () -> executed.incrementAndGet()
+                        );
+                    })
+            );
+        }
+
+        for (final Future<Object> sync : syncs) {
+            sync.get(COMPLETION_TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+        }
+        assertEquals(batchSize, executed.get());
+    }
+
+    @Test
+    @DisplayName("thread, which would need a second connection of the lock pool, fails immediately")
+    void testConnectionBudget() {
+        assertThrows(IllegalStateException.class, () ->
+                lockConnectionPool.execute(() -> lockConnectionPool.execute(() -> 1))
+        );
+        assertEquals(1, lockConnectionPool.executeOnPinnedConnection(() -> lockConnectionPool.execute(() -> 1)));
+    }
+}
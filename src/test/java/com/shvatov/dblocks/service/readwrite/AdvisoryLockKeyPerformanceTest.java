@@ -0,0 +1,125 @@
+package com.shvatov.dblocks.service.readwrite;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKeyStrategy;
+import com.shvatov.dblocks.service.readwrite.key.AdvisoryLockKeyVerifier;
+import com.shvatov.dblocks.service.readwrite.key.Hash64KeyStrategy;
+import com.shvatov.dblocks.service.readwrite.key.HashCodeKeyStrategy;
+import com.shvatov.dblocks.service.readwrite.key.NamespacedKeyStrategy;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class AdvisoryLockKeyPerformanceTest extends AbstractContainerTest {
+    private static final int THREADS = 8;
+    private static final int LOCKS_PER_THREAD = 500;
+    private static final Duration HOLD_TIME = Duration.ofMillis(500);
+
+    @Autowired
+    private NamedParameterJdbcOperations jdbcTemplate;
+
+    @Autowired
+    private AdvisoryLockKeyVerifier keyVerifier;
+
+    @Autowired
+    private LockMetrics lockMetrics;
+
+    @Autowired
+    private LockTurnstile lockTurnstile;
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("identifiers with the same hash code do not wait for each other with 64-bit keys")
+    void testFalseContention() {
+        // "Aa" and "BB" share the same String#hashCode
+        final var hashCodeWaitTime = measureWaitForCollidingLock(new HashCodeKeyStrategy());
+        final var hash64WaitTime = measureWaitForCollidingLock(new Hash64KeyStrategy());
+
+        log.info("Time spent waiting for colliding lock using hash code: {} ns", hashCodeWaitTime);
+        log.info("Time spent waiting for colliding lock using 64-bit hash: {} ns", hash64WaitTime);
+
+        assertTrue(Duration.ofNanos(hashCodeWaitTime).compareTo(HOLD_TIME.dividedBy(2)) > 0);
+        assertTrue(Duration.ofNanos(hash64WaitTime).compareTo(HOLD_TIME.dividedBy(2)) < 0);
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("compare the throughput of the strategies at high identifier cardinality")
+    void testThroughput() {
+        log.info("Locks per second using hash code: {}", measureThroughput(new HashCodeKeyStrategy()));
+        log.info("Locks per second using 64-bit hash: {}", measureThroughput(new Hash64KeyStrategy()));
+        log.info("Locks per second using namespaced keys: {}", measureThroughput(new NamespacedKeyStrategy()));
+    }
+
+    @SneakyThrows
+    private long measureWaitForCollidingLock(final AdvisoryLockKeyStrategy keyStrategy) {
+        final var service = new PgReadWriteLockService(jdbcTemplate, keyStrategy, keyVerifier, lockMetrics, lockTurnstile);
+        final var barrier = new CyclicBarrier(2);
+
+        final var sync1 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    service.acquireExclusiveLock("Aa");
+                    barrier.await(); // sync point
+                    Thread.sleep(HOLD_TIME.toMillis());
+                    return null;
+                })
+        );
+
+        final var sync2 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    barrier.await(); // sync point
+                    return runMeasuringTime(() -> {
+                        service.acquireExclusiveLock("BB");
+                        return null;
+                    }).executionTime();
+                })
+        );
+
+        sync1.get();
+        return sync2.get();
+    }
+
+    @SneakyThrows
+    private long measureThroughput(final AdvisoryLockKeyStrategy keyStrategy) {
+        final var service = new PgReadWriteLockService(jdbcTemplate, keyStrategy, keyVerifier, lockMetrics, lockTurnstile);
+        final var barrier = new CyclicBarrier(THREADS);
+        final var syncs = new ArrayList<Future<Long>>();
+
+        for (int thread = 0; thread < THREADS; thread++) {
+            syncs.add(
+                    executeInThread(() -> {
+                        barrier.await(); // sync point
+                        return runMeasuringTime(() -> {
+                            for (int i = 0; i < LOCKS_PER_THREAD; i++) {
+                                final var processIdentifier = "family-%d:%s".formatted(i % 16, UUID.randomUUID());
+                                executeInTransaction(() -> {
+                                    service.acquireExclusiveLock(processIdentifier);
+                                    return null;
+                                });
+                            }
+                            return null;
+                        }).executionTime();
+                    })
+            );
+        }
+
+        long maxExecutionTime = 0;
+        for (final Future<Long> sync : syncs) {
+            maxExecutionTime = Math.max(maxExecutionTime, sync.get());
+        }
+        return THREADS * LOCKS_PER_THREAD * 1_000_000_000L / maxExecutionTime;
+    }
+}
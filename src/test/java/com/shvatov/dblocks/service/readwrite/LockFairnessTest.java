@@ -0,0 +1,125 @@
+package com.shvatov.dblocks.service.readwrite;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
+import com.shvatov.dblocks.service.pool.LockConnectionPool;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LockFairnessTest extends AbstractContainerTest {
+    private static final Duration WRITER_WAIT_TIME = Duration.ofMillis(200);
+
+    @Autowired
+    private NamedParameterJdbcOperations jdbcTemplate;
+
+    @Autowired
+    private LockConnectionPool lockConnectionPool;
+
+    @Autowired
+    private LockMetrics lockMetrics;
+
+    @Autowired
+    private ReadWriteLockProperties properties;
+
+    @Autowired
+    private ReadWriteLockService readWriteLockService;
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("readers of a fair process queue behind the writer waiting on another node")
+    void testReadersQueueBehindWaitingWriter() {
+        // turnstile of its own, as if the service ran on another node
+        final var otherNode = new ReadWriteLockService(
+                jdbcTemplate, lockConnectionPool, lockMetrics, new LockTurnstile(properties)
+        );
+
+        assertEquals(
+                List.of(LockAcquisitionResult.REJECTED, LockAcquisitionResult.TIMED_OUT),
+                readBehindWaitingWriter(otherNode, "fair:" + uniqueProcessIdentifier())
+        );
+        // readers of the other processes join the shared lock, while the writer waits
+        assertEquals(
+                List.of(LockAcquisitionResult.ACQUIRED, LockAcquisitionResult.ACQUIRED),
+                readBehindWaitingWriter(otherNode, uniqueProcessIdentifier())
+        );
+    }
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("transaction holding the lock of a fair process upgrades it past the writer waiting for it")
+    void testUpgradePastWaitingWriter() {
+        for (final LockMode heldMode : List.of(LockMode.SHARED, LockMode.UPDATE_INTENT)) {
+            final var processIdentifier = "fair:" + uniqueProcessIdentifier();
+            final var holderHolds = new CountDownLatch(1);
+            final var writerWaits = new CountDownLatch(1);
+            final var holder = executeInThread(() ->
+                    executeInTransaction(() -> {
+                        readWriteLockService.acquire(processIdentifier, heldMode, WRITER_WAIT_TIME);
+                        holderHolds.countDown();
+                        writerWaits.await();
+                        return readWriteLockService.upgrade(processIdentifier, WRITER_WAIT_TIME.multipliedBy(5));
+                    })
+            );
+            holderHolds.await();
+
+            // the writer keeps the turnstile of the process, while it waits for the holder in the database
+            final var writer = executeInThread(() ->
+                    executeInTransaction(() -> {
+                        readWriteLockService.acquireExclusiveLock(processIdentifier);
+                        return null;
+                    })
+            );
+            Thread.sleep(WRITER_WAIT_TIME.toMillis());
+            writerWaits.countDown();
+
+            assertEquals(LockAcquisitionResult.ACQUIRED, holder.get(), heldMode.name());
+            writer.get();
+        }
+    }
+
+    @SneakyThrows
+    private List<LockAcquisitionResult> readBehindWaitingWriter(final ReadWriteLockService otherNode,
+                                                                final String processIdentifier) {
+        final var readerHolds = new CountDownLatch(1);
+        final var readerReleases = new CountDownLatch(1);
+        final var reader = executeInThread(() ->
+                executeInTransaction(() -> {
+                    readWriteLockService.acquireSharedLock(processIdentifier);
+                    readerHolds.countDown();
+                    readerReleases.await();
+                    return null;
+                })
+        );
+        readerHolds.await();
+
+        final var writer = executeInThread(() ->
+                executeInTransaction(() -> {
+                    readWriteLockService.acquireExclusiveLock(processIdentifier);
+                    return null;
+                })
+        );
+        Thread.sleep(WRITER_WAIT_TIME.toMillis()); // let the writer wait for the reader
+
+        try {
+            return executeInThread(() -> List.of(
+                    executeInTransaction(() -> otherNode.tryAcquire(processIdentifier, LockMode.SHARED)),
+                    executeInTransaction(() -> otherNode.acquire(processIdentifier, LockMode.SHARED, WRITER_WAIT_TIME))
+            )).get();
+        } finally {
+            readerReleases.countDown();
+            reader.get();
+            writer.get();
+        }
+    }
+}
@@ -1,16 +1,32 @@
 package com.shvatov.dblocks.service.readwrite;
 
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockEventType;
+import com.shvatov.dblocks.model.enums.LockMode;
 import com.shvatov.dblocks.service.AbstractContainerTest;
+import com.shvatov.dblocks.service.journal.LockEventJournal;
+import com.shvatov.dblocks.service.metrics.LockMetrics;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.RepeatedTest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ReadWriteLockTest extends AbstractContainerTest {
@@ -20,14 +36,25 @@ class ReadWriteLockTest extends AbstractContainerTest {
     @Autowired
     private PgReadWriteLockService pgReadWriteLockService;
 
+    @Autowired
+    private CoalescingReadWriteLockService coalescingReadWriteLockService;
+
+    @Autowired
+    private LockEventJournal lockEventJournal;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     private static final AtomicInteger executionCounter = new AtomicInteger(0);
 
     private AbstractReadWriteLockService lockService() {
         final var executionNumber = executionCounter.getAndIncrement();
-        if (executionNumber % 2 == 0) {
+        if (executionNumber % 3 == 0) {
             return readWriteLockService;
+        } else if (executionNumber % 3 == 1) {
+            return pgReadWriteLockService;
         }
-        return pgReadWriteLockService;
+        return coalescingReadWriteLockService;
     }
 
     @SneakyThrows
@@ -193,4 +220,331 @@ class ReadWriteLockTest extends AbstractContainerTest {
         assertTrue(threadToCompletionTime.containsKey(1));
         assertTrue(threadToCompletionTime.containsKey(2));
     }
-}
\ No newline at end of file
+
+    @SneakyThrows
+    @RepeatedTest(20)
+    @DisplayName("try to acquire exclusive lock held by another transaction - rejected without waiting")
+    void testTryAcquireLock() {
+        final var barrier = new CyclicBarrier(2);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = lockService();
+
+        final var sync1 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    service.acquireExclusiveLock(processIdentifier);
+                    barrier.await(); // sync point
+                    barrier.await(); // wait for the other thread to try
+                    return null;
+                })
+        );
+
+        final var sync2 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    barrier.await(); // sync point
+                    try {
+                        return List.of(
+                                service.tryAcquire(processIdentifier, LockMode.EXCLUSIVE),
+                                service.tryAcquire(processIdentifier, LockMode.SHARED)
+                        );
+                    } finally {
+                        barrier.await();
+                    }
+                })
+        );
+
+        sync1.get();
+        assertEquals(List.of(LockAcquisitionResult.REJECTED, LockAcquisitionResult.REJECTED), sync2.get());
+        assertEquals(
+                LockAcquisitionResult.ACQUIRED,
+                executeInTransaction(() -> service.tryAcquire(processIdentifier, LockMode.EXCLUSIVE))
+        );
+    }
+
+    @SneakyThrows
+    @RepeatedTest(20)
+    @DisplayName("acquire exclusive lock with timeout - times out, transaction remains usable")
+    void testAcquireLockWithTimeout() {
+        final var barrier = new CyclicBarrier(2);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var otherProcessIdentifier = uniqueProcessIdentifier();
+        final var timeout = Duration.ofMillis(200);
+        final var service = lockService();
+
+        final var sync1 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    service.acquireSharedLock(processIdentifier);
+                    barrier.await(); // sync point
+                    Thread.sleep(1000); // hold the lock longer than the timeout
+                    return null;
+                })
+        );
+
+        final var sync2 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    barrier.await(); // sync point
+                    final var result = runMeasuringTime(() ->
+                            service.acquire(processIdentifier, LockMode.EXCLUSIVE, timeout)
+                    );
+                    assertEquals(LockAcquisitionResult.TIMED_OUT, result.result());
+                    assertTrue(Duration.ofNanos(result.executionTime()).compareTo(timeout.multipliedBy(4)) < 0);
+                    assertEquals(
+                            LockAcquisitionResult.ACQUIRED,
+                            service.acquire(processIdentifier, LockMode.SHARED, timeout)
+                    );
+                    service.acquireExclusiveLock(otherProcessIdentifier);
+                    return null;
+                })
+        );
+
+        sync1.get();
+        sync2.get();
+    }
+
+    @SneakyThrows
+    @RepeatedTest(20)
+    @DisplayName("acquire locks of overlapping sets of processes in opposite orders - no deadlock")
+    void testAcquireAll() {
+        final var barrier = new CyclicBarrier(2);
+        final var processIdentifiers = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            processIdentifiers.add(uniqueProcessIdentifier());
+        }
+        final var reversedIdentifiers = new ArrayList<>(processIdentifiers);
+        Collections.reverse(reversedIdentifiers);
+        final var service = lockService();
+
+        final var sync1 = executeInThread(() -> {
+            barrier.await(); // sync point
+            for (int attempt = 0; attempt < 10; attempt++) {
+                executeInTransaction(() -> {
+                    service.acquireAll(processIdentifiers, LockMode.EXCLUSIVE);
+                    return null;
+                });
+            }
+            return null;
+        });
+
+        final var sync2 = executeInThread(() -> {
+            barrier.await(); // sync point
+            for (int attempt = 0; attempt < 10; attempt++) {
+                executeInTransaction(() -> {
+                    service.acquireAll(reversedIdentifiers.subList(5, 20), LockMode.EXCLUSIVE);
+                    return null;
+                });
+            }
+            return null;
+        });
+
+        sync1.get();
+        sync2.get();
+
+        final var sync3 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    service.acquireAll(processIdentifiers, LockMode.SHARED);
+                    barrier.await(); // sync point
+                    barrier.await(); // wait for the other thread to try
+                    return null;
+                })
+        );
+
+        final var sync4 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    barrier.await(); // sync point
+                    try {
+                        return List.of(
+                                service.tryAcquire(processIdentifiers.get(0), LockMode.EXCLUSIVE),
+                                service.tryAcquire(processIdentifiers.get(19), LockMode.SHARED)
+                        );
+                    } finally {
+                        barrier.await();
+                    }
+                })
+        );
+
+        sync3.get();
+        assertEquals(List.of(LockAcquisitionResult.REJECTED, LockAcquisitionResult.ACQUIRED), sync4.get());
+    }
+
+    @SneakyThrows
+    @RepeatedTest(6)
+    @DisplayName("update intent lets the readers in, excludes the other intents and is upgraded by its holder")
+    void testUpdateIntent() {
+        final var barrier = new CyclicBarrier(2);
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = lockService();
+
+        final var sync1 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    service.acquireUpdateIntentLock(processIdentifier);
+                    barrier.await(); // sync point
+                    barrier.await(); // wait for the other thread to try
+                    return service.upgrade(processIdentifier, Duration.ofSeconds(10));
+                })
+        );
+
+        final var sync2 = executeInThread(() ->
+                executeInTransaction(() -> {
+                    barrier.await(); // sync point
+                    try {
+                        // each attempt in a transaction of its own, so the acquired shared lock is released
+                        return Stream.of(LockMode.SHARED, LockMode.UPDATE_INTENT, LockMode.EXCLUSIVE)
+                                .map(mode -> executeInTransaction(() -> service.tryAcquire(processIdentifier, mode)))
+                                .toList();
+                    } finally {
+                        barrier.await();
+                    }
+                })
+        );
+
+        assertEquals(
+                List.of(LockAcquisitionResult.ACQUIRED, LockAcquisitionResult.REJECTED, LockAcquisitionResult.REJECTED),
+                sync2.get()
+        );
+        assertEquals(LockAcquisitionResult.ACQUIRED, sync1.get());
+        assertEquals(
+                LockAcquisitionResult.ACQUIRED,
+                executeInTransaction(() -> service.tryAcquire(processIdentifier, LockMode.UPDATE_INTENT))
+        );
+        assertThrows(
+                IllegalStateException.class,
+                () -> executeInTransaction(() -> service.upgrade(processIdentifier, Duration.ZERO))
+        );
+    }
+
+    @SneakyThrows
+    @RepeatedTest(6)
+    @DisplayName("locks held by the transaction are acquired again without going to the database")
+    void testReentrancy() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = lockService();
+
+        executeInTransaction(() -> {
+            service.acquireExclusiveLock(processIdentifier);
+            service.acquireSharedLock(processIdentifier);
+            service.acquireExclusiveLock(processIdentifier);
+            assertEquals(LockAcquisitionResult.ACQUIRED, service.tryAcquire(processIdentifier, LockMode.EXCLUSIVE));
+            service.acquireAll(List.of(processIdentifier), LockMode.EXCLUSIVE);
+
+            final var otherTransaction = executeInThread(() ->
+                    executeInTransaction(() -> service.tryAcquire(processIdentifier, LockMode.SHARED))
+            );
+            assertEquals(LockAcquisitionResult.REJECTED, otherTransaction.get());
+            return null;
+        });
+        assertEquals(4, countAcquisitions(processIdentifier, LockMetrics.REENTERED_RESULT));
+        // the delegate of the coalescing backend does not record the acquisition once more
+        assertEquals(
+                1,
+                countAcquisitions(processIdentifier, LockAcquisitionResult.ACQUIRED.name(), LockMode.EXCLUSIVE)
+        );
+
+        // locks of the completed transaction are forgotten
+        executeInTransaction(() -> {
+            service.acquireSharedLock(processIdentifier);
+            return null;
+        });
+        assertEquals(4, countAcquisitions(processIdentifier, LockMetrics.REENTERED_RESULT));
+    }
+
+    @SneakyThrows
+    @RepeatedTest(6)
+    @DisplayName("locks acquired within a nested transaction are not remembered, so its rollback does not fool the cache")
+    void testNestedTransactionRollback() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = lockService();
+        final var nestedTransaction = new TransactionTemplate(transactionManager);
+        nestedTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+
+        executeInTransaction(() -> {
+            service.acquireSharedLock(processIdentifier);
+            nestedTransaction.executeWithoutResult(status -> {
+                service.acquireExclusiveLock(processIdentifier);
+                status.setRollbackOnly();
+            });
+
+            service.acquireSharedLock(processIdentifier);
+            final var otherTransaction = executeInThread(() ->
+                    executeInTransaction(() -> service.tryAcquire(processIdentifier, LockMode.SHARED))
+            );
+            assertEquals(LockAcquisitionResult.ACQUIRED, otherTransaction.get());
+            // exclusive lock is requested from the database again, as is everything after the savepoint
+            service.acquireExclusiveLock(processIdentifier);
+            service.acquireExclusiveLock(processIdentifier);
+            return null;
+        });
+        assertEquals(1, countAcquisitions(processIdentifier, LockMetrics.REENTERED_RESULT));
+        assertEquals(
+                3,
+                countAcquisitions(processIdentifier, LockAcquisitionResult.ACQUIRED.name(), LockMode.EXCLUSIVE)
+        );
+    }
+
+    @SneakyThrows
+    @RepeatedTest(4)
+    @DisplayName("shared lock acquired by the transaction itself is upgraded, the one joined on the node is not")
+    void testCoalescedUpgrade() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = coalescingReadWriteLockService;
+
+        executeInTransaction(() -> {
+            service.acquireSharedLock(processIdentifier);
+            // waits for the holder started by this reader to release the shared lock of the node
+            service.acquireExclusiveLock(processIdentifier);
+            final var otherTransaction = executeInThread(() ->
+                    executeInTransaction(() -> service.tryAcquire(processIdentifier, LockMode.SHARED))
+            );
+            assertEquals(LockAcquisitionResult.REJECTED, otherTransaction.get());
+            return null;
+        });
+
+        final var owner = new CountDownLatch(1);
+        final var release = new CountDownLatch(1);
+        final var ownerTransaction = executeInThread(() ->
+                executeInTransaction(() -> {
+                    service.acquireSharedLock(processIdentifier);
+                    owner.countDown();
+                    release.await();
+                    return null;
+                })
+        );
+        owner.await();
+        try {
+            // the holder may not have acquired the lock yet, then the reader locks in its own transaction
+            var joined = false;
+            while (!joined) {
+                joined = executeInTransaction(() -> {
+                    service.acquireSharedLock(processIdentifier);
+                    try {
+                        assertEquals(
+                                LockAcquisitionResult.REJECTED,
+                                service.upgrade(processIdentifier, Duration.ZERO)
+                        );
+                        return false;
+                    } catch (final IllegalStateException exception) {
+                        return true;
+                    }
+                });
+            }
+        } finally {
+            release.countDown();
+        }
+        ownerTransaction.get();
+    }
+
+    private long countAcquisitions(final String processIdentifier, final String outcome) {
+        return lockEventJournal.events(lockEventJournal.capacity()).stream()
+                .filter(event -> event.type() == LockEventType.ACQUISITION)
+                .filter(event -> event.processIdentifier().equals(processIdentifier))
+                .filter(event -> event.outcome().equals(outcome))
+                .count();
+    }
+
+    private long countAcquisitions(final String processIdentifier, final String outcome, final LockMode mode) {
+        return lockEventJournal.events(lockEventJournal.capacity()).stream()
+                .filter(event -> event.type() == LockEventType.ACQUISITION)
+                .filter(event -> event.processIdentifier().equals(processIdentifier))
+                .filter(event -> event.outcome().equals(outcome))
+                .filter(event -> event.mode() == mode)
+                .count();
+    }
+}
@@ -0,0 +1,107 @@
+package com.shvatov.dblocks.service.readwrite.key;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+@Slf4j
+class AdvisoryLockKeyStrategyTest {
+    private static final int CARDINALITY = 1_000_000;
+
+    @Test
+    @DisplayName("compare the false contention rate of the strategies at high identifier cardinality")
+    void testFalseContentionRate() {
+        final var hashCodeCollisions = countCollisions(new HashCodeKeyStrategy());
+        final var hash64Collisions = countCollisions(new Hash64KeyStrategy());
+        final var namespacedCollisions = countCollisions(new NamespacedKeyStrategy());
+
+        log.info("Colliding identifiers out of {} using hash code: {}", CARDINALITY, hashCodeCollisions);
+        log.info("Colliding identifiers out of {} using 64-bit hash: {}", CARDINALITY, hash64Collisions);
+        log.info("Colliding identifiers out of {} using namespaced keys: {}", CARDINALITY, namespacedCollisions);
+
+        assertEquals(0, hash64Collisions);
+    }
+
+    @Test
+    @DisplayName("identifiers with the same hash code get different 64-bit keys")
+    void testHashCodeCollision() {
+        // "Aa" and "BB" share the same String#hashCode
+        assertEquals(new HashCodeKeyStrategy().keyOf("Aa"), new HashCodeKeyStrategy().keyOf("BB"));
+        assertNotEquals(new Hash64KeyStrategy().keyOf("Aa"), new Hash64KeyStrategy().keyOf("BB"));
+    }
+
+    @Test
+    @DisplayName("families of the identifiers are mapped to different namespaces")
+    void testNamespaces() {
+        final var strategy = new NamespacedKeyStrategy();
+        final var orderKey = strategy.keyOf("orders:42");
+        final var paymentKey = strategy.keyOf("payments:42");
+
+        assertNotEquals(orderKey.namespace(), paymentKey.namespace());
+        assertEquals(orderKey.namespace(), strategy.keyOf("orders:43").namespace());
+        assertEquals(strategy.keyOf("42").namespace(), strategy.keyOf("default:42").namespace());
+    }
+
+    @Test
+    @DisplayName("intent keys are namespaced and do not collide with the keys of the identifiers")
+    void testIntentKeys() {
+        final var plainKey = new Hash64KeyStrategy().keyOf("orders:42");
+        final var namespacedKey = new NamespacedKeyStrategy().keyOf("orders:42");
+
+        assertNotEquals(plainKey.keySpace(), plainKey.intentKey().keySpace());
+        assertEquals(plainKey.key(), plainKey.intentKey().packedKey());
+        assertEquals(AdvisoryLockNamespace.INTENT.getNamespace(), namespacedKey.intentKey().namespace());
+        assertNotEquals(namespacedKey, namespacedKey.intentKey());
+        assertNotEquals(
+                namespacedKey.intentKey(),
+                new NamespacedKeyStrategy().keyOf("orders:43").intentKey()
+        );
+    }
+
+    @Test
+    @DisplayName("namespaces reserved for the infrastructure are never derived from the identifiers")
+    void testReservedNamespaces() {
+        final var reserved = AdvisoryLockNamespace.BARRIER_SYNC.getNamespace();
+
+        assertNotEquals(reserved, AdvisoryLockNamespace.outsideReserved(reserved));
+        assertEquals(
+                AdvisoryLockNamespace.outsideReserved(reserved),
+                AdvisoryLockNamespace.outsideReserved(AdvisoryLockNamespace.outsideReserved(reserved))
+        );
+        assertEquals(42, AdvisoryLockNamespace.outsideReserved(42));
+        assertNotEquals(reserved, AdvisoryLockKey.of((long) reserved << 32).intentKey().namespace());
+    }
+
+    @Test
+    @DisplayName("keys of the sequence values are not truncated and stay in the reserved namespaces")
+    void testSequenceValueKeys() {
+        final var value = 1_000_000_000_000L;
+        final var key = AdvisoryLockNamespace.BARRIER_SLAVE.keyOf(value);
+
+        assertNotEquals(key, AdvisoryLockNamespace.BARRIER_SLAVE.keyOf(value + (1L << 32)));
+        assertNotEquals(key, AdvisoryLockNamespace.BARRIER_SYNC.keyOf(value));
+        assertNotEquals(key.namespace(), AdvisoryLockNamespace.outsideReserved(key.namespace()));
+        assertEquals(
+                AdvisoryLockKey.of(AdvisoryLockNamespace.BARRIER_SLAVE.getNamespace(), 42),
+                AdvisoryLockNamespace.BARRIER_SLAVE.keyOf(42)
+        );
+    }
+
+    private static long countCollisions(final AdvisoryLockKeyStrategy strategy) {
+        final var keys = new HashSet<AdvisoryLockKey>(CARDINALITY * 2);
+        long collisions = 0;
+        for (int i = 0; i < CARDINALITY; i++) {
+            final var processIdentifier = "process-%d:%s".formatted(i % 16, UUID.randomUUID());
+            if (!keys.add(strategy.keyOf(processIdentifier))) {
+                collisions++;
+            }
+        }
+        return collisions;
+    }
+}
@@ -0,0 +1,132 @@
+package com.shvatov.dblocks.service.readwrite.reactive;
+
+import com.shvatov.dblocks.model.enums.LockAcquisitionResult;
+import com.shvatov.dblocks.model.enums.LockMode;
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.IllegalTransactionStateException;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestPropertySource(properties = "db-locks.r2dbc.enabled=true")
+class ReactiveReadWriteLockTest extends AbstractContainerTest {
+    private static final Duration HOLD_TIME = Duration.ofMillis(500);
+
+    @Autowired
+    private ReactiveReadWriteLockService reactiveReadWriteLockService;
+
+    @Autowired
+    private ReactivePgReadWriteLockService reactivePgReadWriteLockService;
+
+    @Autowired
+    private ReactiveLockTransactions transactions;
+
+    private static final AtomicInteger executionCounter = new AtomicInteger(0);
+
+    private AbstractReactiveReadWriteLockService lockService() {
+        return executionCounter.getAndIncrement() % 2 == 0 ? reactiveReadWriteLockService : reactivePgReadWriteLockService;
+    }
+
+    @RepeatedTest(10)
+    @DisplayName("acquire exclusive lock - second transaction waits for the first one")
+    void testExclusiveLock() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = lockService();
+
+        final var first = transactions.transactional(
+                service.acquireExclusiveLock(processIdentifier)
+                        .then(Mono.delay(HOLD_TIME))
+                        .then(Mono.fromCallable(System::nanoTime))
+        );
+        final var second = Mono.delay(Duration.ofMillis(100)) // ensure, that this transaction will be second
+                .then(transactions.transactional(
+                        service.acquireExclusiveLock(processIdentifier)
+                                .then(Mono.fromCallable(System::nanoTime))
+                ));
+
+        final var completionTimes = Mono.zip(first, second).block();
+        assertTrue(completionTimes.getT2() > completionTimes.getT1());
+    }
+
+    @RepeatedTest(10)
+    @DisplayName("acquire shared locks - transactions do not wait for each other")
+    void testSharedLock() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = lockService();
+
+        final var first = transactions.transactional(
+                service.acquireSharedLock(processIdentifier)
+                        .then(Mono.delay(HOLD_TIME))
+                        .then(Mono.fromCallable(System::nanoTime))
+        );
+        final var second = Mono.delay(Duration.ofMillis(100))
+                .then(transactions.transactional(
+                        service.acquireSharedLock(processIdentifier)
+                                .then(Mono.fromCallable(System::nanoTime))
+                ));
+
+        final var completionTimes = Mono.zip(first, second).block();
+        assertTrue(completionTimes.getT2() < completionTimes.getT1());
+    }
+
+    @RepeatedTest(10)
+    @DisplayName("try to acquire exclusive lock held by another transaction - rejected without waiting")
+    void testTryAcquireLock() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = lockService();
+
+        final var holder = transactions.transactional(
+                service.acquireExclusiveLock(processIdentifier).then(Mono.delay(HOLD_TIME)).then()
+        );
+        final var attempt = Mono.delay(Duration.ofMillis(100))
+                .then(transactions.transactional(service.tryAcquire(processIdentifier, LockMode.SHARED)));
+
+        assertEquals(LockAcquisitionResult.REJECTED, Mono.zip(holder.thenReturn(true), attempt).block().getT2());
+        assertEquals(
+                LockAcquisitionResult.ACQUIRED,
+                transactions.transactional(service.tryAcquire(processIdentifier, LockMode.EXCLUSIVE)).block()
+        );
+    }
+
+    @RepeatedTest(5)
+    @DisplayName("failed attempt to acquire the update intent does not keep the intent till the end of the transaction")
+    void testFailedUpdateIntent() {
+        final var processIdentifier = uniqueProcessIdentifier();
+        final var service = reactivePgReadWriteLockService;
+
+        final var holder = transactions.transactional(
+                service.acquireExclusiveLock(processIdentifier).then(Mono.delay(HOLD_TIME)).then()
+        );
+        final var failedAttempt = Mono.delay(Duration.ofMillis(100))
+                .then(transactions.transactional(
+                        service.tryAcquire(processIdentifier, LockMode.UPDATE_INTENT)
+                                .flatMap(result -> Mono.delay(HOLD_TIME.multipliedBy(2)).thenReturn(result))
+                ));
+        // the holder is gone, while the failed attempt is still open
+        final var nextAttempt = Mono.delay(HOLD_TIME.plusMillis(200))
+                .then(transactions.transactional(service.tryAcquire(processIdentifier, LockMode.UPDATE_INTENT)));
+
+        final var results = Mono.zip(holder.thenReturn(true), failedAttempt, nextAttempt).block();
+        assertEquals(LockAcquisitionResult.REJECTED, results.getT2());
+        assertEquals(LockAcquisitionResult.ACQUIRED, results.getT3());
+    }
+
+    @Test
+    @DisplayName("acquire lock without transaction - fails")
+    void testLockWithoutTransaction() {
+        assertThrows(
+                IllegalTransactionStateException.class,
+                () -> reactivePgReadWriteLockService.acquireExclusiveLock(uniqueProcessIdentifier()).block()
+        );
+    }
+}
@@ -0,0 +1,73 @@
+package com.shvatov.dblocks.service.seq;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Slf4j
+class SequenceValueGeneratorPerformanceTest extends AbstractContainerTest {
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 2_000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("compare the throughput of the id generation with and without pooling")
+    void testThroughput() {
+        final var plainThroughput = measureThroughput(false);
+        final var pooledThroughput = measureThroughput(true);
+
+        log.info("Ids per second using nextval per id: {}", plainThroughput);
+        log.info("Ids per second using pooled allocation: {}", pooledThroughput);
+    }
+
+    @SneakyThrows
+    private long measureThroughput(final boolean pooled) {
+        final var properties = new SequenceProperties();
+        properties.setPooled(pooled);
+        final var generator = new SequenceValueGenerator(jdbcTemplate, properties);
+
+        final var barrier = new CyclicBarrier(THREADS);
+        final var ids = ConcurrentHashMap.<Long>newKeySet();
+        final var syncs = new ArrayList<Future<Long>>();
+        try {
+            for (int thread = 0; thread < THREADS; thread++) {
+                syncs.add(
+                        executeInThread(() -> {
+                            barrier.await(); // sync point
+                            return runMeasuringTime(() -> {
+                                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                                    ids.add(generator.nextValue());
+                                }
+                                return null;
+                            }).executionTime();
+                        })
+                );
+            }
+
+            long maxExecutionTime = 0;
+            for (final Future<Long> sync : syncs) {
+                maxExecutionTime = Math.max(maxExecutionTime, sync.get());
+            }
+
+            // all the ids must be unique regardless of the mode
+            assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+            return THREADS * IDS_PER_THREAD * 1_000_000_000L / maxExecutionTime;
+        } finally {
+            generator.shutdown();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.shvatov.dblocks.utils;
+
+import com.shvatov.dblocks.service.AbstractContainerTest;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcTemplateUtilsTest extends AbstractContainerTest {
+    private static final int GROUPS = 3;
+
+    /**
+     * Connections of the pool left free apart from the groups and the holder, e.g. for the lock infrastructure.
+     */
+    private static final int POOL_MARGIN = 3;
+
+    /**
+     * Participants never wait for the connections, so the ones missing the sync point fail the test instead of
+     * making it hang.
+     */
+    private static final Duration SYNC_TIMEOUT = Duration.ofSeconds(10);
+    private static final long ADVISORY_LOCK_KEY = 42L;
+    private static final Duration QUERY_TIMEOUT = Duration.ofSeconds(1);
+    private static final Duration LOCK_TIMEOUT = Duration.ofMillis(200);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int maxPoolSize;
+
+    @SneakyThrows
+    @RepeatedTest(5)
+    @DisplayName("timeouts of concurrent queries do not affect each other")
+    void testTimeoutsAreIsolated() {
+        // all the groups and the holder fit into the pool
+        final var threadsPerGroup = Math.max((maxPoolSize - 1 - POOL_MARGIN) / GROUPS, 1);
+        final var lockHeld = new CountDownLatch(1);
+        final var lockRelease = new CountDownLatch(1);
+        final var barrier = new CyclicBarrier(GROUPS * threadsPerGroup);
+
+        final var holder = executeInThread(() ->
+                executeInTransaction(() -> {
+                    jdbcTemplate.queryForObject("select pg_advisory_xact_lock(?)::text", String.class, ADVISORY_LOCK_KEY);
+                    lockHeld.countDown();
+                    lockRelease.await(SYNC_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                    return null;
+                })
+        );
+        assertTrue(lockHeld.await(SYNC_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+
+        final var timedQueries = new ArrayList<Future<Boolean>>();
+        final var lockTimeouts = new ArrayList<Future<String>>();
+        final var plainQueries = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < threadsPerGroup; i++) {
+            // statements, which are cancelled by the per-statement timeout
+            timedQueries.add(
+                    executeInThread(() ->
+                            executeInTransaction(() -> {
+                                barrier.await(SYNC_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS); // sync point
+                                return JdbcTemplateUtils.querySingleWithTimeout(
+                                        jdbcTemplate,
+                                        "select pg_sleep(3)::text",
+                                        ps -> {
+                                        },
+                                        (rs, rowNum) -> rs.getString(1),
+                                        QUERY_TIMEOUT
+                                ).isPresent();
+                            })
+                    )
+            );
+
+            // lock waits, which are interrupted by the transaction-local lock_timeout
+            lockTimeouts.add(
+                    executeInThread(() ->
+                            executeInTransaction(() -> {
+                                barrier.await(SYNC_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS); // sync point
+                                final var acquired = JdbcTemplateUtils.withLockTimeout(
+                                        jdbcTemplate,
+                                        LOCK_TIMEOUT,
+                                        () -> {
+                                            jdbcTemplate.queryForObject(
+                                                    "select pg_advisory_xact_lock(?)::text",
+                                                    String.class,
+                                                    ADVISORY_LOCK_KEY
+                                            );
+                                            return true;
+                                        }
+                                );
+                                assertFalse(acquired);
+                                // transaction is still usable and the timeout is restored
+                                return jdbcTemplate.queryForObject("select current_setting('lock_timeout')", String.class);
+                            })
+                    )
+            );
+
+            // statements without any timeout, which take longer than the timeouts of the others
+            plainQueries.add(
+                    executeInThread(() ->
+                            executeInTransaction(() -> {
+                                barrier.await(SYNC_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS); // sync point
+                                jdbcTemplate.queryForObject("select pg_sleep(1.5)::text", String.class);
+                                return jdbcTemplate.getQueryTimeout() == -1;
+                            })
+                    )
+            );
+        }
+
+        for (final Future<Boolean> sync : timedQueries) {
+            assertFalse(sync.get());
+        }
+        for (final Future<String> sync : lockTimeouts) {
+            assertEquals("0", sync.get());
+        }
+        for (final Future<Boolean> sync : plainQueries) {
+            assertTrue(sync.get());
+        }
+
+        lockRelease.countDown();
+        holder.get();
+    }
+}